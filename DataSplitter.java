@@ -19,7 +19,8 @@ Copyright (C) Vasileios Charisopoulos, 2015
 */
 
 import java.io.File;
-import java.io.FilenameFilter;
+
+import gr.demokritos.dataTools.CorpusReader;
 
 
 /**
@@ -46,12 +47,7 @@ public class DataSplitter {
 		n = order; 
 		
 		// populate the filelist
-		File dir = new File(directory);
-		fileList = dir.list(new FilenameFilter() {
-			public boolean accept(File directory, String fileName) {
-				return fileName.endsWith(".txt");
-			}
-		});
+		fileList = CorpusReader.scan(new File(directory)).names(".txt");
 
 		if (n >= fileList.length) {
 			throw new IllegalArgumentException("N is larger than #data");
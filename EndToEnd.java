@@ -0,0 +1,203 @@
+/*
+This file is part of nggSpamFilter.
+
+nggSpamFilter is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+nggSpamFilter is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with nggSpamFilter.  If not, see <http://www.gnu.org/licenses/>.
+
+Copyright (C) Vasileios Charisopoulos, 2015
+
+*/
+
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import gr.demokritos.iit.jinsect.documentModel.representations.DocumentNGramGraph;
+import gr.demokritos.iit.jinsect.storage.INSECTFileDB;
+import gr.demokritos.dataTools.CompactNGramGraph;
+import gr.demokritos.dataTools.CorpusReader;
+import gr.demokritos.dataTools.MappedModel;
+import gr.demokritos.dataTools.MultiModelScorer;
+import gr.demokritos.dataTools.Pipeline;
+import gr.demokritos.dataTools.SyntheticCorpus;
+
+/**
+ * An end-to-end throughput benchmark on a synthetic corpus. It generates
+ * a seeded spam/ham corpus (once per seed and size), then times the 
+ * phases a deployment goes through, the way NGramGraphClassifier runs 
+ * them: training the two models and removing their noise, persisting 
+ * them, loading the compact models back and classifying the test set.
+ * For every phase it reports the wall time, the messages per second 
+ * and the peak heap usage; a reused corpus has no generate phase.
+ * 
+ * Usage: EndToEnd workDir [messagesPerClass [threads [seed]]]
+ * 
+ * @author VHarisop
+ *
+ */
+public class EndToEnd {
+
+	public static void main(String[] args) throws Exception {
+		
+		File work = new File(args[0]);
+		int train = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+		int threads = (args.length > 2) ? Integer.parseInt(args[2]) 
+				: Runtime.getRuntime().availableProcessors();
+		long seed = (args.length > 3) ? Long.parseLong(args[3]) : 1;
+		int test = Math.max(1, train / 4);
+		
+		// the same seed and size always give the same corpus
+		File corpus = new File(work, "corpus-" + seed + "-" + train);
+		if (!corpus.isDirectory()) {
+			Phase generate = new Phase("generate", 2 * (train + test));
+			new SyntheticCorpus(seed).writeBinary(corpus, train, test);
+			generate.end();
+		}
+		
+		Phase phase = new Phase("train", 2 * train);
+		DocumentNGramGraph spamModel = new Modeller(corpus + "/Train/Spam").getModel();
+		DocumentNGramGraph hamModel = new Modeller(corpus + "/Train/Ham").getModel();
+		DocumentNGramGraph[] models = NGramGraphClassifier.removeNoise(spamModel, hamModel);
+		CompactNGramGraph spamCompact = CompactGraphs.fromGraph(models[0]);
+		CompactNGramGraph hamCompact = CompactGraphs.fromGraph(models[1]);
+		phase.end();
+		
+		File modelDir = new File(work, "models-" + seed + "-" + train);
+		modelDir.mkdirs();
+		phase = new Phase("persist", 2);
+		INSECTFileDB<DocumentNGramGraph> db = 
+			new INSECTFileDB<DocumentNGramGraph>("", modelDir.getPath() + "/");
+		db.saveObject(models[0], "spam", "grph");
+		db.saveObject(models[1], "ham", "grph");
+		MappedModel.save(spamCompact, new File(modelDir, "spam.ngm"));
+		MappedModel.save(hamCompact, new File(modelDir, "ham.ngm"));
+		phase.end();
+		
+		// drop the models, so that loading starts from the files
+		spamModel = hamModel = null;
+		models = null;
+		spamCompact = hamCompact = null;
+		
+		phase = new Phase("load", 2);
+		final MultiModelScorer scorer = new MultiModelScorer(
+				MappedModel.open(new File(modelDir, "spam.ngm")), 
+				MappedModel.open(new File(modelDir, "ham.ngm")));
+		phase.end();
+		
+		// spam files first, so the label of a file follows from its index
+		File[] spam = CorpusReader.scan(new File(corpus, "Test/Spam")).files();
+		File[] ham = CorpusReader.scan(new File(corpus, "Test/Ham")).files();
+		File[] files = new File[spam.length + ham.length];
+		System.arraycopy(spam, 0, files, 0, spam.length);
+		System.arraycopy(ham, 0, files, spam.length, ham.length);
+		final int numSpam = spam.length;
+		final AtomicInteger correct = new AtomicInteger();
+		
+		phase = new Phase("classify", files.length);
+		Pipeline<String, CompactNGramGraph> pipeline = 
+			new Pipeline<String, CompactNGramGraph>(threads, threads, threads, 2 * threads);
+		pipeline.run(files, 
+			new Pipeline.Stage<File, String>() {
+				public String apply(File file) throws Exception {
+					return CorpusReader.readText(file);
+				}
+			},
+			new Pipeline.Stage<String, CompactNGramGraph>() {
+				public CompactNGramGraph apply(String text) {
+					return scorer.candidate(text);
+				}
+			},
+			new Pipeline.Sink<CompactNGramGraph>() {
+				public void accept(int index, CompactNGramGraph cng) {
+					// model 0 is spam, model 1 is ham
+					if (scorer.best(cng) == (index < numSpam ? 0 : 1)) {
+						correct.incrementAndGet();
+					}
+				}
+			});
+		phase.end();
+		
+		System.out.print(pipeline.report());
+		System.out.printf("accuracy: %.4f on %d test messages, %d threads\n", 
+				correct.get() / (double) files.length, files.length, threads);
+		System.out.println();
+		System.out.print(Phase.table());
+	}
+	
+	/**
+	 * The wall time and the peak heap usage of a phase. The heap is 
+	 * collected at the start of every phase, so the peak of a phase 
+	 * does not include the garbage of the ones before it. The peak is
+	 * the largest total heap usage sampled every few milliseconds; 
+	 * summing the peaks of the heap pools would overstate it, as the 
+	 * pools peak at different times.
+	 */
+	private static class Phase {
+		
+		private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+		private static final long SAMPLE_MILLIS = 5;
+		
+		private static final StringBuilder rows = new StringBuilder(
+				String.format("%-9s %12s %12s %14s\n", "phase", "wall (ms)", "msgs/s", "peak heap (MB)"));
+		
+		private final String name;
+		private final int messages;
+		private final long start;
+		private final Thread sampler;
+		// written by the sampler until it is joined
+		private long peak = 0;
+		
+		Phase(String name, int messages) {
+			this.name = name;
+			this.messages = messages;
+			System.gc();
+			sample();
+			
+			sampler = new Thread("EndToEnd-" + name + "-heap") {
+				public void run() {
+					while (!isInterrupted()) {
+						sample();
+						try {
+							Thread.sleep(SAMPLE_MILLIS);
+						}
+						catch (InterruptedException ex) {
+							return;
+						}
+					}
+				}
+			};
+			sampler.setDaemon(true);
+			start = System.nanoTime();
+			sampler.start();
+		}
+		
+		private void sample() {
+			peak = Math.max(peak, MEMORY.getHeapMemoryUsage().getUsed());
+		}
+		
+		void end() throws InterruptedException {
+			long wall = System.nanoTime() - start;
+			sampler.interrupt();
+			sampler.join();
+			sample();
+			rows.append(String.format("%-9s %12.1f %12.1f %14.1f\n", name, wall / 1e6, 
+					messages * 1e9 / Math.max(1, wall), peak / (double) (1 << 20)));
+		}
+		
+		static String table() {
+			return rows.toString();
+		}
+	}
+}
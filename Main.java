@@ -18,15 +18,40 @@ Copyright (C) Vasileios Charisopoulos, 2015
 
 */
 
+import java.util.concurrent.TimeUnit;
+
+import gr.demokritos.dataTools.MetricsRegistry;
+import gr.demokritos.dataTools.ScoringServer;
+
 public class Main {
 
-	public static void main(String[] args) {
+	public static void main(String[] args) throws Exception {
+		
+		// expose latencies and model sizes over JMX
+		MetricsRegistry.get().registerMBean();
+		
+		// resident mode: Main --serve trainDirectory port
+		if (args[0].equals("--serve")) {
+			NGramGraphClassifier clf = new NGramGraphClassifier(args[1]);
+			MetricsRegistry.get().startDumps(60, TimeUnit.SECONDS, System.err);
+			new ScoringServer(clf, Integer.parseInt(args[2])).serve();
+			return;
+		}
 		
 		// create an NGG classifier 
 		NGramGraphClassifier clf = new NGramGraphClassifier(args[0]);
 		
-		// perform classification
-		clf.classify(args[1]);
+		// perform classification, optionally on a number of threads
+		int numThreads = (args.length > 2) ? Integer.parseInt(args[2]) : 1;
+		
+		// with an edge budget, compare the models before and after pruning
+		if (args.length > 3) {
+			clf.comparePruning(args[1], Integer.parseInt(args[3]), numThreads);
+		}
+		else {
+			clf.classify(args[1], numThreads);
+		}
+		System.out.print(MetricsRegistry.get().snapshot());
 		
 	}
 }
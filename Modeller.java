@@ -21,7 +21,11 @@ Copyright (C) Vasileios Charisopoulos, 2015
 import gr.demokritos.iit.jinsect.documentModel.representations.*;
 
 import java.io.File;
-import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+import gr.demokritos.dataTools.CorpusReader;
+import gr.demokritos.dataTools.MetricsRegistry;
 
 
 /**
@@ -35,6 +39,25 @@ public class Modeller {
 	private String[] filenameList;
 	private DocumentNGramGraph[] distroGraphs;
 	private DocumentNGramGraph modelGraph;
+	
+	// fold documents into the model as they are parsed
+	private static boolean streaming = false;
+	
+	private static final MetricsRegistry.Histogram BUILD_TIME = 
+		MetricsRegistry.get().histogram(MetricsRegistry.BUILD);
+	private static final MetricsRegistry.Histogram MERGE_TIME = 
+		MetricsRegistry.get().histogram(MetricsRegistry.MERGE);
+	private static final LongAdder TRAIN_DOCUMENTS = 
+		MetricsRegistry.get().counter(MetricsRegistry.TRAIN_DOCUMENTS);
+
+	/**
+	 * static setter for enabling/disabling streaming model building:
+	 * every document is merged into the model as soon as it is parsed 
+	 * and then dropped, instead of keeping all document graphs alive
+	 */
+	public static void setStreaming(boolean setting) {
+		streaming = setting;
+	}
 
 	/**
 	 * Creates an instance of Modeller from a given directory
@@ -42,17 +65,16 @@ public class Modeller {
 	 * @param dirPath the directory path
 	 */
 	public Modeller(String dirPath) {	
-		File directory = new File(dirPath);
-		
-		// save the directory .corpus files to a filelist
-		filenameList = directory.list(new FilenameFilter() {
-			public boolean accept(File dirPath, String fileName) {
-				return fileName.endsWith(".txt");
-			}
-		});
+		// save the directory .txt files to a filelist
+		filenameList = CorpusReader.scan(new File(dirPath)).names(".txt");
 		
-		initGraphs(dirPath);
-		updateGraphs();
+		if (streaming) {
+			streamGraphs(dirPath);
+		}
+		else {
+			initGraphs(dirPath);
+			updateGraphs();
+		}
 	}
 	
 	
@@ -74,15 +96,51 @@ public class Modeller {
 				filename = dirPath + "/" + filenameList[index];
 				
 				// create the distribution graphs for the email body
-				distroGraphs[index] = new DocumentNGramGraph(); 
-				distroGraphs[index].loadDataStringFromFile(filename);
+				distroGraphs[index] = readGraph(new File(filename));
+				TRAIN_DOCUMENTS.increment();
 				
 			} catch (Exception ex) {
+				// an unreadable document counts as an empty one
+				distroGraphs[index] = new DocumentNGramGraph();
 				ex.printStackTrace();
 			}			
 		}
 	}
 	
+	/**
+	 * Parses every file of the corpus and immediately merges it 
+	 * into the model with the running-mean learning rate
+	 * @param dirPath the directory of the modelling set
+	 */
+	private void streamGraphs(String dirPath) {
+		int merged = 0;
+		
+		System.out.println("Streaming graphs...");
+		for (int index = 0; index < filenameList.length; index++) {
+			
+			if (index % 50 == 0) { System.out.println(index); }
+			DocumentNGramGraph dg;
+			try {
+				dg = readGraph(new File(dirPath, filenameList[index]));
+				TRAIN_DOCUMENTS.increment();
+			} catch (Exception ex) {
+				// an unreadable document counts as an empty one, as in batch mode
+				dg = new DocumentNGramGraph();
+				ex.printStackTrace();
+			}
+			
+			if (merged == 0) {
+				modelGraph = dg;
+			}
+			else {
+				long t0 = System.nanoTime();
+				modelGraph.mergeGraph(dg, 1.0 / (merged + 1));
+				MERGE_TIME.recordSince(t0);
+			}
+			merged++;
+		}
+	}
+	
 	/**
 	 * Iterates over all graphs created and merges them into
 	 * one "model" graph.
@@ -101,10 +159,29 @@ public class Modeller {
 			// update learning parameter to use weight averaging
 			lr = 1 - (index / (double)(index + 1));
 			
+			long t0 = System.nanoTime();
 			modelGraph.mergeGraph(distroGraphs[index], lr); 
+			MERGE_TIME.recordSince(t0);
 		}
 	}
 	
+	/**
+	 * Parses a document into an n-gram graph. The text is read through
+	 * the shared corpus reader, as loadDataStringFromFile would read it.
+	 * @param file the document
+	 * @return the graph of the document
+	 * @throws IOException if the document cannot be read
+	 */
+	public static DocumentNGramGraph readGraph(File file) throws IOException {
+		String text = CorpusReader.readText(file);
+		
+		long t0 = System.nanoTime();
+		DocumentNGramGraph dg = new DocumentNGramGraph();
+		dg.setDataString(text);
+		BUILD_TIME.recordSince(t0);
+		return dg;
+	}
+	
 	/**
 	 * Simple getter for accessing the model graph
 	 * @return the model graph
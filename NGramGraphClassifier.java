@@ -19,8 +19,28 @@ Copyright (C) Vasileios Charisopoulos, 2015
 */
 
 import java.io.File;
-import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import gr.demokritos.iit.jinsect.storage.INSECTFileDB;
+import gr.demokritos.dataTools.CompactNGramGraph;
+import gr.demokritos.dataTools.CorpusFingerprint;
+import gr.demokritos.dataTools.CorpusReader;
+import gr.demokritos.dataTools.ModelCache;
+import gr.demokritos.dataTools.MappedModel;
+import gr.demokritos.dataTools.MetricsRegistry;
+import gr.demokritos.dataTools.MultiModelScorer;
+import gr.demokritos.dataTools.NearDuplicateCache;
+import gr.demokritos.dataTools.OnlineModels;
+import gr.demokritos.dataTools.Scorer;
+import gr.demokritos.dataTools.Verdict;
+import gr.demokritos.dataTools.VerdictCache;
 
 import gr.demokritos.iit.jinsect.documentModel.comparators.NGramCachedGraphComparator;
 import gr.demokritos.iit.jinsect.structs.GraphSimilarity;
@@ -32,7 +52,7 @@ import gr.demokritos.iit.jinsect.documentModel.representations.*;
  * @author VHarisop
  *
  */
-public class NGramGraphClassifier {
+public class NGramGraphClassifier implements Scorer {
 
 	private String spamDir, hamDir;
 	private String spamTestDir, hamTestDir;
@@ -42,7 +62,67 @@ public class NGramGraphClassifier {
 	// models[0] is the spam model, models[1] is the ham model
 	private DocumentNGramGraph[] models;
 	
-	private NGramCachedGraphComparator ngc; 
+	// scores against compact copies of the models; these are 
+	// mapped from the binary model files when those exist, in which
+	// case the DocumentNGramGraph models are not loaded at all
+	private volatile MultiModelScorer scorer;
+	
+	// the model cache generation of the training set
+	private File genDir;
+	
+	// models that absorb new documents, if learning is enabled
+	private OnlineModels online;
+	
+	// reuses the verdicts of near-duplicate messages, if enabled
+	private volatile NearDuplicateCache duplicates;
+	
+	// reuses the verdicts of identical messages, if enabled
+	private volatile VerdictCache verdicts;
+	
+	private static boolean useCompact = true;
+	
+	// maximum number of edges of a compact model, or 0 for no pruning
+	private static int pruneEdges = 0;
+	
+	// cached model generations, keyed by training corpus fingerprint
+	private static ModelCache modelCache = new ModelCache(new File("models"), 4);
+	
+	// n-gram parameters of the models, part of the fingerprint
+	private static final String MODEL_PARAMS = "DocumentNGramGraph(3,3,3)";
+	
+	private static final MetricsRegistry.Histogram NOISE_TIME = 
+		MetricsRegistry.get().histogram(MetricsRegistry.NOISE);
+	private static final MetricsRegistry.Histogram SIMILARITY_TIME = 
+		MetricsRegistry.get().histogram(MetricsRegistry.SIMILARITY);
+	private static final MetricsRegistry.Histogram CLASSIFY_TIME = 
+		MetricsRegistry.get().histogram(MetricsRegistry.CLASSIFY);
+	
+	/**
+	 * static setter for scoring with compact graphs instead 
+	 * of JInsect's DocumentNGramGraph comparator. Must be called 
+	 * before the classifier is created to take effect on loading.
+	 */
+	public static void setCompactScoring(boolean setting) {
+		useCompact = setting;
+	}
+	
+	/**
+	 * static setter for pruning the compact models to their 
+	 * {@code maxEdges} heaviest edges (0 disables pruning). Must be 
+	 * called before the classifier is created to take effect.
+	 */
+	public static void setPruning(int maxEdges) {
+		pruneEdges = maxEdges;
+	}
+	
+	/**
+	 * static setter for the model cache: models are stored under 
+	 * {@code baseDir}, one generation per training corpus, and up to
+	 * {@code maxGenerations} generations are kept
+	 */
+	public static void setModelCache(File baseDir, int maxGenerations) {
+		modelCache = new ModelCache(baseDir, maxGenerations);
+	}
 	
 	/**
 	 * Creates a spam classifier using N-gram graphs
@@ -60,13 +140,18 @@ public class NGramGraphClassifier {
 	 * @param _testDir the directory of the test set
 	 */
 	public void classify(String _testDir) {
-		spamTestDir = _testDir + "/Spam"; hamTestDir = _testDir + "/Ham";
-		
-		int[] spamNums = classify_spam(spamTestDir);
-		int[] hamNums = classify_ham(hamTestDir);
-		
-		int [] confData = ConfusionMatrix.flattenSeqs(spamNums, hamNums);
-		ConfusionMatrix cnf = new ConfusionMatrix(2, confData);
+		classify(_testDir, 1);
+	}
+	
+	/**
+	 * Perform binary classification on a given set of test data,
+	 * spreading the test files over a number of threads. The results
+	 * are the same as those of the serial run.
+	 * @param _testDir the directory of the test set
+	 * @param numThreads the number of threads to use
+	 */
+	public void classify(String _testDir, int numThreads) {
+		ConfusionMatrix cnf = evaluate(_testDir, numThreads);
 		
 		double [] spamStats = cnf.precisionAndRecall(0);
 		double [] hamStats = cnf.precisionAndRecall(1);
@@ -79,16 +164,265 @@ public class NGramGraphClassifier {
 		System.out.println("Ham Precision: " + hamStats[0]);
 		System.out.println("Ham Recall: " + hamStats[1]);
 		System.out.println("Ham F1 score: " + cnf.f1Score(1));
+		
+		if (verdicts != null) {
+			System.out.println("Exact cache hits: " + verdicts.hits() 
+					+ " of " + (verdicts.hits() + verdicts.misses()));
+		}
+		if (duplicates != null) {
+			System.out.println("Near-duplicate hit rate: " + duplicates.hitRate());
+		}
+	}
+	
+	/**
+	 * Classifies a given set of test data and puts the 
+	 * results in a confusion matrix
+	 * @param _testDir the directory of the test set
+	 * @param numThreads the number of threads to use
+	 * @return the resulting confusion matrix
+	 */
+	public ConfusionMatrix evaluate(String _testDir, int numThreads) {
+		return evaluate(_testDir, numThreads, useCompact || models == null);
+	}
+	
+	/**
+	 * Classifies a given set of test data with a given scoring mode
+	 * and puts the results in a confusion matrix
+	 * @param _testDir the directory of the test set
+	 * @param numThreads the number of threads to use
+	 * @param compact True to score with the compact graphs, False
+	 * 		  to use JInsect's comparator
+	 * @return the resulting confusion matrix
+	 */
+	private ConfusionMatrix evaluate(String _testDir, int numThreads, boolean compact) {
+		spamTestDir = _testDir + "/Spam"; hamTestDir = _testDir + "/Ham";
+		
+		int[] spamNums = classify_spam(spamTestDir, numThreads, compact);
+		int[] hamNums = classify_ham(hamTestDir, numThreads, compact);
+		
+		int [] confData = ConfusionMatrix.flattenSeqs(spamNums, hamNums);
+		return new ConfusionMatrix(2, confData);
+	}
+	
+	/**
+	 * Reports the size and the accuracy of the compact models before
+	 * and after pruning them to a given number of edges. The classifier
+	 * keeps its unpruned models.
+	 * @param _testDir the directory of the test set
+	 * @param maxEdges the maximum number of edges per model
+	 * @param numThreads the number of threads to use
+	 * @return the confusion matrices before and after pruning
+	 */
+	public ConfusionMatrix[] comparePruning(String _testDir, int maxEdges, int numThreads) {
+		MultiModelScorer full = scorer;
+		try {
+			ConfusionMatrix before = evaluate(_testDir, numThreads, true);
+			scorer = full.pruned(maxEdges);
+			modelsChanged();
+			ConfusionMatrix after = evaluate(_testDir, numThreads, true);
+			
+			printPruning(full.storedEdges(), before, scorer.storedEdges(), after);
+			return new ConfusionMatrix[] { before, after };
+		}
+		finally {
+			// a new generation, so the verdict cache accepts it again
+			scorer = full.renewed();
+			modelsChanged();
+		}
+	}
+	
+	private static void printPruning(long fullEdges, ConfusionMatrix before, 
+									 long prunedEdges, ConfusionMatrix after) {
+		System.out.println("Full models: " + fullEdges + " edges, " 
+				+ fullEdges * CompactNGramGraph.BYTES_PER_EDGE + " bytes");
+		System.out.println("Pruned models: " + prunedEdges + " edges, " 
+				+ prunedEdges * CompactNGramGraph.BYTES_PER_EDGE + " bytes");
+		System.out.println("Accuracy: " + before.accuracy() + " -> " + after.accuracy());
+		System.out.println("Spam F1 score: " + before.f1Score(0) + " -> " + after.f1Score(0));
+		System.out.println("Ham F1 score: " + before.f1Score(1) + " -> " + after.f1Score(1));
+	}
+	
+	/**
+	 * @return the class labels, in the order of the models
+	 */
+	public String[] getLabels() {
+		return new String[] { "spam", "ham" };
+	}
+	
+	/**
+	 * Scores a single message against the spam and ham models, 
+	 * using their compact graphs. Safe to call concurrently.
+	 * @param text the raw text of the message
+	 * @return the verdict (0 for spam, 1 for ham) and both similarities
+	 */
+	public Verdict score(String text) {
+		return score(text, scorer);
+	}
+	
+	/**
+	 * Scores a batch of messages against one snapshot of the models, so
+	 * models learned meanwhile never mix into a batch; messages that go
+	 * through the near-duplicate cache are scored with the models of the
+	 * moment. Safe to call concurrently.
+	 * @param texts the raw texts of the messages
+	 * @return the verdicts, in the order of the texts
+	 */
+	@Override
+	public Verdict[] scoreAll(String[] texts) {
+		MultiModelScorer mms = scorer;
+		Verdict[] verdicts = new Verdict[texts.length];
+		for (int i = 0; i < texts.length; ++i) {
+			verdicts[i] = score(texts[i], mms);
+		}
+		return verdicts;
+	}
+	
+	/**
+	 * Scores a message through the caches with a given scorer
+	 * @param text the raw text of the message
+	 * @param mms the scorer of the models to use
+	 * @return the verdict and both similarities
+	 */
+	private Verdict score(String text, MultiModelScorer mms) {
+		long t0 = System.nanoTime();
+		try {
+			VerdictCache exact = verdicts;
+			if (exact == null) {
+				return scoreNearDuplicate(text, mms);
+			}
+		
+			String key = verdictKey(CompactNGramGraph.normalizeText(text), true);
+			Verdict v = exact.get(key, mms.generation());
+			if (v == null) {
+				v = scoreNearDuplicate(text, mms);
+				exact.put(key, mms.generation(), v);
+			}
+			return v;
+		}
+		finally {
+			CLASSIFY_TIME.recordSince(t0);
+		}
+	}
+	
+	/**
+	 * Scores a message through the near-duplicate cache, if enabled
+	 * @param text the raw text of the message
+	 * @param mms the scorer to use if the cache is not enabled
+	 * @return the verdict and both similarities
+	 */
+	private Verdict scoreNearDuplicate(String text, MultiModelScorer mms) {
+		NearDuplicateCache cache = duplicates;
+		return (cache != null) ? cache.score(text) : scoreFully(text, mms);
+	}
+	
+	/**
+	 * Scores a message against both models, bypassing any cache
+	 * @param text the raw text of the message
+	 * @param mms the scorer of the models to use
+	 * @return the verdict and both similarities
+	 */
+	private static Verdict scoreFully(String text, MultiModelScorer mms) {
+		double[] sims = mms.similarities(
+				mms.candidate(CompactNGramGraph.normalizeText(text)));
+		return new Verdict((sims[0] > sims[1]) ? 0 : 1, sims);
+	}
+	
+	/**
+	 * Puts a near-duplicate cache in front of compact scoring: messages
+	 * whose MinHash signature is close enough to that of a recently 
+	 * scored message get its verdict without being scored.
+	 * @param maxEntries the maximum number of cached verdicts
+	 * @param ttlMillis the time to live of a cached verdict, in ms
+	 * @param threshold the minimum estimated Jaccard similarity 
+	 * 		  for reusing a verdict
+	 * @see NearDuplicateCache
+	 */
+	public void enableDuplicateCache(int maxEntries, long ttlMillis, double threshold) {
+		duplicates = new NearDuplicateCache(new Scorer() {
+			public String[] getLabels() {
+				return NGramGraphClassifier.this.getLabels();
+			}
+			
+			public Verdict score(String text) {
+				return scoreFully(text, scorer);
+			}
+		}, maxEntries, ttlMillis, threshold);
+	}
+	
+	/**
+	 * Puts a cache of verdicts for identical messages in front of 
+	 * scoring and file classification, keyed by the SHA-256 digest 
+	 * of the message text. Cached verdicts are dropped whenever the
+	 * models change.
+	 * @param maxEntries the maximum number of cached verdicts
+	 * @param maxBytes the maximum estimated size of the cache
+	 * @see VerdictCache
+	 */
+	public void enableVerdictCache(int maxEntries, long maxBytes) {
+		verdicts = new VerdictCache(maxEntries, maxBytes);
+	}
+	
+	/**
+	 * @return the exact verdict cache, or null if it is not enabled
+	 */
+	public VerdictCache getVerdictCache() {
+		return verdicts;
+	}
+	
+	/**
+	 * @return the near-duplicate cache, or null if it is not enabled
+	 */
+	public NearDuplicateCache getDuplicateCache() {
+		return duplicates;
+	}
+	
+	/**
+	 * Drops the cached verdicts after the scoring models change
+	 */
+	private void modelsChanged() {
+		NearDuplicateCache cache = duplicates;
+		if (cache != null) {
+			cache.clear();
+		}
 	}
 	
 	/**
-	 * Creates the two model graphs.
+	 * Creates the two model graphs, or loads them from the model cache
+	 * if they were built from a training corpus with the same fingerprint.
 	 * Also performs maximal common subset removal to come up
 	 * with a more distinctive graph for each category.
 	 */
 	private void createModels() {
 		
-		INSECTFileDB<DocumentNGramGraph> db = new INSECTFileDB<DocumentNGramGraph>();
+		try {
+			// only the .txt files Modeller trains on
+			genDir = modelCache.generation(CorpusFingerprint.of(false, MODEL_PARAMS, 
+					".txt", new File(spamDir), new File(hamDir)));
+		}
+		catch (IOException ex) {
+			throw new RuntimeException("Cannot fingerprint the training set", ex);
+		}
+		
+		// pruned models are cached next to the full ones
+		String suffix = (pruneEdges > 0) ? "-" + pruneEdges : "";
+		File spamFile = new File(genDir, "spam" + suffix + ".ngm");
+		File hamFile = new File(genDir, "ham" + suffix + ".ngm");
+		
+		// compact scoring can start straight from the mapped model files;
+		// the scorer indexes their edges when the first message is scored
+		if (useCompact && spamFile.exists() && hamFile.exists()) {
+			try {
+				scorer = new MultiModelScorer(
+					MappedModel.open(spamFile), MappedModel.open(hamFile));
+				return;
+			}
+			catch (IOException ex) {
+				ex.printStackTrace();
+			}
+		}
+		
+		INSECTFileDB<DocumentNGramGraph> db = 
+			new INSECTFileDB<DocumentNGramGraph>("", genDir.getPath() + "/");
 		
 		if (db.existsObject("spam", "grph") && db.existsObject("ham", "grph")) {
 			
@@ -112,6 +446,108 @@ public class NGramGraphClassifier {
 			db.saveObject(models[1], "ham", "grph");
 		}
 		
+		CompactNGramGraph spamCompact = CompactGraphs.fromGraph(models[0]);
+		CompactNGramGraph hamCompact = CompactGraphs.fromGraph(models[1]);
+		if (pruneEdges > 0) {
+			spamCompact.prune(pruneEdges);
+			hamCompact.prune(pruneEdges);
+		}
+		scorer = new MultiModelScorer(spamCompact, hamCompact);
+		
+		// save the binary models for fast startup
+		try {
+			MappedModel.save(spamCompact, spamFile);
+			MappedModel.save(hamCompact, hamFile);
+		}
+		catch (IOException ex) {
+			ex.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Enables online learning: the models start from the exact mean 
+	 * of the compact graphs of the training documents of every class
+	 * (before noise removal), and {@link #learn(String, int)} merges 
+	 * new documents into them. The JInsect models are not means, so 
+	 * the sums of the training documents are built once per model 
+	 * cache generation, in a pass over the training set, and cached as
+	 * {@code spam-sum.ngm} and {@code ham-sum.ngm}. Learned models are 
+	 * pruned like the loaded ones. Learned documents only affect 
+	 * compact scoring and are not written to the model cache.
+	 * @param batchSize the number of learned documents between 
+	 * 		  noise removal steps and new scoring models
+	 * @throws IOException if the sums cannot be written to the cache
+	 */
+	public void enableLearning(int batchSize) throws IOException {
+		File[] spamFiles = trainingFiles(spamDir);
+		File[] hamFiles = trainingFiles(hamDir);
+		
+		CompactNGramGraph[] sums = new CompactNGramGraph[] {
+			documentSum(spamFiles, new File(genDir, "spam-sum.ngm")),
+			documentSum(hamFiles, new File(genDir, "ham-sum.ngm"))
+		};
+		long[] counts = new long[] { spamFiles.length, hamFiles.length };
+		
+		online = new OnlineModels(sums, counts, batchSize, pruneEdges);
+		scorer = new MultiModelScorer(online.getModels());
+		modelsChanged();
+	}
+	
+	/**
+	 * Merges a labelled message into the models, e.g. a message 
+	 * reported as spam by a user. Requires learning to be enabled.
+	 * Scoring switches to the new models once per batch of messages.
+	 * @param text the raw text of the message
+	 * @param label 0 for spam, 1 for ham
+	 */
+	public void learn(String text, int label) {
+		if (online == null) {
+			throw new IllegalStateException("Learning is not enabled");
+		}
+		
+		CompactNGramGraph doc = scorer.candidate(CompactNGramGraph.normalizeText(text));
+		// one learner at a time publishes, so scorers never go back in time
+		synchronized (online) {
+			if (online.learn(doc, label)) {
+				scorer = new MultiModelScorer(online.getModels());
+				modelsChanged();
+			}
+		}
+	}
+	
+	/**
+	 * Loads the sum of the graphs of a set of training documents from
+	 * the model cache, or builds and caches it
+	 * @param files the training documents of a class
+	 * @param sumFile the cached sum
+	 * @return the sum of the document graphs
+	 * @throws IOException if the sum cannot be cached
+	 */
+	private static CompactNGramGraph documentSum(File[] files, File sumFile) 
+			throws IOException 
+	{
+		if (sumFile.isFile()) {
+			try {
+				return MappedModel.open(sumFile).toGraph();
+			}
+			catch (IOException ex) {
+				// a corrupt sum is rebuilt
+				ex.printStackTrace();
+			}
+		}
+		// the n-gram parameters of MODEL_PARAMS
+		CompactNGramGraph sum = OnlineModels.sumOf(files, 3, 3, 3);
+		MappedModel.save(sum, sumFile);
+		return sum;
+	}
+	
+	/**
+	 * Lists the .txt documents of a directory, the ones Modeller trains on
+	 * @param dirPath the directory
+	 * @return the documents
+	 */
+	private static File[] trainingFiles(String dirPath) {
+		return CorpusReader.scan(new File(dirPath)).files(".txt");
 	}
 	
 	/**
@@ -124,8 +560,11 @@ public class NGramGraphClassifier {
 	public static DocumentNGramGraph[] removeNoise(DocumentNGramGraph wdg,
 			 DocumentNGramGraph otherWdg)
 	{
+		long t0 = System.nanoTime();
 		DocumentNGramGraph maxSubset = otherWdg.intersectGraph(wdg);
-		return new DocumentNGramGraph[] { wdg.allNotIn(maxSubset), otherWdg.allNotIn(maxSubset) };
+		DocumentNGramGraph[] result = { wdg.allNotIn(maxSubset), otherWdg.allNotIn(maxSubset) };
+		NOISE_TIME.recordSince(t0);
+		return result;
 	}
 	
 	
@@ -133,44 +572,170 @@ public class NGramGraphClassifier {
 	 * Performs binary classification (SPAM vs. HAM) on a set of ham messages
 	 * using a pair of n-gram graphs as model for spam and ham messages respectively
 	 * @param dirPath the directory of the ham test-set
+	 * @param numThreads the number of threads to classify with
+	 * @param compact True to score with the compact graphs
 	 * @return an array of integers denoting false positives and true negatives respectively
 	 */
-	private int[] classify_ham(String dirPath)
+	private int[] classify_ham(String dirPath, int numThreads, boolean compact)
 	{
-		int hams = 0;
+		// save all .txt files
+		filenameList = CorpusReader.scan(new File(dirPath)).names(".txt");
 		
-		File directory = new File(dirPath);
-		ngc = new NGramCachedGraphComparator();
+		int hams = countMatches(dirPath, filenameList, 1, 0, numThreads, compact);
 		
-		DocumentNGramGraph spamModel = models[0];
-		DocumentNGramGraph hamModel = models[1];
+		// ret[0]: false positives
+		// ret[1]: true negatives
+		return (new int[] {filenameList.length - hams, hams});
+	}
+	
+	/**
+	 * Counts the files of a test set that are classified as belonging 
+	 * to a given category rather than the other one. Files are handed out
+	 * to the workers one at a time, and every worker owns its comparator
+	 * since NGramCachedGraphComparator is not thread-safe. 
+	 * @param dirPath the directory of the test set
+	 * @param files the names of the files in the directory
+	 * @param mdl the index of the model of the category to count
+	 * @param otherMdl the index of the model of the other category
+	 * @param numThreads the number of worker threads
+	 * @param compact True to score with the compact graphs
+	 * @return the number of files assigned to category {@code mdl}
+	 */
+	private int countMatches(final String dirPath, final String[] files,
+							 final int mdl, final int otherMdl, int numThreads,
+							 final boolean compact)
+	{
+		final AtomicInteger next = new AtomicInteger();
 		
-		// save all .txt files
-		filenameList = directory.list(new FilenameFilter() {
-			public boolean accept(File dirPath, String fileName) {
-				return fileName.endsWith(".txt");
+		Callable<Integer> worker = new Callable<Integer>() {
+			public Integer call() {
+				NGramCachedGraphComparator cmp = new NGramCachedGraphComparator();
+				int matches = 0;
+				
+				for (int i = next.getAndIncrement(); i < files.length; 
+						i = next.getAndIncrement()) 
+				{
+					try {
+						if (classify(dirPath + "/" + files[i], mdl, otherMdl, cmp, compact)) {
+							matches += 1;
+						}
+					}
+					catch (Exception ex) {
+						ex.printStackTrace();
+					}
+				}
+				return matches;
 			}
-		}); 
-		
+		};
 		
-		for (int index = 0; index < filenameList.length; ++index)
-		{
+		numThreads = Math.max(1, numThreads);
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<Integer>> results = 
+				pool.invokeAll(Collections.nCopies(numThreads, worker));
 			
-			DocumentNGramGraph ngg = new DocumentNGramGraph();
-			try {
-				ngg.loadDataStringFromFile(dirPath + "/" + filenameList[index]);
-				if (classify(ngg, hamModel, spamModel)) {
-					hams += 1;
-				}
+			int matches = 0;
+			for (Future<Integer> res: results) {
+				matches += res.get();
 			}
-			catch (Exception ex) {
-				ex.printStackTrace();
+			return matches;
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ex);
+		}
+		catch (ExecutionException ex) {
+			throw new RuntimeException(ex.getCause());
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Decides whether the file at a given path should be classified
+	 * as belonging to a certain category
+	 * @param path the path of the candidate file
+	 * @param mdl the index of the model of the first category
+	 * @param otherMdl the index of the model of the second category
+	 * @param cmp the comparator to use if compact scoring is disabled
+	 * @param compact True to score with the compact graphs
+	 * @return True if classified as part of the first category, else False
+	 * @throws IOException if the file cannot be read
+	 */
+	private boolean classify(String path, int mdl, int otherMdl, 
+							 NGramCachedGraphComparator cmp, boolean compact) throws IOException 
+	{
+		long t0 = System.nanoTime();
+		try {
+			if (verdicts != null) {
+				double[] sims = cachedSimilarities(path, cmp, compact);
+				return (sims[mdl] > sims[otherMdl]);
 			}
-			
+			if (compact && duplicates != null) {
+				double[] sims = duplicates.score(CompactNGramGraph.loadText(path)).similarities;
+				return (sims[mdl] > sims[otherMdl]);
+			}
+			if (compact) {
+				MultiModelScorer mms = scorer;
+				return mms.beats(mms.candidate(new File(path)), mdl, otherMdl);
+			}
+		
+			DocumentNGramGraph ngg = Modeller.readGraph(new File(path));
+			return classify(ngg, models[mdl], models[otherMdl], cmp);
+		}
+		finally {
+			CLASSIFY_TIME.recordSince(t0);
 		}
-		// ret[0]: false positives
-		// ret[1]: true negatives
-		return (new int[] {filenameList.length - hams, hams});
+	}
+	
+	/**
+	 * Looks up the similarities of a file to both models in the 
+	 * verdict cache, scoring the file on a miss
+	 * @param path the path of the candidate file
+	 * @param cmp the comparator to use if compact scoring is disabled
+	 * @param compact True to score with the compact graphs
+	 * @return the similarities to the spam and the ham model
+	 * @throws IOException if the file cannot be read
+	 */
+	private double[] cachedSimilarities(String path, NGramCachedGraphComparator cmp, 
+										boolean compact) throws IOException 
+	{
+		String text = CompactNGramGraph.loadText(path);
+		MultiModelScorer mms = scorer;
+		String key = verdictKey(text, compact);
+		
+		Verdict v = verdicts.get(key, mms.generation());
+		if (v != null) {
+			return v.similarities;
+		}
+		
+		double[] sims;
+		if (compact) {
+			sims = (duplicates != null) ? duplicates.score(text).similarities 
+				: mms.similarities(mms.candidate(text));
+		}
+		else {
+			DocumentNGramGraph ngg = new DocumentNGramGraph();
+			ngg.setDataString(text);
+			sims = new double[] { computeSimilarity(ngg, models[0], cmp), 
+								  computeSimilarity(ngg, models[1], cmp) };
+		}
+		verdicts.put(key, mms.generation(), new Verdict((sims[0] > sims[1]) ? 0 : 1, sims));
+		return sims;
+	}
+	
+	/**
+	 * Computes the verdict cache key of a message. Similarities from 
+	 * the compact graphs and from JInsect's comparator are not 
+	 * comparable, so the scoring mode is part of the key.
+	 * @param text the normalized text of the message
+	 * @param compact True if the message is scored with the compact graphs
+	 * @return the cache key
+	 */
+	private static String verdictKey(String text, boolean compact) {
+		String digest = VerdictCache.digest(text);
+		return compact ? digest : "jinsect:" + digest;
 	}
 	
 	/**
@@ -179,13 +744,15 @@ public class NGramGraphClassifier {
 	 * @param cng the candidate graph
 	 * @param wdg the model graph of the first category
 	 * @param otherWdg the model graph of the second category
+	 * @param cmp the comparator to use
 	 * @return True if classified as part of the first category, else False
 	 */
 	private boolean classify(DocumentNGramGraph cng,
 							DocumentNGramGraph wdg, 
-						    DocumentNGramGraph otherWdg)
+						    DocumentNGramGraph otherWdg,
+						    NGramCachedGraphComparator cmp)
 	{
-		return (computeSimilarity(cng, wdg) > computeSimilarity(cng, otherWdg));
+		return (computeSimilarity(cng, wdg, cmp) > computeSimilarity(cng, otherWdg, cmp));
 						    
 	}
 	
@@ -194,11 +761,15 @@ public class NGramGraphClassifier {
 	 * and a given model graph
 	 * @param cng the candidate graph
 	 * @param wdg the model graph
+	 * @param cmp the comparator to use
 	 * @return the value similarity between the graphs
 	 */
 	private double computeSimilarity(DocumentNGramGraph cng, 
-											DocumentNGramGraph wdg) {
-		GraphSimilarity gs = ngc.getSimilarityBetween(cng, wdg);
+									 DocumentNGramGraph wdg,
+									 NGramCachedGraphComparator cmp) {
+		long t0 = System.nanoTime();
+		GraphSimilarity gs = cmp.getSimilarityBetween(cng, wdg);
+		SIMILARITY_TIME.recordSince(t0);
 		return gs.ValueSimilarity;
 	}
 	
@@ -207,38 +778,16 @@ public class NGramGraphClassifier {
 	 * Performs binary classification (SPAM vs. HAM) on a set of spam messages
 	 * using a pair of n-gram graphs as model for spam and ham messages respectively
 	 * @param dirPath the directory of the spam test-set
+	 * @param numThreads the number of threads to classify with
+	 * @param compact True to score with the compact graphs
 	 * @return an array of ints denoting true positives and false negatives respectively
 	 */
-	private int[] classify_spam(String dirPath)						  
+	private int[] classify_spam(String dirPath, int numThreads, boolean compact)						  
 	{
-		int spams = 0;
-		
-		File directory = new File(dirPath);
-		ngc = new NGramCachedGraphComparator();
-		
-		DocumentNGramGraph spamModel = models[0];
-		DocumentNGramGraph hamModel = models[1];
-		
 		// save the directory .txt files to a filelist
-		filenameList = directory.list(new FilenameFilter() {
-			public boolean accept(File dirPath, String fileName) {
-				return fileName.endsWith(".txt");
-			}
-		});
+		filenameList = CorpusReader.scan(new File(dirPath)).names(".txt");
 	
-		for (int index = 0; index < filenameList.length; index++) {
-			
-			DocumentNGramGraph ngg = new DocumentNGramGraph();
-			try {
-				ngg.loadDataStringFromFile(dirPath + "/" + filenameList[index]);
-				if (classify(ngg, spamModel, hamModel)) {
-					spams += 1;
-				}
-			}
-			catch (Exception ex) {
-				ex.printStackTrace();
-			}
-		}
+		int spams = countMatches(dirPath, filenameList, 0, 1, numThreads, compact);
 		
 		// ret[0]: true positives
 		// ret[1]: false negatives
@@ -0,0 +1,143 @@
+/*
+This file is part of nggSpamFilter.
+
+nggSpamFilter is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+nggSpamFilter is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with nggSpamFilter.  If not, see <http://www.gnu.org/licenses/>.
+
+Copyright (C) Vasileios Charisopoulos, 2015
+
+*/
+
+package gr.demokritos.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gr.demokritos.dataTools.SyntheticCorpus;
+import gr.demokritos.iit.jinsect.documentModel.comparators.NGramCachedGraphComparator;
+import gr.demokritos.iit.jinsect.documentModel.representations.DocumentNGramGraph;
+
+/**
+ * Benchmarks the JInsect operations used by the Modellers and the 
+ * classifiers: DocumentNGramGraph construction, mergeGraph into a model,
+ * intersectGraph and allNotIn as used by removeNoise, and the value 
+ * similarity of NGramCachedGraphComparator. Models are the mean of 
+ * {@code modelDocs} messages. Built by the jinsect profile only.
+ * @author VHarisop
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JInsectBenchmark {
+
+	@Param({"256", "4096", "65536"})
+	public int messageSize;
+
+	@Param({"10", "100", "1000"})
+	public int modelDocs;
+
+	private String text;
+	private DocumentNGramGraph doc;
+	private DocumentNGramGraph[] models;
+	private DocumentNGramGraph common;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		SyntheticCorpus gen = new SyntheticCorpus(1);
+		text = gen.messageOfSize(0, -1, messageSize);
+		doc = graph(text);
+		models = new DocumentNGramGraph[] { model(gen, 0), model(gen, 1) };
+		common = models[0].intersectGraph(models[1]);
+	}
+
+	private static DocumentNGramGraph graph(String text) {
+		DocumentNGramGraph dg = new DocumentNGramGraph();
+		dg.setDataString(text);
+		return dg;
+	}
+
+	/**
+	 * The mean graph of {@code modelDocs} messages of a class, 
+	 * merged like Modeller.updateGraphs does
+	 */
+	private DocumentNGramGraph model(SyntheticCorpus gen, int cls) {
+		DocumentNGramGraph mdl = graph(gen.message(cls, 0));
+		for (int i = 1; i < modelDocs; ++i) {
+			mdl.mergeGraph(graph(gen.message(cls, i)), 1.0 / (i + 1));
+		}
+		return mdl;
+	}
+
+	/**
+	 * A comparator per thread, since it caches graph lookups
+	 */
+	@State(Scope.Thread)
+	public static class Comparator {
+		final NGramCachedGraphComparator ngc = new NGramCachedGraphComparator();
+	}
+
+	/**
+	 * A copy of a model for every invocation that modifies it
+	 */
+	@State(Scope.Thread)
+	public static class ModelCopy {
+		DocumentNGramGraph model;
+
+		@Setup(Level.Invocation)
+		public void copy(JInsectBenchmark b) {
+			model = b.models[0].clone();
+		}
+	}
+
+	@Benchmark
+	public DocumentNGramGraph build() {
+		return graph(text);
+	}
+
+	@Benchmark
+	public DocumentNGramGraph merge(ModelCopy copy) {
+		copy.model.mergeGraph(doc, 1.0 / (modelDocs + 1));
+		return copy.model;
+	}
+
+	@Benchmark
+	public DocumentNGramGraph intersect() {
+		return models[0].intersectGraph(models[1]);
+	}
+
+	@Benchmark
+	public DocumentNGramGraph allNotIn() {
+		return models[0].allNotIn(common);
+	}
+
+	@Benchmark
+	public double similarity(Comparator cmp) {
+		return cmp.ngc.getSimilarityBetween(doc, models[0]).ValueSimilarity;
+	}
+}
@@ -0,0 +1,118 @@
+/*
+This file is part of nggSpamFilter.
+
+nggSpamFilter is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+nggSpamFilter is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with nggSpamFilter.  If not, see <http://www.gnu.org/licenses/>.
+
+Copyright (C) Vasileios Charisopoulos, 2015
+
+*/
+
+package gr.demokritos.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gr.demokritos.dataTools.CompactNGramGraph;
+import gr.demokritos.dataTools.MultiModelScorer;
+import gr.demokritos.dataTools.SyntheticCorpus;
+
+/**
+ * Benchmarks end-to-end classification of a message against k class 
+ * models, the way NggClassifier.classify_candidate does it: the graph
+ * of the message is built and scored against every model in a single 
+ * pass. Run with {@code -t} to measure several scoring threads.
+ * @author VHarisop
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClassifyBenchmark {
+
+	// candidates cycled through by every thread
+	private static final int CANDIDATES = 64;
+
+	@Param({"2", "5", "10", "20", "50"})
+	public int classes;
+
+	@Param({"256", "4096", "65536"})
+	public int messageSize;
+
+	@Param({"100"})
+	public int modelDocs;
+
+	private MultiModelScorer scorer;
+	private String[] texts;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		SyntheticCorpus gen = new SyntheticCorpus(1);
+		CompactNGramGraph[] models = new CompactNGramGraph[classes];
+		for (int c = 0; c < classes; ++c) {
+			models[c] = new CompactNGramGraph();
+			for (int i = 0; i < modelDocs; ++i) {
+				models[c].addGraph(CompactNGramGraph.fromText(gen.message(c, i)), 
+						1.0 / modelDocs);
+			}
+		}
+		CompactNGramGraph.removeNoise(models);
+		scorer = new MultiModelScorer(models);
+
+		texts = new String[CANDIDATES];
+		for (int i = 0; i < CANDIDATES; ++i) {
+			texts[i] = gen.messageOfSize(i % classes, modelDocs + i, messageSize);
+		}
+	}
+
+	/**
+	 * The position of a thread in the candidates
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+	}
+
+	/**
+	 * Classifies a message, stopping once the winner is certain
+	 */
+	@Benchmark
+	public int classify(Cursor cursor) {
+		String text = texts[cursor.next++ % CANDIDATES];
+		return scorer.best(scorer.candidate(text));
+	}
+
+	/**
+	 * Scores a message against every model exactly
+	 */
+	@Benchmark
+	public double[] similarities(Cursor cursor) {
+		String text = texts[cursor.next++ % CANDIDATES];
+		return scorer.similarities(scorer.candidate(text));
+	}
+}
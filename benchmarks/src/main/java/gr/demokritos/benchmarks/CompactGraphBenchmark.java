@@ -0,0 +1,120 @@
+/*
+This file is part of nggSpamFilter.
+
+nggSpamFilter is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+nggSpamFilter is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with nggSpamFilter.  If not, see <http://www.gnu.org/licenses/>.
+
+Copyright (C) Vasileios Charisopoulos, 2015
+
+*/
+
+package gr.demokritos.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gr.demokritos.dataTools.CompactNGramGraph;
+import gr.demokritos.dataTools.SyntheticCorpus;
+
+/**
+ * Benchmarks the compact graph operations behind scoring and model 
+ * building: graph construction, merging a document into a model, noise
+ * removal and value similarity. Models are the mean of {@code modelDocs}
+ * synthetic messages, so their size grows with that parameter. Run with {@code -t}
+ * to measure several threads at once.
+ * @author VHarisop
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompactGraphBenchmark {
+
+	@Param({"256", "4096", "65536"})
+	public int messageSize;
+
+	@Param({"10", "100", "1000"})
+	public int modelDocs;
+
+	private String text;
+	private CompactNGramGraph doc;
+	private CompactNGramGraph[] models;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		SyntheticCorpus gen = new SyntheticCorpus(1);
+		text = gen.messageOfSize(0, -1, messageSize);
+		doc = CompactNGramGraph.fromText(text);
+		models = new CompactNGramGraph[] { model(gen, 0), model(gen, 1) };
+	}
+
+	/**
+	 * The mean graph of {@code modelDocs} messages of a class
+	 */
+	private CompactNGramGraph model(SyntheticCorpus gen, int cls) {
+		CompactNGramGraph mdl = new CompactNGramGraph();
+		for (int i = 0; i < modelDocs; ++i) {
+			mdl.addGraph(CompactNGramGraph.fromText(gen.message(cls, i)), 1.0 / modelDocs);
+		}
+		return mdl;
+	}
+
+	@Benchmark
+	public CompactNGramGraph build() {
+		return CompactNGramGraph.fromText(text);
+	}
+
+	/**
+	 * Merges a document into a copy of a model, as a running mean 
+	 * of {@code modelDocs + 1} documents. Includes the copy.
+	 */
+	@Benchmark
+	public CompactNGramGraph merge() {
+		CompactNGramGraph mdl = new CompactNGramGraph(models[0]);
+		mdl.scale(modelDocs / (modelDocs + 1.0));
+		mdl.addGraph(doc, 1.0 / (modelDocs + 1));
+		return mdl;
+	}
+
+	/**
+	 * Removes the common subgraph of copies of two models. 
+	 * Includes the copies.
+	 */
+	@Benchmark
+	public CompactNGramGraph removeNoise() {
+		CompactNGramGraph a = new CompactNGramGraph(models[0]);
+		CompactNGramGraph b = new CompactNGramGraph(models[1]);
+		CompactNGramGraph.removeNoise(a, b);
+		return a;
+	}
+
+	@Benchmark
+	public double similarity() {
+		return doc.valueSimilarity(models[0]);
+	}
+}
@@ -0,0 +1,652 @@
+/*
+This file is part of nggSpamFilter.
+
+nggSpamFilter is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+nggSpamFilter is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with nggSpamFilter.  If not, see <http://www.gnu.org/licenses/>.
+
+Copyright (C) Vasileios Charisopoulos, 2015
+
+*/
+
+package gr.demokritos.dataTools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A compact n-gram graph that stores each (n-gram, n-gram) edge as a 
+ * packed long key in a primitive {@link EdgeMap}, one map per n-gram
+ * rank. It is built the same way as JInsect's DocumentNGramGraph: every
+ * n-gram is connected to each of the {@code window} n-grams preceding it, 
+ * and repeated edges increase the edge weight by one.
+ * 
+ * N-grams of up to 4 characters are packed exactly; longer ones and 
+ * edges are hashed to 64 bits, so two distinct edges collide with 
+ * negligible probability (~2^-64 per pair).
+ * 
+ * A model graph can be pruned to its heaviest edges with 
+ * {@link #prune(int)}; the pruned edges still count towards the
+ * edge counts that normalize similarities, so scores stay on the 
+ * scale of the full model.
+ * @author VHarisop
+ *
+ */
+public class CompactNGramGraph implements NGramModel {
+
+	private final int minSize, maxSize, window;
+	
+	// levels[i] holds the edges of the (minSize + i)-gram graph
+	private final EdgeMap[] levels;
+	
+	// edges removed by pruning, per rank
+	private final int[] prunedEdges;
+
+	/**
+	 * The size of an edge in the binary model format (key and weight)
+	 */
+	public static final int BYTES_PER_EDGE = 16;
+	
+	private static final MetricsRegistry.Histogram NOISE_TIME = 
+		MetricsRegistry.get().histogram(MetricsRegistry.NOISE);
+
+	/**
+	 * Creates an empty graph with the default JInsect 
+	 * parameters (3-grams, window of 3)
+	 */
+	public CompactNGramGraph() {
+		this(3, 3, 3);
+	}
+
+	/**
+	 * Creates an empty graph for a given range of n-gram ranks
+	 * @param minSize the minimum n-gram rank
+	 * @param maxSize the maximum n-gram rank
+	 * @param window the neighbourhood window
+	 */
+	public CompactNGramGraph(int minSize, int maxSize, int window) {
+		if (minSize < 1 || maxSize < minSize || window < 1) {
+			throw new IllegalArgumentException("Invalid n-gram parameters");
+		}
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.window = window;
+		
+		levels = new EdgeMap[maxSize - minSize + 1];
+		for (int i = 0; i < levels.length; ++i) {
+			levels[i] = new EdgeMap();
+		}
+		prunedEdges = new int[levels.length];
+	}
+
+	/**
+	 * Copy constructor
+	 * @param other the graph to copy
+	 */
+	public CompactNGramGraph(CompactNGramGraph other) {
+		minSize = other.minSize;
+		maxSize = other.maxSize;
+		window = other.window;
+
+		levels = new EdgeMap[other.levels.length];
+		for (int i = 0; i < levels.length; ++i) {
+			levels[i] = new EdgeMap(other.levels[i]);
+		}
+		prunedEdges = other.prunedEdges.clone();
+	}
+
+	/**
+	 * Copies any model, e.g. a mapped one, into an in-memory graph
+	 * @param model the model to copy
+	 * @return the equivalent compact graph
+	 */
+	public static CompactNGramGraph copyOf(NGramModel model) {
+		if (model instanceof CompactNGramGraph) {
+			return new CompactNGramGraph((CompactNGramGraph) model);
+		}
+		CompactNGramGraph g = new CompactNGramGraph(
+				model.getMinSize(), model.getMaxSize(), model.getWindowSize());
+		for (int i = 0; i < g.levels.length; ++i) {
+			int n = g.minSize + i;
+			for (int s = 0; s < model.slots(n); ++s) {
+				long key = model.keyAt(n, s);
+				if (key != 0) {
+					g.levels[i].put(key, model.weightAt(n, s));
+				}
+			}
+			g.prunedEdges[i] = model.edgeCount(n) - g.levels[i].size();
+		}
+		return g;
+	}
+
+	/**
+	 * Builds a graph with the default parameters from a string
+	 * @param text the text of the document
+	 * @return the resulting graph
+	 */
+	public static CompactNGramGraph fromText(CharSequence text) {
+		return fromText(text, 3, 3, 3);
+	}
+
+	/**
+	 * Builds a graph from a string
+	 * @param text the text of the document
+	 * @param minSize the minimum n-gram rank
+	 * @param maxSize the maximum n-gram rank
+	 * @param window the neighbourhood window
+	 * @return the resulting graph
+	 */
+	public static CompactNGramGraph fromText(CharSequence text, 
+			int minSize, int maxSize, int window) 
+	{
+		CompactNGramGraph g = new CompactNGramGraph(minSize, maxSize, window);
+		g.addText(text);
+		return g;
+	}
+
+	/**
+	 * Builds a graph from the contents of a file
+	 * @param path the path of the file
+	 * @param minSize the minimum n-gram rank
+	 * @param maxSize the maximum n-gram rank
+	 * @param window the neighbourhood window
+	 * @return the resulting graph
+	 * @throws IOException if the file cannot be read
+	 */
+	public static CompactNGramGraph fromFile(String path,
+			int minSize, int maxSize, int window) throws IOException 
+	{
+		return NGramExtractor.forThread().extract(new File(path), minSize, maxSize, window);
+	}
+
+	/**
+	 * Reads a file the way DocumentNGramGraph.loadDataStringFromFile 
+	 * does, terminating every line with '\n'
+	 * @param path the path of the file
+	 * @return the text of the file
+	 * @throws IOException if the file cannot be read
+	 */
+	public static String loadText(String path) throws IOException {
+		return NGramExtractor.forThread().readText(new File(path));
+	}
+
+	/**
+	 * Normalizes raw message text the way loadText does, so that
+	 * text arriving from other sources scores like the same file: 
+	 * line breaks become '\n' and the last line is terminated.
+	 * @param text the raw text
+	 * @return the normalized text
+	 */
+	public static String normalizeText(String text) {
+		if (text.isEmpty()) {
+			return text;
+		}
+		String norm = text.replace("\r\n", "\n").replace('\r', '\n');
+		return norm.endsWith("\n") ? norm : norm + "\n";
+	}
+
+	/**
+	 * Adds the edges of a string to the graph
+	 * @param text the text to add
+	 */
+	public void addText(CharSequence text) {
+		int len = text.length();
+		long[] preceding = new long[window];
+
+		for (int n = minSize; n <= maxSize; ++n) {
+			EdgeMap edges = levels[n - minSize];
+			int count = 0;
+
+			for (int start = 0; start + n <= len; ++start) {
+				long cur = ngramKey(text, start, n);
+				
+				// connect to every preceding n-gram in the window
+				int neighbours = Math.min(count, window);
+				for (int j = 0; j < neighbours; ++j) {
+					edges.add(edgeKey(cur, preceding[(count - 1 - j) % window]), 1.0);
+				}
+				preceding[count % window] = cur;
+				count++;
+			}
+		}
+	}
+
+	/**
+	 * Adds the edges of the first {@code len} chars of an array to the
+	 * graph, with the result of {@link #addText(CharSequence)}. Keys of
+	 * n-grams of up to 4 chars are rolled from one position to the next.
+	 * @param text the chars of the text
+	 * @param len the number of chars to use
+	 */
+	public void addChars(char[] text, int len) {
+		long[] preceding = new long[window];
+
+		for (int n = minSize; n <= maxSize; ++n) {
+			EdgeMap edges = levels[n - minSize];
+			int count = 0;
+			
+			// packed chars of the current n-gram, and the rank prefix
+			int bits = 16 * n;
+			long mask = (bits >= 64) ? -1L : (1L << bits) - 1;
+			long prefix = (bits >= 64) ? 0 : (long) n << bits;
+			long rolling = 0;
+
+			for (int end = 0; end < len; ++end) {
+				rolling = ((rolling << 16) | text[end]) & mask;
+				int start = end - n + 1;
+				if (start < 0) {
+					continue;
+				}
+				long cur = (n <= 4) ? (rolling | prefix) : hashKey(text, start, n);
+				
+				// connect to every preceding n-gram in the window
+				int neighbours = Math.min(count, window);
+				for (int j = 0; j < neighbours; ++j) {
+					edges.add(edgeKey(cur, preceding[(count - 1 - j) % window]), 1.0);
+				}
+				preceding[count % window] = cur;
+				count++;
+			}
+		}
+	}
+
+	/**
+	 * The FNV-1a key of {@link #ngramKey(CharSequence, int, int)}
+	 * for n-grams of more than 4 chars
+	 */
+	private static long hashKey(char[] text, int start, int n) {
+		long key = 0xcbf29ce484222325L;
+		for (int i = start; i < start + n; ++i) {
+			key ^= text[i];
+			key *= 0x100000001b3L;
+		}
+		return key;
+	}
+
+	/**
+	 * Packs an n-gram into a long. N-grams of up to 4 chars are 
+	 * stored exactly, longer ones are hashed (FNV-1a).
+	 * @param text the source text
+	 * @param start the offset of the n-gram
+	 * @param n the rank of the n-gram
+	 * @return the packed n-gram
+	 */
+	public static long ngramKey(CharSequence text, int start, int n) {
+		long key;
+		if (n <= 4) {
+			key = n;
+			for (int i = start; i < start + n; ++i) {
+				key = (key << 16) | text.charAt(i);
+			}
+		}
+		else {
+			key = 0xcbf29ce484222325L;
+			for (int i = start; i < start + n; ++i) {
+				key ^= text.charAt(i);
+				key *= 0x100000001b3L;
+			}
+		}
+		return key;
+	}
+
+	/**
+	 * Packs a directed edge between two packed n-grams into a 
+	 * non-zero long key
+	 * @param from the source n-gram
+	 * @param to the target n-gram
+	 * @return the edge key
+	 */
+	public static long edgeKey(long from, long to) {
+		long h = mix(from) * 31 + to;
+		h = mix(h);
+		return (h == 0) ? 1 : h;
+	}
+
+	/**
+	 * 64-bit finalizer from MurmurHash3
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * @return the minimum n-gram rank
+	 */
+	public int getMinSize() {
+		return minSize;
+	}
+
+	/**
+	 * @return the maximum n-gram rank
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return the neighbourhood window
+	 */
+	public int getWindowSize() {
+		return window;
+	}
+
+	/**
+	 * @param n an n-gram rank
+	 * @return the edges of the graph of the given rank
+	 */
+	public EdgeMap getLevel(int n) {
+		return levels[n - minSize];
+	}
+
+	/**
+	 * @param n an n-gram rank
+	 * @return the number of edges of the given rank, 
+	 * 		   including the pruned ones
+	 */
+	public int edgeCount(int n) {
+		return levels[n - minSize].size() + prunedEdges[n - minSize];
+	}
+
+	/**
+	 * Looks up the weight of an edge
+	 * @param n the n-gram rank of the edge
+	 * @param key the packed edge key
+	 * @param missing the value to return if the edge is absent
+	 * @return the weight of the edge, or {@code missing}
+	 */
+	public double weight(int n, long key, double missing) {
+		return levels[n - minSize].get(key, missing);
+	}
+
+	public int slots(int n) {
+		return levels[n - minSize].capacity();
+	}
+
+	public long keyAt(int n, int slot) {
+		return levels[n - minSize].keyAt(slot);
+	}
+
+	public double weightAt(int n, int slot) {
+		return levels[n - minSize].weightAt(slot);
+	}
+
+	/**
+	 * @return the total number of stored edges over all ranks
+	 */
+	public int length() {
+		int len = 0;
+		for (EdgeMap m: levels) {
+			len += m.size();
+		}
+		return len;
+	}
+
+	/**
+	 * Adds the weights of another graph, scaled by a factor, to
+	 * this graph. Edges whose weight drops to zero or below are removed.
+	 * @param other the graph to add
+	 * @param factor the factor to scale the other graph's weights by
+	 */
+	public void addGraph(CompactNGramGraph other, double factor) {
+		if (!isCompatible(other)) {
+			throw new IllegalArgumentException("Incompatible n-gram parameters");
+		}
+		for (int i = 0; i < levels.length; ++i) {
+			EdgeMap src = other.levels[i], dst = levels[i];
+			for (int s = 0; s < src.capacity(); ++s) {
+				long key = src.keyAt(s);
+				if (key == 0) {
+					continue;
+				}
+				double w = dst.get(key, 0) + factor * src.weightAt(s);
+				if (w > 0) {
+					dst.put(key, w);
+				}
+				else {
+					dst.remove(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes every edge, keeping the n-gram parameters
+	 */
+	public void clear() {
+		for (int i = 0; i < levels.length; ++i) {
+			levels[i].clear();
+			prunedEdges[i] = 0;
+		}
+	}
+
+	/**
+	 * Multiplies every edge weight by a factor
+	 * @param factor the scaling factor
+	 */
+	public void scale(double factor) {
+		for (EdgeMap m: levels) {
+			for (int s = 0; s < m.capacity(); ++s) {
+				if (m.keyAt(s) != 0) {
+					m.setWeightAt(s, m.weightAt(s) * factor);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Keeps only the heaviest edges of the graph, up to a budget shared 
+	 * between the ranks in proportion to their edge counts. The number 
+	 * of dropped edges is recorded, so the graph keeps normalizing 
+	 * similarities by the edge counts of the full graph. Meant as the 
+	 * last step of building a model, after noise removal.
+	 * @param maxEdges the maximum number of edges to keep
+	 */
+	public void prune(int maxEdges) {
+		int total = length();
+		if (total <= maxEdges) {
+			return;
+		}
+		for (int i = 0; i < levels.length; ++i) {
+			EdgeMap edges = levels[i];
+			int keep = (int) ((long) maxEdges * edges.size() / total);
+
+			// the weight of the keep-th heaviest edge
+			double[] weights = new double[edges.size()];
+			int k = 0;
+			for (int s = 0; s < edges.capacity(); ++s) {
+				if (edges.keyAt(s) != 0) {
+					weights[k++] = edges.weightAt(s);
+				}
+			}
+			Arrays.sort(weights);
+			double threshold = (keep == 0) ? Double.POSITIVE_INFINITY 
+					: weights[weights.length - keep];
+			
+			// keep edges above the threshold, then ties up to the budget
+			int ties = 0;
+			for (int j = weights.length - keep; j < weights.length; ++j) {
+				if (weights[j] == threshold) {
+					ties++;
+				}
+			}
+			EdgeMap kept = new EdgeMap(keep);
+			for (int s = 0; s < edges.capacity(); ++s) {
+				long key = edges.keyAt(s);
+				double w = edges.weightAt(s);
+				if (key == 0) {
+					continue;
+				}
+				if (w > threshold || (w == threshold && ties-- > 0)) {
+					kept.put(key, w);
+				}
+			}
+			prunedEdges[i] += edges.size() - kept.size();
+			levels[i] = kept;
+		}
+	}
+
+	/**
+	 * Removes the maximal common subgraph of a set of graphs from all
+	 * of them, i.e. every edge present in all graphs. This is what 
+	 * intersectGraph followed by allNotIn does for DocumentNGramGraphs.
+	 * @param graphs the graphs to modify in place
+	 */
+	public static void removeNoise(CompactNGramGraph... graphs) {
+		if (graphs.length < 2) {
+			return;
+		}
+		long t0 = System.nanoTime();
+		for (int i = 0; i < graphs[0].levels.length; ++i) {
+			EdgeMap first = graphs[0].levels[i];
+			
+			// collect the common edges before modifying anything
+			long[] common = new long[first.size()];
+			int numCommon = 0;
+			for (int s = 0; s < first.capacity(); ++s) {
+				long key = first.keyAt(s);
+				if (key != 0 && inAll(graphs, i, key)) {
+					common[numCommon++] = key;
+				}
+			}
+			for (CompactNGramGraph g: graphs) {
+				for (int c = 0; c < numCommon; ++c) {
+					g.levels[i].remove(common[c]);
+				}
+			}
+		}
+		NOISE_TIME.recordSince(t0);
+	}
+
+	private static boolean inAll(CompactNGramGraph[] graphs, int level, long key) {
+		for (int j = 1; j < graphs.length; ++j) {
+			if (!graphs[j].levels[level].contains(key)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if two graphs use the same n-gram parameters
+	 * @param other another graph
+	 * @return true if ranks and window agree
+	 */
+	public boolean isCompatible(CompactNGramGraph other) {
+		return minSize == other.minSize && maxSize == other.maxSize 
+			&& window == other.window;
+	}
+
+	/**
+	 * Computes the value similarity between this graph and another,
+	 * with the semantics of JInsect's GraphSimilarity.ValueSimilarity:
+	 * for every rank, the sum of min/max weight ratios over the common 
+	 * edges divided by the larger edge count, averaged over the ranks 
+	 * with each rank weighted by its n-gram size.
+	 * @param other the graph to compare with
+	 * @return the value similarity
+	 */
+	public double valueSimilarity(CompactNGramGraph other) {
+		if (!isCompatible(other)) {
+			throw new IllegalArgumentException("Incompatible n-gram parameters");
+		}
+
+		double sim = 0, importance = 0;
+		for (int i = 0; i < levels.length; ++i) {
+			int n = minSize + i;
+			sim += n * levelSimilarity(levels[i], edgeCount(n), 
+					other.levels[i], other.edgeCount(n));
+			importance += n;
+		}
+		return sim / importance;
+	}
+
+	/**
+	 * Computes the value similarity between this (candidate) graph 
+	 * and any model, with the same semantics as 
+	 * {@link #valueSimilarity(CompactNGramGraph)}. The candidate's 
+	 * edges are walked and looked up in the model.
+	 * @param model the model to compare with
+	 * @return the value similarity
+	 */
+	public double valueSimilarity(NGramModel model) {
+		if (model instanceof CompactNGramGraph) {
+			return valueSimilarity((CompactNGramGraph) model);
+		}
+		if (model.getMinSize() != minSize || model.getMaxSize() != maxSize 
+				|| model.getWindowSize() != window) {
+			throw new IllegalArgumentException("Incompatible n-gram parameters");
+		}
+
+		double sim = 0, importance = 0;
+		for (int i = 0; i < levels.length; ++i) {
+			int n = minSize + i;
+			EdgeMap edges = levels[i];
+			
+			int maxEdges = Math.max(edgeCount(n), model.edgeCount(n));
+			double sum = 0;
+			for (int s = 0; maxEdges > 0 && s < edges.capacity(); ++s) {
+				long key = edges.keyAt(s);
+				if (key == 0) {
+					continue;
+				}
+				double w = model.weight(n, key, 0);
+				if (w != 0) {
+					sum += ratio(edges.weightAt(s), w);
+				}
+			}
+			sim += n * ((maxEdges == 0) ? 0 : sum / maxEdges);
+			importance += n;
+		}
+		return sim / importance;
+	}
+
+	/**
+	 * Computes the value similarity of two edge sets, 
+	 * given their edge counts including pruned edges
+	 */
+	static double levelSimilarity(EdgeMap a, int countA, EdgeMap b, int countB) {
+		int maxEdges = Math.max(countA, countB);
+		if (maxEdges == 0) {
+			return 0;
+		}
+
+		// walk the smaller map, probe the larger one
+		EdgeMap small = (a.size() <= b.size()) ? a : b;
+		EdgeMap large = (small == a) ? b : a;
+
+		double sum = 0;
+		for (int s = 0; s < small.capacity(); ++s) {
+			long key = small.keyAt(s);
+			if (key == 0) {
+				continue;
+			}
+			double w = large.get(key, 0);
+			if (w != 0) {
+				sum += ratio(small.weightAt(s), w);
+			}
+		}
+		return sum / maxEdges;
+	}
+
+	/**
+	 * @return min(a, b) / max(a, b)
+	 */
+	static double ratio(double a, double b) {
+		return (a < b) ? a / b : b / a;
+	}
+}
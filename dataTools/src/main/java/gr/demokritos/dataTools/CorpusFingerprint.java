@@ -0,0 +1,158 @@
+/*
+This file is part of nggSpamFilter.
+
+nggSpamFilter is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+nggSpamFilter is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with nggSpamFilter.  If not, see <http://www.gnu.org/licenses/>.
+
+Copyright (C) Vasileios Charisopoulos, 2015
+
+*/
+
+package gr.demokritos.dataTools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Computes a fingerprint of a training corpus: a SHA-256 digest over 
+ * the name, size and modification time (or the contents) of every 
+ * training file in a set of directories, together with the parameters
+ * of the model. Two corpora get the same fingerprint only if a model 
+ * trained on one is valid for the other. Files the trainer skips, e.g.
+ * editor backups next to the .txt documents, do not count.
+ * @author VHarisop
+ *
+ */
+public class CorpusFingerprint {
+
+	/**
+	 * Computes the fingerprint of every file in a set of directories
+	 * @param hashContents if true, hash file contents instead of 
+	 * 		  trusting sizes and modification times
+	 * @param params a description of the model parameters
+	 * @param dirs the directories of the corpus
+	 * @return a hex string identifying the corpus
+	 * @throws IOException if a file cannot be read
+	 */
+	public static String of(boolean hashContents, String params, File... dirs) 
+		throws IOException 
+	{
+		return of(hashContents, params, "", dirs);
+	}
+
+	/**
+	 * Computes the fingerprint of the files of a set of directories
+	 * whose names end with a suffix, i.e. the ones a trainer reads
+	 * @param hashContents if true, hash file contents instead of 
+	 * 		  trusting sizes and modification times
+	 * @param params a description of the model parameters
+	 * @param suffix the file name suffix of the documents, e.g. ".txt"
+	 * @param dirs the directories of the corpus
+	 * @return a hex string identifying the corpus
+	 * @throws IOException if a file cannot be read
+	 * @see CorpusReader.Listing#files(String)
+	 */
+	public static String of(boolean hashContents, String params, String suffix, 
+			File... dirs) throws IOException 
+	{
+		MessageDigest md = sha256();
+		md.update(params.getBytes(StandardCharsets.UTF_8));
+
+		for (File dir: dirs) {
+			md.update((byte) 0);
+			md.update(dir.getName().getBytes(StandardCharsets.UTF_8));
+			
+			// a fresh scan, which later corpus lookups reuse
+			final CorpusReader.Listing listing = CorpusReader.rescan(dir);
+			final File[] files = listing.files();
+			Integer[] byName = new Integer[files.length];
+			for (int i = 0; i < byName.length; ++i) {
+				byName[i] = i;
+			}
+			Arrays.sort(byName, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return files[a].compareTo(files[b]);
+				}
+			});
+			
+			for (int i: byName) {
+				File f = files[i];
+				if (!f.getName().endsWith(suffix)) {
+					continue;
+				}
+				md.update((byte) 1);
+				md.update(f.getName().getBytes(StandardCharsets.UTF_8));
+				if (hashContents) {
+					updateWithContents(md, f);
+				}
+				else {
+					md.update(longBytes(listing.size(i)));
+					md.update(longBytes(listing.lastModified(i)));
+				}
+			}
+		}
+		return toHex(md.digest()).substring(0, 32);
+	}
+
+	private static void updateWithContents(MessageDigest md, File f) throws IOException {
+		byte[] buf = new byte[8192];
+		InputStream in = new FileInputStream(f);
+		try {
+			int len;
+			while ((len = in.read(buf)) > 0) {
+				md.update(buf, 0, len);
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException ex) {
+			// every JRE is required to provide SHA-256
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	private static byte[] longBytes(long v) {
+		byte[] b = new byte[8];
+		for (int i = 7; i >= 0; --i) {
+			b[i] = (byte) v;
+			v >>>= 8;
+		}
+		return b;
+	}
+
+	/**
+	 * @return the lowercase hex representation of a byte array
+	 */
+	static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(2 * bytes.length);
+		for (byte b: bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,293 @@
+/*
+This file is part of nggSpamFilter.
+
+nggSpamFilter is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+nggSpamFilter is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with nggSpamFilter.  If not, see <http://www.gnu.org/licenses/>.
+
+Copyright (C) Vasileios Charisopoulos, 2015
+
+*/
+
+package gr.demokritos.dataTools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared access to corpus directories and documents. A directory is 
+ * scanned with a directory stream, which records the size of every 
+ * entry along the way, and later lookups reuse the scan for as long as
+ * the modification time of the directory stays the same, i.e. until an
+ * entry is added, removed or renamed. Files rewritten in place do not 
+ * touch the directory; {@link #rescan(File)} picks up their new sizes.
+ * Entries keep the order of the directory stream, i.e. the order in 
+ * which File.list returns them. Documents are read through a 
+ * FileChannel into reused direct buffers.
+ * 
+ * Examples:
+ * 		File[] docs = CorpusReader.scan(new File(dir)).files(".txt");
+ * 		String text = CorpusReader.readText(docs[0]);
+ * 
+ * @author VHarisop
+ *
+ */
+public class CorpusReader {
+
+	private static final ConcurrentHashMap<File, Listing> listings = 
+		new ConcurrentHashMap<File, Listing>();
+	
+	private static final MetricsRegistry.Histogram READ_TIME = 
+		MetricsRegistry.get().histogram(MetricsRegistry.READ);
+
+	/**
+	 * The entries of a directory, in directory order
+	 */
+	public static class Listing {
+		private final File[] files;
+		private final long[] sizes;
+		private final long[] modified;
+		private final File[] dirs;
+		// of the directory when it was scanned, or null if unknown
+		private final FileTime scanned;
+
+		private Listing(List<File> files, List<Long> sizes, 
+				List<Long> modified, List<File> dirs, FileTime scanned) {
+			this.scanned = scanned;
+			this.files = files.toArray(new File[files.size()]);
+			this.sizes = new long[files.size()];
+			this.modified = new long[files.size()];
+			for (int i = 0; i < this.sizes.length; ++i) {
+				this.sizes[i] = sizes.get(i);
+				this.modified[i] = modified.get(i);
+			}
+			this.dirs = dirs.toArray(new File[dirs.size()]);
+		}
+
+		/**
+		 * @return the regular files of the directory
+		 */
+		public File[] files() {
+			return files.clone();
+		}
+
+		/**
+		 * @param suffix a file name suffix, e.g. ".txt"
+		 * @return the regular files whose names end with the suffix
+		 */
+		public File[] files(String suffix) {
+			List<File> matching = new ArrayList<File>();
+			for (File f: files) {
+				if (f.getName().endsWith(suffix)) {
+					matching.add(f);
+				}
+			}
+			return matching.toArray(new File[matching.size()]);
+		}
+
+		/**
+		 * @param suffix a file name suffix, e.g. ".txt"
+		 * @return the names of the regular files ending with the suffix
+		 */
+		public String[] names(String suffix) {
+			File[] matching = files(suffix);
+			String[] names = new String[matching.length];
+			for (int i = 0; i < names.length; ++i) {
+				names[i] = matching[i].getName();
+			}
+			return names;
+		}
+
+		/**
+		 * @return the subdirectories of the directory
+		 */
+		public File[] directories() {
+			return dirs.clone();
+		}
+
+		/**
+		 * @param i the index of a file in {@link #files()}
+		 * @return the size of the file in bytes, at scan time
+		 */
+		public long size(int i) {
+			return sizes[i];
+		}
+
+		/**
+		 * @param i the index of a file in {@link #files()}
+		 * @return the modification time of the file, at scan time
+		 */
+		public long lastModified(int i) {
+			return modified[i];
+		}
+	}
+
+	/**
+	 * Returns the entries of a directory, scanning it on first use 
+	 * and whenever its modification time has changed since.
+	 * A missing or unreadable directory has no entries.
+	 * @param dir the directory
+	 * @return the listing of the directory
+	 */
+	public static Listing scan(File dir) {
+		File key = dir.getAbsoluteFile();
+		Listing l = listings.get(key);
+		if (l == null || l.scanned == null || !l.scanned.equals(modified(dir))) {
+			l = rescan(dir);
+		}
+		return l;
+	}
+
+	/**
+	 * @return the modification time of a directory, or null if unknown
+	 */
+	private static FileTime modified(File dir) {
+		try {
+			return Files.getLastModifiedTime(dir.toPath());
+		}
+		catch (IOException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Scans a directory again, e.g. after its contents changed. Entries
+	 * deleted during the scan are left out; a scan that fails is not 
+	 * cached, so the next lookup scans the directory again.
+	 * @param dir the directory
+	 * @return the new listing of the directory
+	 */
+	public static Listing rescan(File dir) {
+		List<File> files = new ArrayList<File>(), dirs = new ArrayList<File>();
+		List<Long> sizes = new ArrayList<Long>(), modified = new ArrayList<Long>();
+		// before listing, so a change during the scan forces another one
+		FileTime scanned = modified(dir);
+		boolean complete = true;
+		
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath())) {
+			for (Path p: stream) {
+				BasicFileAttributes attrs;
+				try {
+					attrs = Files.readAttributes(p, BasicFileAttributes.class);
+				}
+				catch (NoSuchFileException ex) {
+					// deleted since it was listed, which also changed the
+					// directory's modification time
+					continue;
+				}
+				catch (IOException ex) {
+					ex.printStackTrace();
+					complete = false;
+					continue;
+				}
+				if (attrs.isRegularFile()) {
+					files.add(new File(dir, p.getFileName().toString()));
+					sizes.add(attrs.size());
+					modified.add(attrs.lastModifiedTime().toMillis());
+				}
+				else if (attrs.isDirectory()) {
+					dirs.add(new File(dir, p.getFileName().toString()));
+				}
+			}
+		}
+		catch (NoSuchFileException ex) {
+			// a missing directory has no entries, like File.list
+		}
+		catch (IOException | DirectoryIteratorException ex) {
+			ex.printStackTrace();
+			complete = false;
+		}
+
+		Listing l = new Listing(files, sizes, modified, dirs, scanned);
+		if (complete) {
+			listings.put(dir.getAbsoluteFile(), l);
+		}
+		else {
+			listings.remove(dir.getAbsoluteFile());
+		}
+		return l;
+	}
+
+	/**
+	 * Reads a file into a buffer, replacing it with a larger one if it 
+	 * is too small: a direct buffer with room to spare, or a heap buffer
+	 * of the file's size if the given buffer is on the heap
+	 * @param file the file to read
+	 * @param buf a buffer to reuse, or null
+	 * @return the buffer holding the file, flipped for reading
+	 * @throws IOException if the file cannot be read
+	 */
+	public static ByteBuffer read(File file, ByteBuffer buf) throws IOException {
+		long t0 = System.nanoTime();
+		try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = ch.size();
+			if (size > Integer.MAX_VALUE - 1) {
+				throw new IOException("File too large: " + file);
+			}
+			if (buf != null && !buf.isDirect() && buf.capacity() < size) {
+				buf = ByteBuffer.allocate((int) size);
+			}
+			else if (buf == null || buf.capacity() < size) {
+				buf = ByteBuffer.allocateDirect(capacity(size));
+			}
+			buf.clear();
+			while (ch.read(buf) > 0 && buf.hasRemaining()) {
+				// keep reading until the file or the buffer ends
+			}
+			if (buf.position() < size) {
+				throw new IOException("Read " + buf.position() + " of " 
+						+ size + " bytes of " + file);
+			}
+			buf.flip();
+			return buf;
+		}
+		finally {
+			READ_TIME.recordSince(t0);
+		}
+	}
+
+	/**
+	 * @param size the size of a file, below 2 GiB
+	 * @return the capacity of a direct buffer for the file: the next 
+	 * 		   power of two with room to spare, at least 64 KiB and at 
+	 * 		   most the largest buffer there can be
+	 */
+	static int capacity(long size) {
+		long cap = Math.max(1 << 16, Long.highestOneBit(size) << 1);
+		return (int) Math.min(cap, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Reads a document the way JInsect's loadDataStringFromFile does,
+	 * terminating every line with '\n', through the calling thread's
+	 * {@link NGramExtractor} buffers
+	 * @param file the document
+	 * @return the text of the document
+	 * @throws IOException if the file cannot be read
+	 */
+	public static String readText(File file) throws IOException {
+		return NGramExtractor.forThread().readText(file);
+	}
+}
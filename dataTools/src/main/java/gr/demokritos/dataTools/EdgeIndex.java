@@ -0,0 +1,170 @@
+/*
+This file is part of nggSpamFilter.
+
+nggSpamFilter is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+nggSpamFilter is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with nggSpamFilter.  If not, see <http://www.gnu.org/licenses/>.
+
+Copyright (C) Vasileios Charisopoulos, 2015
+
+*/
+
+package gr.demokritos.dataTools;
+
+/**
+ * An inverted index over a set of class models: one open-addressing 
+ * table per n-gram rank maps every packed edge key to the list of 
+ * (class, weight) postings of the models that contain it. Scoring a 
+ * candidate edge against all classes is then a single table lookup,
+ * whatever the number of classes; after noise removal most edges 
+ * belong to a single class, so posting lists are short.
+ * @author VHarisop
+ *
+ */
+public class EdgeIndex {
+
+	private final int minSize;
+	private final Level[] levels;
+
+	/**
+	 * The index of one n-gram rank
+	 */
+	private static class Level {
+		long[] keys;		// edge keys, 0 marks an empty slot
+		int[] start;		// first posting of every slot
+		int[] end;			// one past the last posting of every slot
+		int[] classes;		// class of every posting
+		double[] weights;	// weight of every posting
+		int mask;
+	}
+
+	/**
+	 * Builds the index of a set of models with the same parameters
+	 * @param models the class models
+	 */
+	public EdgeIndex(NGramModel... models) {
+		minSize = models[0].getMinSize();
+		int maxSize = models[0].getMaxSize();
+		
+		levels = new Level[maxSize - minSize + 1];
+		for (int n = minSize; n <= maxSize; ++n) {
+			levels[n - minSize] = buildLevel(models, n);
+		}
+	}
+
+	private static Level buildLevel(NGramModel[] models, int n) {
+		// count the postings of every distinct key
+		EdgeMap postings = new EdgeMap();
+		int total = 0;
+		for (NGramModel m: models) {
+			for (int s = 0; s < m.slots(n); ++s) {
+				long key = m.keyAt(n, s);
+				if (key != 0) {
+					postings.add(key, 1);
+					total++;
+				}
+			}
+		}
+
+		Level lvl = new Level();
+		int cap = 16;
+		while (cap * 0.6 < postings.size()) {
+			cap <<= 1;
+		}
+		lvl.keys = new long[cap];
+		lvl.start = new int[cap];
+		lvl.end = new int[cap];
+		lvl.classes = new int[total];
+		lvl.weights = new double[total];
+		lvl.mask = cap - 1;
+
+		// lay out the posting lists in key order of insertion
+		int cursor = 0;
+		for (int s = 0; s < postings.capacity(); ++s) {
+			long key = postings.keyAt(s);
+			if (key == 0) {
+				continue;
+			}
+			int slot = find(lvl, key);
+			lvl.keys[slot] = key;
+			lvl.start[slot] = cursor;
+			lvl.end[slot] = cursor;
+			cursor += (int) postings.weightAt(s);
+		}
+
+		// fill the postings, in class order
+		for (int c = 0; c < models.length; ++c) {
+			NGramModel m = models[c];
+			for (int s = 0; s < m.slots(n); ++s) {
+				long key = m.keyAt(n, s);
+				if (key == 0) {
+					continue;
+				}
+				int slot = find(lvl, key);
+				int p = lvl.end[slot]++;
+				lvl.classes[p] = c;
+				lvl.weights[p] = m.weightAt(n, s);
+			}
+		}
+		return lvl;
+	}
+
+	private static int find(Level lvl, long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		int slot = (int) (h ^ (h >>> 32)) & lvl.mask;
+		while (lvl.keys[slot] != 0 && lvl.keys[slot] != key) {
+			slot = (slot + 1) & lvl.mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Finds the postings of an edge
+	 * @param n the n-gram rank of the edge
+	 * @param key the packed edge key
+	 * @return a slot to pass to {@link #start(int, int)} and 
+	 * 		   {@link #end(int, int)}, or -1 if no model has the edge
+	 */
+	public int lookup(int n, long key) {
+		Level lvl = levels[n - minSize];
+		int slot = find(lvl, key);
+		return (lvl.keys[slot] == 0) ? -1 : slot;
+	}
+
+	/**
+	 * @return the index of the first posting of a slot
+	 */
+	public int start(int n, int slot) {
+		return levels[n - minSize].start[slot];
+	}
+
+	/**
+	 * @return the index past the last posting of a slot
+	 */
+	public int end(int n, int slot) {
+		return levels[n - minSize].end[slot];
+	}
+
+	/**
+	 * @return the class of a posting
+	 */
+	public int classAt(int n, int posting) {
+		return levels[n - minSize].classes[posting];
+	}
+
+	/**
+	 * @return the weight of a posting
+	 */
+	public double weightAt(int n, int posting) {
+		return levels[n - minSize].weights[posting];
+	}
+}
@@ -0,0 +1,255 @@
+/*
+This file is part of nggSpamFilter.
+
+nggSpamFilter is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+nggSpamFilter is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with nggSpamFilter.  If not, see <http://www.gnu.org/licenses/>.
+
+Copyright (C) Vasileios Charisopoulos, 2015
+
+*/
+
+package gr.demokritos.dataTools;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash map from packed edge keys to edge weights,
+ * using primitive arrays and linear probing. The key 0 is reserved
+ * to mark empty slots, which is why {@link CompactNGramGraph#edgeKey}
+ * never produces it.
+ * @author VHarisop
+ *
+ */
+public class EdgeMap {
+
+	private static final int MIN_CAPACITY = 16;
+	private static final double LOAD_FACTOR = 0.6;
+
+	private long[] keys;
+	private double[] weights;
+	private int size;
+	private int mask;
+	private int resizeAt;
+
+	/**
+	 * Creates an empty map with a default capacity
+	 */
+	public EdgeMap() {
+		this(MIN_CAPACITY);
+	}
+
+	/**
+	 * Creates an empty map that can hold a given number 
+	 * of edges without being resized
+	 * @param expected the expected number of edges
+	 */
+	public EdgeMap(int expected) {
+		int cap = MIN_CAPACITY;
+		while (cap * LOAD_FACTOR < expected) {
+			cap <<= 1;
+		}
+		allocate(cap);
+	}
+
+	/**
+	 * Copy constructor
+	 * @param other the map to copy
+	 */
+	public EdgeMap(EdgeMap other) {
+		keys = other.keys.clone();
+		weights = other.weights.clone();
+		size = other.size;
+		mask = other.mask;
+		resizeAt = other.resizeAt;
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		weights = new double[capacity];
+		mask = capacity - 1;
+		resizeAt = (int) (capacity * LOAD_FACTOR);
+	}
+
+	/**
+	 * Spreads the bits of a key to pick its home slot
+	 */
+	private int slotOf(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	/**
+	 * Finds the slot holding a key, or the empty slot 
+	 * where the key would be inserted
+	 */
+	private int find(long key) {
+		int slot = slotOf(key);
+		while (keys[slot] != 0 && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * @return the number of edges in the map
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param key a packed edge key
+	 * @return true if the map contains the edge
+	 */
+	public boolean contains(long key) {
+		return keys[find(key)] != 0;
+	}
+
+	/**
+	 * Returns the weight of an edge
+	 * @param key a packed edge key
+	 * @param missing the value to return if the edge is absent
+	 * @return the weight of the edge, or {@code missing}
+	 */
+	public double get(long key, double missing) {
+		int slot = find(key);
+		return (keys[slot] != 0) ? weights[slot] : missing;
+	}
+
+	/**
+	 * Sets the weight of an edge, inserting it if needed
+	 * @param key a packed edge key
+	 * @param weight the new weight
+	 */
+	public void put(long key, double weight) {
+		int slot = find(key);
+		if (keys[slot] == 0) {
+			insertAt(slot, key, weight);
+		}
+		else {
+			weights[slot] = weight;
+		}
+	}
+
+	/**
+	 * Adds a value to the weight of an edge, inserting it 
+	 * with weight {@code delta} if it is absent
+	 * @param key a packed edge key
+	 * @param delta the value to add
+	 */
+	public void add(long key, double delta) {
+		int slot = find(key);
+		if (keys[slot] == 0) {
+			insertAt(slot, key, delta);
+		}
+		else {
+			weights[slot] += delta;
+		}
+	}
+
+	private void insertAt(int slot, long key, double weight) {
+		if (key == 0) {
+			throw new IllegalArgumentException("Edge key 0 is reserved");
+		}
+		keys[slot] = key;
+		weights[slot] = weight;
+		if (++size > resizeAt) {
+			rehash(keys.length << 1);
+		}
+	}
+
+	/**
+	 * Removes an edge from the map
+	 * @param key a packed edge key
+	 * @return true if the edge was present
+	 */
+	public boolean remove(long key) {
+		int slot = find(key);
+		if (keys[slot] == 0) {
+			return false;
+		}
+
+		// backward-shift deletion keeps probe chains intact
+		int gap = slot;
+		int next = (gap + 1) & mask;
+		while (keys[next] != 0) {
+			int home = slotOf(keys[next]);
+			// move the entry if its home is not in (gap, next]
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				keys[gap] = keys[next];
+				weights[gap] = weights[next];
+				gap = next;
+			}
+			next = (next + 1) & mask;
+		}
+		keys[gap] = 0;
+		weights[gap] = 0;
+		size--;
+		return true;
+	}
+
+	/**
+	 * Removes all edges from the map
+	 */
+	public void clear() {
+		Arrays.fill(keys, 0);
+		Arrays.fill(weights, 0);
+		size = 0;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		double[] oldWeights = weights;
+		allocate(capacity);
+		for (int i = 0; i < oldKeys.length; ++i) {
+			if (oldKeys[i] != 0) {
+				int slot = find(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				weights[slot] = oldWeights[i];
+			}
+		}
+	}
+
+	/**
+	 * @return the number of slots, for iterating with 
+	 * {@link #keyAt(int)} and {@link #weightAt(int)}
+	 */
+	public int capacity() {
+		return keys.length;
+	}
+
+	/**
+	 * @param slot a slot index
+	 * @return the key stored in the slot, or 0 if it is empty
+	 */
+	public long keyAt(int slot) {
+		return keys[slot];
+	}
+
+	/**
+	 * @param slot a slot index
+	 * @return the weight stored in the slot
+	 */
+	public double weightAt(int slot) {
+		return weights[slot];
+	}
+
+	/**
+	 * Sets the weight stored in an occupied slot
+	 * @param slot a slot index
+	 * @param weight the new weight
+	 */
+	public void setWeightAt(int slot, double weight) {
+		weights[slot] = weight;
+	}
+}
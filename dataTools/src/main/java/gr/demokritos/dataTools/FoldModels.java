@@ -0,0 +1,138 @@
+/*
+This file is part of nggSpamFilter.
+
+nggSpamFilter is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+nggSpamFilter is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with nggSpamFilter.  If not, see <http://www.gnu.org/licenses/>.
+
+Copyright (C) Vasileios Charisopoulos, 2015
+
+*/
+
+package gr.demokritos.dataTools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Builds the k-fold class models of one class by subtraction. Every 
+ * document is parsed once and added to the partial sum of the fold 
+ * it is held out in; the model of fold n is then the sum of all 
+ * partial sums but the n-th, divided by the number of training 
+ * documents. Since edge weights are occurrence counts, the sums are 
+ * exact and subtraction leaves no residue.
+ * 
+ * The resulting models are plain means of the training documents'
+ * compact graphs. This is a different model from the one Modeller 
+ * builds with JInsect's mergeGraph: that merge moves only the edges
+ * both graphs share towards the new weights, adds edges first seen in
+ * a later document at their full weight and leaves edges a document
+ * lacks untouched, so its result depends on the merge order and is 
+ * not the mean. Accuracies of the two modes are not expected to match.
+ * @author VHarisop
+ *
+ */
+public class FoldModels {
+
+	private final CompactNGramGraph total;
+	private final CompactNGramGraph[] partials;
+	private final int[] foldCounts;
+	private final int totalCount;
+
+	/**
+	 * Builds the partial sums of a class
+	 * @param files the documents of the class
+	 * @param foldOf the fold each document is held out in, 
+	 * 		  or -1 if it is always used for training
+	 * @param order the number of folds
+	 * @param minSize the minimum n-gram rank
+	 * @param maxSize the maximum n-gram rank
+	 * @param window the neighbourhood window
+	 */
+	public FoldModels(File[] files, int[] foldOf, int order,
+			int minSize, int maxSize, int window) 
+	{
+		total = new CompactNGramGraph(minSize, maxSize, window);
+		partials = new CompactNGramGraph[order];
+		foldCounts = new int[order];
+		for (int i = 0; i < order; ++i) {
+			partials[i] = new CompactNGramGraph(minSize, maxSize, window);
+		}
+
+		// one document graph, refilled for every file
+		CompactNGramGraph doc = new CompactNGramGraph(minSize, maxSize, window);
+		NGramExtractor extractor = NGramExtractor.forThread();
+		
+		int count = 0;
+		for (int i = 0; i < files.length; ++i) {
+			doc.clear();
+			try {
+				extractor.addTo(doc, files[i]);
+			}
+			catch (IOException ex) {
+				ex.printStackTrace();
+				continue;
+			}
+			
+			if (foldOf[i] >= 0) {
+				partials[foldOf[i]].addGraph(doc, 1.0);
+				foldCounts[foldOf[i]]++;
+			}
+			total.addGraph(doc, 1.0);
+			count++;
+		}
+		totalCount = count;
+	}
+
+	/**
+	 * Maps a range of held-out indices per fold to a fold assignment
+	 * @param numFiles the number of documents
+	 * @param starts the first held-out index of every fold
+	 * @param ends the index past the last held-out one of every fold
+	 * @return the fold of every document, or -1 if never held out
+	 */
+	public static int[] assignFolds(int numFiles, int[] starts, int[] ends) {
+		int[] foldOf = new int[numFiles];
+		Arrays.fill(foldOf, -1);
+		for (int n = 0; n < starts.length; ++n) {
+			for (int i = starts[n]; i < ends[n]; ++i) {
+				foldOf[i] = n;
+			}
+		}
+		return foldOf;
+	}
+
+	/**
+	 * @return the number of folds
+	 */
+	public int getOrder() {
+		return partials.length;
+	}
+
+	/**
+	 * Derives the mean model of the class for a given fold, i.e. over
+	 * all documents not held out in that fold
+	 * @param n the index of the held-out fold
+	 * @return a new graph holding the model
+	 */
+	public CompactNGramGraph getModel(int n) {
+		CompactNGramGraph model = new CompactNGramGraph(total);
+		model.addGraph(partials[n], -1.0);
+		
+		int count = totalCount - foldCounts[n];
+		if (count > 0) {
+			model.scale(1.0 / count);
+		}
+		return model;
+	}
+}
@@ -0,0 +1,275 @@
+/*
+This file is part of nggSpamFilter.
+
+nggSpamFilter is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+nggSpamFilter is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with nggSpamFilter.  If not, see <http://www.gnu.org/licenses/>.
+
+Copyright (C) Vasileios Charisopoulos, 2015
+
+*/
+
+package gr.demokritos.dataTools;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * A class model stored in a compact binary file and scored directly
+ * from a read-only memory mapping, with no deserialization step.
+ * 
+ * File layout (version 3, big-endian):
+ * 		int magic ("NGGM"), int version, 
+ * 		int minSize, int maxSize, int window,
+ * 		int edgeCount for every rank (stored edges),
+ * 		int prunedEdges for every rank, padding to a multiple of 8,
+ * 		then for every rank: long[edgeCount] sorted edge keys,
+ * 		followed by double[edgeCount] weights in key order.
+ * A file is written next to its final name and moved into place once
+ * complete, and a file whose header does not match its size is 
+ * rejected, so a crash while saving never leaves a model that loads.
+ * 
+ * Examples:
+ * 		MappedModel.save(model, new File("spam.ngm"));
+ * 		NGramModel spam = MappedModel.open(new File("spam.ngm"));
+ * 
+ * @author VHarisop
+ *
+ */
+public class MappedModel implements NGramModel {
+
+	public static final int MAGIC = 0x4E47474D;
+	public static final int VERSION = 3;
+
+	private final MappedByteBuffer buf;
+	private final int minSize, maxSize, window;
+	private final int[] counts;
+	private final int[] prunedEdges;
+	private final int[] keyOffsets;
+	private final int[] weightOffsets;
+
+	private MappedModel(MappedByteBuffer buf) throws IOException {
+		this.buf = buf;
+		if (buf.capacity() < 20 || buf.getInt(0) != MAGIC) {
+			throw new IOException("Not a model file");
+		}
+		int version = buf.getInt(4);
+		if (version != VERSION) {
+			throw new IOException("Unsupported model version " + version);
+		}
+		minSize = buf.getInt(8);
+		maxSize = buf.getInt(12);
+		window = buf.getInt(16);
+		if (minSize < 1 || maxSize < minSize || window < 1) {
+			throw new IOException("Corrupt model header");
+		}
+
+		// every level takes at least 4 bytes of header
+		long levels = (long) maxSize - minSize + 1;
+		if (20 + 4 * levels > buf.capacity()) {
+			throw new IOException("Truncated model file");
+		}
+		int numLevels = (int) levels;
+		if (headerSize(numLevels) > buf.capacity()) {
+			throw new IOException("Truncated model file");
+		}
+		counts = new int[numLevels];
+		prunedEdges = new int[numLevels];
+		keyOffsets = new int[numLevels];
+		weightOffsets = new int[numLevels];
+
+		long offset = headerSize(numLevels);
+		for (int i = 0; i < numLevels; ++i) {
+			counts[i] = buf.getInt(20 + 4 * i);
+			prunedEdges[i] = buf.getInt(20 + 4 * (numLevels + i));
+			if (counts[i] < 0 || prunedEdges[i] < 0) {
+				throw new IOException("Corrupt model header");
+			}
+			keyOffsets[i] = (int) offset;
+			weightOffsets[i] = (int) (offset + 8L * counts[i]);
+			offset += 16L * counts[i];
+			if (offset > buf.capacity()) {
+				throw new IOException("Truncated model file");
+			}
+		}
+		if (offset != buf.capacity()) {
+			throw new IOException("Model file size does not match its header");
+		}
+	}
+
+	private static long headerSize(int numLevels) {
+		return (20 + 8L * numLevels + 7) & ~7;
+	}
+
+	/**
+	 * Maps a model file into memory
+	 * @param file the model file
+	 * @return the mapped model
+	 * @throws IOException if the file cannot be read, is not a model
+	 * 		   or is truncated or corrupt
+	 */
+	public static MappedModel open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel ch = raf.getChannel();
+			if (ch.size() > Integer.MAX_VALUE) {
+				throw new IOException("Model file too large: " + file);
+			}
+			return new MappedModel(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+		}
+		finally {
+			// the mapping stays valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Writes a model graph to a file in the binary model format. The 
+	 * model is written to a temporary file in the same directory, which
+	 * then atomically replaces the file.
+	 * @param model the model graph
+	 * @param file the file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void save(CompactNGramGraph model, File file) throws IOException {
+		File tmp = File.createTempFile(file.getName(), ".tmp", 
+				file.getAbsoluteFile().getParentFile());
+		try {
+			write(model, tmp);
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			tmp.delete();
+		}
+	}
+
+	private static void write(CompactNGramGraph model, File file) throws IOException {
+		int numLevels = model.getMaxSize() - model.getMinSize() + 1;
+		
+		FileOutputStream fos = new FileOutputStream(file);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(model.getMinSize());
+			out.writeInt(model.getMaxSize());
+			out.writeInt(model.getWindowSize());
+			for (int n = model.getMinSize(); n <= model.getMaxSize(); ++n) {
+				out.writeInt(model.getLevel(n).size());
+			}
+			for (int n = model.getMinSize(); n <= model.getMaxSize(); ++n) {
+				out.writeInt(model.edgeCount(n) - model.getLevel(n).size());
+			}
+			for (int p = 20 + 8 * numLevels; p % 8 != 0; ++p) {
+				out.writeByte(0);
+			}
+
+			for (int n = model.getMinSize(); n <= model.getMaxSize(); ++n) {
+				EdgeMap edges = model.getLevel(n);
+				long[] keys = new long[edges.size()];
+				int k = 0;
+				for (int s = 0; s < edges.capacity(); ++s) {
+					if (edges.keyAt(s) != 0) {
+						keys[k++] = edges.keyAt(s);
+					}
+				}
+				Arrays.sort(keys);
+				
+				for (long key: keys) {
+					out.writeLong(key);
+				}
+				for (long key: keys) {
+					out.writeDouble(edges.get(key, 0));
+				}
+			}
+			// on disk before the file is moved into place
+			out.flush();
+			fos.getFD().sync();
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Copies the mapped model into an in-memory graph
+	 * @return the equivalent compact graph
+	 */
+	public CompactNGramGraph toGraph() {
+		return CompactNGramGraph.copyOf(this);
+	}
+
+	public int getMinSize() {
+		return minSize;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public int getWindowSize() {
+		return window;
+	}
+
+	public int edgeCount(int n) {
+		return counts[n - minSize] + prunedEdges[n - minSize];
+	}
+
+	public int slots(int n) {
+		return counts[n - minSize];
+	}
+
+	public long keyAt(int n, int slot) {
+		return buf.getLong(keyOffsets[n - minSize] + 8 * slot);
+	}
+
+	public double weightAt(int n, int slot) {
+		return buf.getDouble(weightOffsets[n - minSize] + 8 * slot);
+	}
+
+	/**
+	 * Looks up the weight of an edge by binary search over the
+	 * sorted keys of its rank. Uses absolute reads only, so it is
+	 * safe to call from several threads.
+	 */
+	public double weight(int n, long key, double missing) {
+		int i = n - minSize;
+		ByteBuffer b = buf;
+		int base = keyOffsets[i];
+		
+		int lo = 0, hi = counts[i] - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			long k = b.getLong(base + 8 * mid);
+			if (k < key) {
+				lo = mid + 1;
+			}
+			else if (k > key) {
+				hi = mid - 1;
+			}
+			else {
+				return b.getDouble(weightOffsets[i] + 8 * mid);
+			}
+		}
+		return missing;
+	}
+}
@@ -0,0 +1,457 @@
+/*
+This file is part of nggSpamFilter.
+
+nggSpamFilter is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+nggSpamFilter is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with nggSpamFilter.  If not, see <http://www.gnu.org/licenses/>.
+
+Copyright (C) Vasileios Charisopoulos, 2015
+
+*/
+
+package gr.demokritos.dataTools;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * A process-wide registry of counters, gauges and latency histograms. 
+ * Latencies are recorded in nanoseconds into log-linear buckets, 
+ * accurate to 1/8 of their power of two, without locking. The 
+ * registry can be watched through a JMX MBean 
+ * ({@code gr.demokritos.dataTools:type=Metrics}), whose attributes are
+ * named after the metrics (e.g. {@code classify.p99Micros}), and as a 
+ * text snapshot printed periodically.
+ * 
+ * Call sites keep the histograms they record into, e.g.:
+ * 		static final MetricsRegistry.Histogram READ_TIME = 
+ * 			MetricsRegistry.get().histogram(MetricsRegistry.READ);
+ * 		long t0 = System.nanoTime();
+ * 		...
+ * 		READ_TIME.record(System.nanoTime() - t0);
+ * 
+ * @author VHarisop
+ *
+ */
+public final class MetricsRegistry {
+
+	/** Reading a document from disk */
+	public static final String READ = "read";
+	/** Building the n-gram graph of a document */
+	public static final String BUILD = "build";
+	/** Merging a document graph into a model */
+	public static final String MERGE = "merge";
+	/** Removing the common subgraph (noise) of the models */
+	public static final String NOISE = "noise";
+	/** Computing similarities; a compact scoring pass covers all models */
+	public static final String SIMILARITY = "similarity";
+	/** Classifying a message, from its text or file to its label */
+	public static final String CLASSIFY = "classify";
+
+	/** Training documents parsed so far */
+	public static final String TRAIN_DOCUMENTS = "train.documents";
+	/** Edges stored by the models of the latest scorer */
+	public static final String MODEL_EDGES = "model.edges";
+	/** Estimated bytes of the models of the latest scorer */
+	public static final String MODEL_BYTES = "model.bytes";
+
+	private static final MetricsRegistry global = new MetricsRegistry();
+
+	private final ConcurrentHashMap<String, Histogram> histograms = 
+		new ConcurrentHashMap<String, Histogram>();
+	private final ConcurrentHashMap<String, LongAdder> counters = 
+		new ConcurrentHashMap<String, LongAdder>();
+	private final ConcurrentHashMap<String, AtomicLong> gauges = 
+		new ConcurrentHashMap<String, AtomicLong>();
+
+	private ScheduledExecutorService dumper;
+	private ObjectName mbeanName;
+
+	/**
+	 * @return the registry shared by the whole process
+	 */
+	public static MetricsRegistry get() {
+		return global;
+	}
+
+	/**
+	 * The latency histogram with a given name, created on first use
+	 * @param name the name of the histogram
+	 * @return the histogram
+	 */
+	public Histogram histogram(String name) {
+		Histogram h = histograms.get(name);
+		if (h == null) {
+			Histogram fresh = new Histogram();
+			h = histograms.putIfAbsent(name, fresh);
+			if (h == null) {
+				h = fresh;
+			}
+		}
+		return h;
+	}
+
+	/**
+	 * The counter with a given name, created on first use
+	 * @param name the name of the counter
+	 * @return the counter
+	 */
+	public LongAdder counter(String name) {
+		LongAdder c = counters.get(name);
+		if (c == null) {
+			LongAdder fresh = new LongAdder();
+			c = counters.putIfAbsent(name, fresh);
+			if (c == null) {
+				c = fresh;
+			}
+		}
+		return c;
+	}
+
+	/**
+	 * Sets the value of a gauge
+	 * @param name the name of the gauge
+	 * @param value its current value
+	 */
+	public void gauge(String name, long value) {
+		AtomicLong g = gauges.get(name);
+		if (g == null) {
+			AtomicLong fresh = new AtomicLong();
+			g = gauges.putIfAbsent(name, fresh);
+			if (g == null) {
+				g = fresh;
+			}
+		}
+		g.set(value);
+	}
+
+	/**
+	 * Clears every metric in place; histograms and counters 
+	 * held by call sites stay registered
+	 */
+	public void reset() {
+		for (Histogram h: histograms.values()) {
+			h.reset();
+		}
+		for (LongAdder c: counters.values()) {
+			c.reset();
+		}
+		for (AtomicLong g: gauges.values()) {
+			g.set(0);
+		}
+	}
+
+	/**
+	 * The current value of every metric, by attribute name: 
+	 * {@code <histogram>.count}, {@code .meanMicros}, {@code .p50Micros},
+	 * {@code .p99Micros} and {@code .maxMicros}, and the plain names of 
+	 * counters and gauges
+	 * @return the values, sorted by name
+	 */
+	public Map<String, Number> values() {
+		Map<String, Number> values = new TreeMap<String, Number>();
+		for (Map.Entry<String, Histogram> e: histograms.entrySet()) {
+			Histogram h = e.getValue();
+			String name = e.getKey();
+			values.put(name + ".count", h.count());
+			values.put(name + ".meanMicros", h.mean() / 1e3);
+			values.put(name + ".p50Micros", h.percentile(0.5) / 1e3);
+			values.put(name + ".p99Micros", h.percentile(0.99) / 1e3);
+			values.put(name + ".maxMicros", h.max() / 1e3);
+		}
+		for (Map.Entry<String, LongAdder> e: counters.entrySet()) {
+			values.put(e.getKey(), e.getValue().sum());
+		}
+		for (Map.Entry<String, AtomicLong> e: gauges.entrySet()) {
+			values.put(e.getKey(), e.getValue().get());
+		}
+		return values;
+	}
+
+	/**
+	 * A readable snapshot of every metric, one per line
+	 * @return the snapshot
+	 */
+	public String snapshot() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Histogram> e: new TreeMap<String, Histogram>(histograms).entrySet()) {
+			Histogram h = e.getValue();
+			sb.append(String.format("%-16s count=%d mean=%.1fus p50=%.1fus p99=%.1fus max=%.1fus\n", 
+					e.getKey(), h.count(), h.mean() / 1e3, h.percentile(0.5) / 1e3, 
+					h.percentile(0.99) / 1e3, h.max() / 1e3));
+		}
+		for (Map.Entry<String, LongAdder> e: new TreeMap<String, LongAdder>(counters).entrySet()) {
+			sb.append(String.format("%-16s %d\n", e.getKey(), e.getValue().sum()));
+		}
+		for (Map.Entry<String, AtomicLong> e: new TreeMap<String, AtomicLong>(gauges).entrySet()) {
+			sb.append(String.format("%-16s %d\n", e.getKey(), e.getValue().get()));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Prints a timestamped snapshot every period, on a daemon thread,
+	 * replacing any earlier schedule
+	 * @param period the time between snapshots
+	 * @param unit the unit of {@code period}
+	 * @param out the stream to print to
+	 */
+	public synchronized void startDumps(long period, TimeUnit unit, final PrintStream out) {
+		stopDumps();
+		dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "MetricsRegistry-dump");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		dumper.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				String time = new SimpleDateFormat("HH:mm:ss").format(new Date());
+				out.print("[metrics " + time + "]\n" + snapshot());
+				out.flush();
+			}
+		}, period, period, unit);
+	}
+
+	/**
+	 * Stops printing periodic snapshots
+	 */
+	public synchronized void stopDumps() {
+		if (dumper != null) {
+			dumper.shutdownNow();
+			dumper = null;
+		}
+	}
+
+	/**
+	 * Registers the registry with the platform MBean server, 
+	 * once; later calls return the same name
+	 * @return the name of the MBean
+	 * @throws JMException if the MBean cannot be registered
+	 */
+	public synchronized ObjectName registerMBean() throws JMException {
+		if (mbeanName != null) {
+			return mbeanName;
+		}
+		ObjectName name = new ObjectName("gr.demokritos.dataTools:type=Metrics");
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.registerMBean(new MetricsMBean(), name);
+		}
+		catch (InstanceAlreadyExistsException ex) {
+			// registered by another copy of this class, e.g. another class loader
+		}
+		mbeanName = name;
+		return name;
+	}
+
+	/**
+	 * A latency histogram over log-linear buckets: every power of two 
+	 * of nanoseconds is split into 8 buckets, so percentiles are exact 
+	 * to within 12.5%
+	 */
+	public static final class Histogram {
+
+		private static final int SUB_BITS = 3;
+		private static final int SUB = 1 << SUB_BITS;
+
+		private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB);
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sum = new LongAdder();
+		private final AtomicLong max = new AtomicLong();
+
+		/**
+		 * Records a latency
+		 * @param nanos the latency in nanoseconds; negative values count as 0
+		 */
+		public void record(long nanos) {
+			long v = Math.max(0, nanos);
+			buckets.incrementAndGet(bucket(v));
+			count.increment();
+			sum.add(v);
+			long m = max.get();
+			while (v > m && !max.compareAndSet(m, v)) {
+				m = max.get();
+			}
+		}
+
+		/**
+		 * Records the time since a start time
+		 * @param startNanos a value of System.nanoTime()
+		 */
+		public void recordSince(long startNanos) {
+			record(System.nanoTime() - startNanos);
+		}
+
+		private static int bucket(long v) {
+			if (v < SUB) {
+				return (int) v;
+			}
+			int exp = 63 - Long.numberOfLeadingZeros(v);
+			int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB - 1);
+			return (exp - SUB_BITS + 1) * SUB + sub;
+		}
+
+		/**
+		 * The largest value that falls into a bucket
+		 */
+		private static long upperBound(int b) {
+			if (b < SUB) {
+				return b;
+			}
+			int exp = b / SUB + SUB_BITS - 1;
+			long sub = b % SUB;
+			long lo = (1L << exp) | (sub << (exp - SUB_BITS));
+			return lo + (1L << (exp - SUB_BITS)) - 1;
+		}
+
+		/** @return the number of recorded latencies */
+		public long count() {
+			return count.sum();
+		}
+
+		/** @return the mean latency in nanoseconds */
+		public double mean() {
+			long n = count.sum();
+			return n == 0 ? 0 : sum.sum() / (double) n;
+		}
+
+		/** @return the largest latency in nanoseconds */
+		public long max() {
+			return max.get();
+		}
+
+		/**
+		 * An upper bound of a percentile of the latencies
+		 * @param p the percentile, between 0 and 1
+		 * @return the upper bound of the bucket holding the 
+		 * 		   percentile, in nanoseconds, at most the maximum
+		 */
+		public long percentile(double p) {
+			long[] counts = new long[buckets.length()];
+			long total = 0;
+			for (int b = 0; b < counts.length; ++b) {
+				counts[b] = buckets.get(b);
+				total += counts[b];
+			}
+			if (total == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(p * total);
+			long seen = 0;
+			for (int b = 0; b < counts.length; ++b) {
+				seen += counts[b];
+				if (seen >= Math.max(1, rank)) {
+					return Math.min(upperBound(b), max.get());
+				}
+			}
+			return max.get();
+		}
+
+		void reset() {
+			for (int b = 0; b < buckets.length(); ++b) {
+				buckets.set(b, 0);
+			}
+			count.reset();
+			sum.reset();
+			max.set(0);
+		}
+	}
+
+	/**
+	 * Exposes the values of the registry as read-only attributes, 
+	 * with a reset operation
+	 */
+	private class MetricsMBean implements DynamicMBean {
+
+		public Object getAttribute(String attribute) throws AttributeNotFoundException {
+			Number v = values().get(attribute);
+			if (v == null) {
+				throw new AttributeNotFoundException(attribute);
+			}
+			return v;
+		}
+
+		public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+			throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+		}
+
+		public AttributeList getAttributes(String[] attributes) {
+			Map<String, Number> values = values();
+			AttributeList list = new AttributeList();
+			for (String a: attributes) {
+				if (values.containsKey(a)) {
+					list.add(new Attribute(a, values.get(a)));
+				}
+			}
+			return list;
+		}
+
+		public AttributeList setAttributes(AttributeList attributes) {
+			return new AttributeList();
+		}
+
+		public Object invoke(String action, Object[] params, String[] signature) 
+			throws ReflectionException 
+		{
+			if (action.equals("reset")) {
+				reset();
+				return null;
+			}
+			throw new ReflectionException(new NoSuchMethodException(action));
+		}
+
+		public MBeanInfo getMBeanInfo() {
+			Map<String, Number> values = values();
+			MBeanAttributeInfo[] attrs = new MBeanAttributeInfo[values.size()];
+			int i = 0;
+			for (Map.Entry<String, Number> e: values.entrySet()) {
+				String type = (e.getValue() instanceof Double) ? "java.lang.Double" : "java.lang.Long";
+				attrs[i++] = new MBeanAttributeInfo(e.getKey(), type, e.getKey(), 
+						true, false, false);
+			}
+			MBeanOperationInfo[] ops = { 
+				new MBeanOperationInfo("reset", "Clears every metric", null, "void", 
+						MBeanOperationInfo.ACTION) 
+			};
+			return new MBeanInfo(MetricsRegistry.class.getName(), 
+					"Latencies, throughput and model sizes of nggSpamFilter", 
+					attrs, null, ops, null);
+		}
+	}
+}
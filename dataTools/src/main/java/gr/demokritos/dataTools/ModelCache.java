@@ -0,0 +1,117 @@
+/*
+This file is part of nggSpamFilter.
+
+nggSpamFilter is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+nggSpamFilter is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with nggSpamFilter.  If not, see <http://www.gnu.org/licenses/>.
+
+Copyright (C) Vasileios Charisopoulos, 2015
+
+*/
+
+package gr.demokritos.dataTools;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A directory of cached model generations, one subdirectory per 
+ * corpus fingerprint. Models are only rebuilt when the fingerprint 
+ * of the training corpus changes, and a bounded number of the most 
+ * recently used generations is kept so that switching between 
+ * corpora does not force a rebuild.
+ * 
+ * Examples:
+ * 		ModelCache cache = new ModelCache(new File("models"), 4);
+ * 		File dir = cache.generation(CorpusFingerprint.of(false, "3-3-3", trainDir));
+ * 
+ * @author VHarisop
+ *
+ */
+public class ModelCache {
+
+	private final File baseDir;
+	private final int maxGenerations;
+
+	/**
+	 * Creates a model cache
+	 * @param baseDir the root directory of the cache
+	 * @param maxGenerations the number of generations to keep
+	 */
+	public ModelCache(File baseDir, int maxGenerations) {
+		this.baseDir = baseDir;
+		this.maxGenerations = Math.max(1, maxGenerations);
+	}
+
+	/**
+	 * Returns the directory of a model generation, creating it if 
+	 * needed, marks it as the most recently used one and evicts
+	 * the least recently used generations beyond the limit
+	 * @param fingerprint the fingerprint of the training corpus
+	 * @return the directory of the generation
+	 */
+	public File generation(String fingerprint) {
+		File dir = new File(baseDir, fingerprint);
+		dir.mkdirs();
+		dir.setLastModified(System.currentTimeMillis());
+		evict(dir);
+		return dir;
+	}
+
+	/**
+	 * Checks if a generation holds all the given model files
+	 * @param dir the directory of the generation
+	 * @param names the names of the model files
+	 * @return true if all files exist
+	 */
+	public static boolean isComplete(File dir, String... names) {
+		for (String name: names) {
+			if (!new File(dir, name).isFile()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Deletes the least recently used generations beyond the limit
+	 * @param current the generation in use, which is never deleted
+	 */
+	private void evict(File current) {
+		File[] gens = baseDir.listFiles();
+		if (gens == null || gens.length <= maxGenerations) {
+			return;
+		}
+		
+		Arrays.sort(gens, new Comparator<File>() {
+			public int compare(File a, File b) {
+				return Long.compare(b.lastModified(), a.lastModified());
+			}
+		});
+		for (int i = maxGenerations; i < gens.length; ++i) {
+			if (!gens[i].equals(current)) {
+				delete(gens[i]);
+			}
+		}
+	}
+
+	private static void delete(File f) {
+		File[] children = f.listFiles();
+		if (children != null) {
+			for (File c: children) {
+				delete(c);
+			}
+		}
+		f.delete();
+	}
+}
@@ -0,0 +1,537 @@
+/*
+This file is part of nggSpamFilter.
+
+nggSpamFilter is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+nggSpamFilter is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with nggSpamFilter.  If not, see <http://www.gnu.org/licenses/>.
+
+Copyright (C) Vasileios Charisopoulos, 2015
+
+*/
+
+package gr.demokritos.dataTools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scores a candidate graph against k class models in a single walk
+ * over the candidate's edges: every edge is looked up once in an 
+ * {@link EdgeIndex} over all models, and the per-model edge counts 
+ * that normalize the value similarity are computed once, when the 
+ * scorer is created. The similarities are those of 
+ * {@link CompactNGramGraph#valueSimilarity}.
+ * 
+ * The index copies every edge of the models into the heap, which costs
+ * time and memory proportional to the models. It is built when the
+ * first candidate is scored rather than when the scorer is created, so 
+ * a scorer over models mapped from disk ({@link MappedModel}) still 
+ * starts in constant time; scorers renewed from it share the index.
+ * 
+ * When only the winning model is needed, {@link #best(CompactNGramGraph)}
+ * and {@link #beats(CompactNGramGraph, int, int)} visit the candidate's 
+ * edges heaviest first while keeping lower and upper bounds on every 
+ * similarity, and stop as soon as the leader cannot be overtaken.
+ * 
+ * A scorer is immutable and can be shared between threads; create a 
+ * new one whenever the models change. Every scorer gets a distinct
+ * {@link #generation()}, which caches of verdicts can key on.
+ * @author VHarisop
+ *
+ */
+public class MultiModelScorer {
+
+	private final NGramModel[] models;
+	// built on first use, see index()
+	private volatile EdgeIndex index;
+	private final int minSize, maxSize, window;
+	
+	// edgeCounts[m][i]: edges of model m at rank minSize + i
+	private final int[][] edgeCounts;
+	private final double importance;
+	private final long generation;
+	
+	private static final AtomicLong generations = new AtomicLong();
+	
+	private static final MetricsRegistry.Histogram BUILD_TIME = 
+		MetricsRegistry.get().histogram(MetricsRegistry.BUILD);
+	private static final MetricsRegistry.Histogram SIMILARITY_TIME = 
+		MetricsRegistry.get().histogram(MetricsRegistry.SIMILARITY);
+
+	// edges visited between checks of the bounds
+	private static final int CHECK_INTERVAL = 32;
+	
+	// margin by which a leader must be ahead to stop early, well above
+	// the rounding error of summing the similarities in another order
+	private static final double MARGIN = 1e-9;
+
+	/**
+	 * Creates a scorer for a set of models with the same parameters
+	 * @param models the class models
+	 */
+	public MultiModelScorer(NGramModel... models) {
+		this.models = models.clone();
+		minSize = models[0].getMinSize();
+		maxSize = models[0].getMaxSize();
+		window = models[0].getWindowSize();
+
+		edgeCounts = new int[models.length][maxSize - minSize + 1];
+		for (int m = 0; m < models.length; ++m) {
+			if (models[m].getMinSize() != minSize || models[m].getMaxSize() != maxSize
+					|| models[m].getWindowSize() != window) {
+				throw new IllegalArgumentException("Incompatible n-gram parameters");
+			}
+			for (int n = minSize; n <= maxSize; ++n) {
+				edgeCounts[m][n - minSize] = models[m].edgeCount(n);
+			}
+		}
+
+		double imp = 0;
+		for (int n = minSize; n <= maxSize; ++n) {
+			imp += n;
+		}
+		importance = imp;
+		
+		generation = generations.incrementAndGet();
+		publishSize();
+	}
+
+	/**
+	 * Reports the size of the models as the scorer in use; the gauges
+	 * are process-wide, so the scorer created last wins
+	 */
+	private void publishSize() {
+		long edges = storedEdges();
+		MetricsRegistry.get().gauge(MetricsRegistry.MODEL_EDGES, edges);
+		MetricsRegistry.get().gauge(MetricsRegistry.MODEL_BYTES, 
+				edges * CompactNGramGraph.BYTES_PER_EDGE);
+	}
+
+	/**
+	 * @return the edge index over the models, built on the first call
+	 */
+	private EdgeIndex index() {
+		EdgeIndex idx = index;
+		if (idx == null) {
+			synchronized (this) {
+				idx = index;
+				if (idx == null) {
+					index = idx = new EdgeIndex(models);
+				}
+			}
+		}
+		return idx;
+	}
+
+	/**
+	 * @return True once the edge index over the models has been built
+	 */
+	boolean isIndexed() {
+		return index != null;
+	}
+
+	/**
+	 * Creates a scorer over the same models and index as another, 
+	 * with a generation of its own
+	 * @param other the scorer to copy
+	 */
+	private MultiModelScorer(MultiModelScorer other) {
+		models = other.models;
+		index = other.index();
+		minSize = other.minSize;
+		maxSize = other.maxSize;
+		window = other.window;
+		edgeCounts = other.edgeCounts;
+		importance = other.importance;
+		generation = generations.incrementAndGet();
+		publishSize();
+	}
+
+	/**
+	 * Creates a scorer over the same models with a new generation, 
+	 * to publish the models again after another scorer replaced them:
+	 * caches keyed on generations only keep the newest one, so the 
+	 * generation of the original scorer is dead by then. The models
+	 * and their index are shared, not copied.
+	 * @return the new scorer
+	 */
+	public MultiModelScorer renewed() {
+		return new MultiModelScorer(this);
+	}
+
+	/**
+	 * @return a number that identifies this scorer's models; 
+	 * 		   distinct for every scorer created
+	 */
+	public long generation() {
+		return generation;
+	}
+
+	/**
+	 * @return the number of models
+	 */
+	public int size() {
+		return models.length;
+	}
+
+	/**
+	 * @return the models scored against
+	 */
+	public NGramModel[] getModels() {
+		return models.clone();
+	}
+
+	/**
+	 * @return the number of edges stored by all models
+	 */
+	public long storedEdges() {
+		long total = 0;
+		for (NGramModel m: models) {
+			for (int n = minSize; n <= maxSize; ++n) {
+				total += stored(m, n);
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Counts the edges a model stores at a rank, without touching the
+	 * edges of the known model types: a mapped model would otherwise 
+	 * be paged in from disk
+	 */
+	private static int stored(NGramModel model, int n) {
+		if (model instanceof CompactNGramGraph) {
+			return ((CompactNGramGraph) model).getLevel(n).size();
+		}
+		if (model instanceof MappedModel) {
+			// mapped levels have no empty slots
+			return model.slots(n);
+		}
+		int count = 0;
+		for (int s = 0; s < model.slots(n); ++s) {
+			if (model.keyAt(n, s) != 0) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Creates a scorer over copies of the models 
+	 * pruned to their heaviest edges
+	 * @param maxEdges the maximum number of edges per model
+	 * @return the new scorer
+	 * @see CompactNGramGraph#prune(int)
+	 */
+	public MultiModelScorer pruned(int maxEdges) {
+		CompactNGramGraph[] graphs = new CompactNGramGraph[models.length];
+		for (int m = 0; m < models.length; ++m) {
+			graphs[m] = CompactNGramGraph.copyOf(models[m]);
+			graphs[m].prune(maxEdges);
+		}
+		return new MultiModelScorer(graphs);
+	}
+
+	/**
+	 * Builds the graph of a candidate message with the 
+	 * n-gram parameters of the models
+	 * @param text the text of the message
+	 * @return the candidate graph
+	 */
+	public CompactNGramGraph candidate(CharSequence text) {
+		long t0 = System.nanoTime();
+		CompactNGramGraph g = CompactNGramGraph.fromText(text, minSize, maxSize, window);
+		BUILD_TIME.recordSince(t0);
+		return g;
+	}
+
+	/**
+	 * Builds the graph of a candidate message straight from its file
+	 * @param file the file of the message
+	 * @return the candidate graph
+	 * @throws IOException if the file cannot be read
+	 * @see NGramExtractor
+	 */
+	public CompactNGramGraph candidate(File file) throws IOException {
+		return NGramExtractor.forThread().extract(file, minSize, maxSize, window);
+	}
+
+	/**
+	 * Computes the value similarity of a candidate to every model
+	 * @param cng the candidate graph
+	 * @return the similarities, indexed like the models
+	 */
+	public double[] similarities(CompactNGramGraph cng) {
+		long t0 = System.nanoTime();
+		double[] sims = exactSimilarities(cng);
+		SIMILARITY_TIME.recordSince(t0);
+		return sims;
+	}
+
+	private double[] exactSimilarities(CompactNGramGraph cng) {
+		EdgeIndex index = index();
+		int k = models.length;
+		double[] sims = new double[k];
+		double[] sums = new double[k];
+
+		for (int n = minSize; n <= maxSize; ++n) {
+			EdgeMap edges = cng.getLevel(n);
+			Arrays.fill(sums, 0);
+
+			for (int s = 0; s < edges.capacity(); ++s) {
+				long key = edges.keyAt(s);
+				if (key == 0) {
+					continue;
+				}
+				int slot = index.lookup(n, key);
+				if (slot < 0) {
+					continue;
+				}
+				double w = edges.weightAt(s);
+				for (int p = index.start(n, slot); p < index.end(n, slot); ++p) {
+					double mw = index.weightAt(n, p);
+					if (mw != 0) {
+						sums[index.classAt(n, p)] += CompactNGramGraph.ratio(w, mw);
+					}
+				}
+			}
+
+			for (int m = 0; m < k; ++m) {
+				int maxEdges = Math.max(edges.size(), edgeCounts[m][n - minSize]);
+				if (maxEdges > 0) {
+					sims[m] += n * sums[m] / maxEdges;
+				}
+			}
+		}
+
+		for (int m = 0; m < k; ++m) {
+			sims[m] /= importance;
+		}
+		return sims;
+	}
+
+	/**
+	 * Picks the model most similar to a candidate, with the result of
+	 * {@code argmax(similarities(cng))} but usually without visiting
+	 * all of the candidate's edges.
+	 * @param cng the candidate graph
+	 * @return the index of the winning model
+	 */
+	public int best(CompactNGramGraph cng) {
+		int[] order = new int[models.length];
+		for (int m = 0; m < order.length; ++m) {
+			order[m] = m;
+		}
+		long t0 = System.nanoTime();
+		int winner = bounded(cng, order, null);
+		SIMILARITY_TIME.recordSince(t0);
+		return winner;
+	}
+
+	/**
+	 * Decides whether a candidate is strictly more similar to one model
+	 * than to another, with the result of comparing the corresponding
+	 * {@link #similarities(CompactNGramGraph)} but usually without 
+	 * visiting all of the candidate's edges.
+	 * @param cng the candidate graph
+	 * @param m the index of the first model
+	 * @param other the index of the second model
+	 * @return True if the similarity to the first model is larger 
+	 */
+	public boolean beats(CompactNGramGraph cng, int m, int other) {
+		// ties go to the model listed first
+		long t0 = System.nanoTime();
+		int winner = bounded(cng, new int[] { other, m }, null);
+		SIMILARITY_TIME.recordSince(t0);
+		return winner == m;
+	}
+
+	/**
+	 * Finds the most similar of some models to a candidate, visiting 
+	 * its edges in descending weight order. The value ratio of an edge 
+	 * never exceeds 1 and a model cannot match more edges than it has,
+	 * so every model can gain at most one full match for each unvisited 
+	 * edge, up to its number of unmatched edges; this bounds from above
+	 * what the trailing models can still gain.
+	 * @param cng the candidate graph
+	 * @param order the models to consider; ties go to the one listed first
+	 * @param visited if not null, receives the number of edges visited
+	 * @return the index of the winning model
+	 */
+	int bounded(CompactNGramGraph cng, int[] order, int[] visited) {
+		EdgeIndex index = index();
+		int k = order.length;
+		int ranks = maxSize - minSize + 1;
+
+		// coef[j][i]: contribution of a full match at rank minSize + i
+		double[][] coef = new double[k][ranks];
+		// unmatched[j][i]: edges of model j at that rank not matched yet
+		int[][] unmatched = new int[k][];
+		int[] remaining = new int[ranks];
+		int total = 0;
+		for (int j = 0; j < k; ++j) {
+			unmatched[j] = edgeCounts[order[j]].clone();
+		}
+		for (int i = 0; i < ranks; ++i) {
+			remaining[i] = cng.getLevel(minSize + i).size();
+			total += remaining[i];
+			for (int j = 0; j < k; ++j) {
+				int maxEdges = Math.max(remaining[i], edgeCounts[order[j]][i]);
+				if (maxEdges > 0) {
+					coef[j][i] = (minSize + i) / (importance * maxEdges);
+				}
+			}
+		}
+
+		// inverse of the order, for the postings' classes
+		int[] pos = new int[models.length];
+		Arrays.fill(pos, -1);
+		for (int j = 0; j < k; ++j) {
+			pos[order[j]] = j;
+		}
+
+		double[] low = new double[k];
+		long[] edges = heaviestFirst(cng, total);
+		int count = 0;
+		for (long e: edges) {
+			int i = (int) (e >>> 32);
+			int n = minSize + i;
+			EdgeMap level = cng.getLevel(n);
+			int s = (int) e;
+
+			int slot = index.lookup(n, level.keyAt(s));
+			if (slot >= 0) {
+				double w = level.weightAt(s);
+				for (int p = index.start(n, slot); p < index.end(n, slot); ++p) {
+					int j = pos[index.classAt(n, p)];
+					double mw = index.weightAt(n, p);
+					if (j >= 0 && mw != 0) {
+						low[j] += coef[j][i] * CompactNGramGraph.ratio(w, mw);
+						unmatched[j][i]--;
+					}
+				}
+			}
+			remaining[i]--;
+
+			if (++count % CHECK_INTERVAL == 0 || count == total) {
+				int leader = decided(low, coef, unmatched, remaining);
+				if (leader >= 0) {
+					if (visited != null) {
+						visited[0] = count;
+					}
+					return order[leader];
+				}
+			}
+		}
+
+		// too close to call: compare the exact similarities
+		if (visited != null) {
+			visited[0] = count;
+		}
+		double[] sims = exactSimilarities(cng);
+		int leader = 0;
+		for (int j = 1; j < k; ++j) {
+			if (sims[order[j]] > sims[order[leader]]) {
+				leader = j;
+			}
+		}
+		return order[leader];
+	}
+
+	/**
+	 * @param low the lower bounds of the similarities
+	 * @param coef the contribution of a full match per model and rank
+	 * @param unmatched the unmatched edges per model and rank
+	 * @param remaining the unvisited candidate edges per rank
+	 * @return the index of a model that cannot be overtaken, or -1
+	 */
+	private static int decided(double[] low, double[][] coef, 
+			int[][] unmatched, int[] remaining) {
+		int leader = 0;
+		for (int j = 1; j < low.length; ++j) {
+			if (low[j] > low[leader]) {
+				leader = j;
+			}
+		}
+		for (int j = 0; j < low.length; ++j) {
+			if (j == leader) {
+				continue;
+			}
+			double high = low[j];
+			for (int i = 0; i < remaining.length; ++i) {
+				high += coef[j][i] * Math.min(remaining[i], unmatched[j][i]);
+			}
+			if (low[leader] - high <= MARGIN) {
+				return -1;
+			}
+		}
+		return leader;
+	}
+
+	/**
+	 * Lists the edges of a candidate in descending order of weight,
+	 * bucketed by binary exponent so that ordering stays linear.
+	 * @param cng the candidate graph
+	 * @param total the number of edges of the candidate
+	 * @return the edges, each packed as (rank offset << 32 | slot)
+	 */
+	private long[] heaviestFirst(CompactNGramGraph cng, int total) {
+		final int buckets = 32;
+		int[] starts = new int[buckets + 1];
+		for (int n = minSize; n <= maxSize; ++n) {
+			EdgeMap level = cng.getLevel(n);
+			for (int s = 0; s < level.capacity(); ++s) {
+				if (level.keyAt(s) != 0) {
+					starts[bucket(level.weightAt(s), buckets) + 1]++;
+				}
+			}
+		}
+		for (int b = 0; b < buckets; ++b) {
+			starts[b + 1] += starts[b];
+		}
+
+		long[] edges = new long[total];
+		for (int n = minSize; n <= maxSize; ++n) {
+			EdgeMap level = cng.getLevel(n);
+			for (int s = 0; s < level.capacity(); ++s) {
+				if (level.keyAt(s) != 0) {
+					int b = bucket(level.weightAt(s), buckets);
+					edges[starts[b]++] = ((long) (n - minSize) << 32) | s;
+				}
+			}
+		}
+		return edges;
+	}
+
+	private static int bucket(double w, int buckets) {
+		int exp = Math.max(0, Math.min(buckets - 1, Math.getExponent(w)));
+		return buckets - 1 - exp;
+	}
+
+	/**
+	 * Picks the model with the largest similarity; ties go to
+	 * the model with the lowest index
+	 * @param sims a vector of similarities
+	 * @return the index of the winning model
+	 */
+	public static int argmax(double[] sims) {
+		int best = 0;
+		for (int m = 1; m < sims.length; ++m) {
+			if (sims[m] > sims[best]) {
+				best = m;
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,332 @@
+/*
+This file is part of nggSpamFilter.
+
+nggSpamFilter is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+nggSpamFilter is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with nggSpamFilter.  If not, see <http://www.gnu.org/licenses/>.
+
+Copyright (C) Vasileios Charisopoulos, 2015
+
+*/
+
+package gr.demokritos.dataTools;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builds compact n-gram graphs straight from file bytes. A file is 
+ * read into a reused buffer by {@link CorpusReader#read}, decoded 
+ * into a reused char array with an ASCII/UTF-8 fast path while 
+ * line breaks are normalized the way 
+ * {@link CompactNGramGraph#loadText(String)} (and JInsect's
+ * loadDataStringFromFile) does, and the edges are emitted into the 
+ * graph with rolling n-gram keys; no objects are created per n-gram 
+ * or per line. Input that is not valid UTF-8, or a default charset
+ * other than UTF-8, goes through the JDK decoder instead, so the text 
+ * always matches that of a reader in the same charset.
+ * 
+ * An extractor is not thread-safe; use {@link #forThread()} to get
+ * the calling thread's one. A platform thread keeps its extractor, with
+ * a 64 KiB direct buffer that it reuses for every file. A virtual thread
+ * usually reads a single file, so it gets a fresh extractor whose heap
+ * buffers are only as large as the files it reads.
+ * 
+ * Examples:
+ * 		CompactNGramGraph g = NGramExtractor.forThread().extract(file, 3, 3, 3);
+ * 
+ * @author VHarisop
+ *
+ */
+public class NGramExtractor {
+
+	private static final ThreadLocal<NGramExtractor> extractors = 
+		new ThreadLocal<NGramExtractor>() {
+			@Override
+			protected NGramExtractor initialValue() {
+				return new NGramExtractor();
+			}
+		};
+	
+	// Thread.isVirtual, or null before Java 21
+	private static final Method IS_VIRTUAL = isVirtualMethod();
+	
+	private static final MetricsRegistry.Histogram BUILD_TIME = 
+		MetricsRegistry.get().histogram(MetricsRegistry.BUILD);
+
+	// the charset of the files, that of a FileReader by default
+	private final Charset charset;
+	private final boolean utf8;
+
+	private ByteBuffer bytes;
+	private char[] chars;
+	private int length = 0;
+
+	/**
+	 * Creates an extractor for files in the default charset
+	 */
+	public NGramExtractor() {
+		this(Charset.defaultCharset());
+	}
+
+	/**
+	 * Creates an extractor for files in a given charset
+	 * @param charset the charset of the files
+	 */
+	public NGramExtractor(Charset charset) {
+		this(charset, true);
+	}
+
+	/**
+	 * Creates an extractor for files in a given charset
+	 * @param charset the charset of the files
+	 * @param reused True for buffers meant to be reused across files 
+	 * 		  (64 KiB, direct), false for heap buffers sized to the files
+	 */
+	NGramExtractor(Charset charset, boolean reused) {
+		this.charset = charset;
+		utf8 = charset.equals(StandardCharsets.UTF_8);
+		bytes = reused ? ByteBuffer.allocateDirect(1 << 16) : ByteBuffer.allocate(0);
+		chars = new char[reused ? 1 << 16 : 0];
+	}
+
+	/**
+	 * @return the extractor of the calling thread, 
+	 * 		   for files in the default charset
+	 */
+	public static NGramExtractor forThread() {
+		if (onVirtualThread()) {
+			return new NGramExtractor(Charset.defaultCharset(), false);
+		}
+		return extractors.get();
+	}
+
+	private static Method isVirtualMethod() {
+		try {
+			return Thread.class.getMethod("isVirtual");
+		}
+		catch (NoSuchMethodException ex) {
+			return null;
+		}
+	}
+
+	private static boolean onVirtualThread() {
+		if (IS_VIRTUAL == null) {
+			return false;
+		}
+		try {
+			return (Boolean) IS_VIRTUAL.invoke(Thread.currentThread());
+		}
+		catch (ReflectiveOperationException ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * Builds the graph of a file
+	 * @param file the file to read
+	 * @param minSize the minimum n-gram rank
+	 * @param maxSize the maximum n-gram rank
+	 * @param window the neighbourhood window
+	 * @return the graph of the file
+	 * @throws IOException if the file cannot be read
+	 */
+	public CompactNGramGraph extract(File file, int minSize, int maxSize, int window) 
+		throws IOException 
+	{
+		CompactNGramGraph g = new CompactNGramGraph(minSize, maxSize, window);
+		addTo(g, file);
+		return g;
+	}
+
+	/**
+	 * Builds the graph of encoded text, e.g. a mapped file
+	 * @param buf the bytes of the text, from its position to its limit
+	 * @param minSize the minimum n-gram rank
+	 * @param maxSize the maximum n-gram rank
+	 * @param window the neighbourhood window
+	 * @return the graph of the text
+	 */
+	public CompactNGramGraph extract(ByteBuffer buf, int minSize, int maxSize, int window) {
+		long t0 = System.nanoTime();
+		CompactNGramGraph g = new CompactNGramGraph(minSize, maxSize, window);
+		decode(buf);
+		g.addChars(chars, length);
+		BUILD_TIME.recordSince(t0);
+		return g;
+	}
+
+	/**
+	 * Adds the edges of a file to a graph
+	 * @param g the graph to add to
+	 * @param file the file to read
+	 * @throws IOException if the file cannot be read
+	 */
+	public void addTo(CompactNGramGraph g, File file) throws IOException {
+		read(file);
+		long t0 = System.nanoTime();
+		g.addChars(chars, length);
+		BUILD_TIME.recordSince(t0);
+	}
+
+	/**
+	 * Reads a file into a string, with the line breaks of 
+	 * {@link CompactNGramGraph#loadText(String)}
+	 * @param file the file to read
+	 * @return the text of the file
+	 * @throws IOException if the file cannot be read
+	 */
+	public String readText(File file) throws IOException {
+		read(file);
+		return new String(chars, 0, length);
+	}
+
+	/**
+	 * Reads and decodes a file into the char buffer
+	 */
+	private void read(File file) throws IOException {
+		bytes = CorpusReader.read(file, bytes);
+		decode(bytes);
+	}
+
+	/**
+	 * Decodes bytes into the char buffer, normalizing line breaks
+	 * @param buf the bytes, from its position to its limit
+	 */
+	void decode(ByteBuffer buf) {
+		// UTF-8 never needs more chars than bytes; one more for the last '\n'
+		if (chars.length < buf.remaining() + 1) {
+			chars = new char[buf.remaining() + 1];
+		}
+		if (!utf8 || !decodeUtf8(buf)) {
+			decodeSlow(buf);
+		}
+	}
+
+	/**
+	 * The fast path: decodes well-formed UTF-8
+	 * @return false if the input is not well-formed UTF-8
+	 */
+	private boolean decodeUtf8(ByteBuffer buf) {
+		char[] out = chars;
+		int len = 0;
+		boolean afterCr = false;
+		
+		int pos = buf.position(), lim = buf.limit();
+		while (pos < lim) {
+			int b = buf.get(pos++);
+			if (b >= 0) {
+				// ASCII, including line breaks
+				if (b == '\n' && afterCr) {
+					afterCr = false;
+					continue;
+				}
+				afterCr = (b == '\r');
+				out[len++] = (b == '\r') ? '\n' : (char) b;
+				continue;
+			}
+			afterCr = false;
+
+			int c, extra;
+			if ((b & 0xE0) == 0xC0) {
+				c = b & 0x1F; extra = 1;
+			}
+			else if ((b & 0xF0) == 0xE0) {
+				c = b & 0x0F; extra = 2;
+			}
+			else if ((b & 0xF8) == 0xF0) {
+				c = b & 0x07; extra = 3;
+			}
+			else {
+				return false;
+			}
+			if (pos + extra > lim) {
+				return false;
+			}
+			for (int i = 0; i < extra; ++i) {
+				int cont = buf.get(pos++);
+				if ((cont & 0xC0) != 0x80) {
+					return false;
+				}
+				c = (c << 6) | (cont & 0x3F);
+			}
+
+			// reject overlong forms, surrogates and out of range code points
+			if ((extra == 1 && c < 0x80) || (extra == 2 && c < 0x800) 
+					|| (extra == 3 && (c < 0x10000 || c > 0x10FFFF))
+					|| (c >= 0xD800 && c <= 0xDFFF)) {
+				return false;
+			}
+			if (c >= 0x10000) {
+				out[len++] = Character.highSurrogate(c);
+				out[len++] = Character.lowSurrogate(c);
+			}
+			else {
+				out[len++] = (char) c;
+			}
+		}
+		length = terminate(out, len);
+		return true;
+	}
+
+	/**
+	 * The slow path: decodes with the JDK decoder of the charset, 
+	 * replacing malformed input like a FileReader does
+	 */
+	private void decodeSlow(ByteBuffer buf) {
+		CharBuffer cb;
+		try {
+			cb = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE)
+				.decode(buf.duplicate());
+		}
+		catch (IOException ex) {
+			// cannot happen with REPLACE
+			throw new IllegalStateException(ex);
+		}
+		if (chars.length < cb.remaining() + 1) {
+			chars = new char[cb.remaining() + 1];
+		}
+		
+		char[] out = chars;
+		int len = 0;
+		boolean afterCr = false;
+		while (cb.hasRemaining()) {
+			char c = cb.get();
+			if (c == '\n' && afterCr) {
+				afterCr = false;
+				continue;
+			}
+			afterCr = (c == '\r');
+			out[len++] = (c == '\r') ? '\n' : c;
+		}
+		length = terminate(out, len);
+	}
+
+	/**
+	 * Terminates a non-empty last line with '\n'
+	 * @return the new length
+	 */
+	private static int terminate(char[] out, int len) {
+		if (len > 0 && out[len - 1] != '\n') {
+			out[len++] = '\n';
+		}
+		return len;
+	}
+}
@@ -0,0 +1,84 @@
+/*
+This file is part of nggSpamFilter.
+
+nggSpamFilter is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+nggSpamFilter is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with nggSpamFilter.  If not, see <http://www.gnu.org/licenses/>.
+
+Copyright (C) Vasileios Charisopoulos, 2015
+
+*/
+
+package gr.demokritos.dataTools;
+
+/**
+ * Read-only access to a class model: its n-gram parameters and 
+ * the weight of every packed edge, per n-gram rank. Implemented by
+ * in-memory graphs and by models mapped from disk.
+ * @author VHarisop
+ *
+ */
+public interface NGramModel {
+
+	/**
+	 * @return the minimum n-gram rank
+	 */
+	int getMinSize();
+
+	/**
+	 * @return the maximum n-gram rank
+	 */
+	int getMaxSize();
+
+	/**
+	 * @return the neighbourhood window
+	 */
+	int getWindowSize();
+
+	/**
+	 * @param n an n-gram rank
+	 * @return the number of edges of the given rank, including any
+	 * 		   edges pruned from the model; this is the count that 
+	 * 		   normalizes similarities
+	 */
+	int edgeCount(int n);
+
+	/**
+	 * Looks up the weight of an edge
+	 * @param n the n-gram rank of the edge
+	 * @param key the packed edge key
+	 * @param missing the value to return if the edge is absent
+	 * @return the weight of the edge, or {@code missing}
+	 */
+	double weight(int n, long key, double missing);
+
+	/**
+	 * @param n an n-gram rank
+	 * @return the number of edge slots of the given rank, for iterating 
+	 * 		   with {@link #keyAt(int, int)} and {@link #weightAt(int, int)}
+	 */
+	int slots(int n);
+
+	/**
+	 * @param n an n-gram rank
+	 * @param slot a slot index
+	 * @return the edge key in the slot, or 0 if the slot is empty
+	 */
+	long keyAt(int n, int slot);
+
+	/**
+	 * @param n an n-gram rank
+	 * @param slot a slot index
+	 * @return the weight of the edge in the slot
+	 */
+	double weightAt(int n, int slot);
+}
@@ -0,0 +1,329 @@
+/*
+This file is part of nggSpamFilter.
+
+nggSpamFilter is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+nggSpamFilter is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with nggSpamFilter.  If not, see <http://www.gnu.org/licenses/>.
+
+Copyright (C) Vasileios Charisopoulos, 2015
+
+*/
+
+package gr.demokritos.dataTools;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A front cache for a {@link Scorer} that reuses the verdict of a 
+ * recently scored near-duplicate message. Every message gets a MinHash
+ * signature over its character shingles (one-permutation hashing, so a
+ * single hash per shingle); signatures are banded for locality-sensitive
+ * lookup, and a cached verdict is returned when the estimated Jaccard 
+ * similarity of the shingle sets reaches a threshold. Other messages are
+ * scored by the wrapped scorer and cached.
+ * 
+ * The cache holds a bounded number of entries, evicted in least recently
+ * used order, and entries expire after a time to live. It is safe to use
+ * from several threads. Every {@link #clear()} starts a new generation:
+ * a verdict is only cached if no clear happened while it was scored, so
+ * a message scored against old models cannot outlive them.
+ * 
+ * Examples:
+ * 		Scorer cached = new NearDuplicateCache(clf, 10000, 600000, 0.9);
+ * 		Verdict v = cached.score(text);
+ * 
+ * @author VHarisop
+ *
+ */
+public class NearDuplicateCache implements Scorer {
+
+	/** Characters per shingle */
+	public static final int SHINGLE = 5;
+	/** Number of LSH bands */
+	public static final int BANDS = 16;
+	/** Signature values per band */
+	public static final int ROWS = 4;
+	
+	private static final int SIGNATURE = BANDS * ROWS;
+
+	private final Scorer scorer;
+	private final int maxEntries;
+	private final long ttlMillis;
+	private final double threshold;
+
+	/**
+	 * A cached verdict
+	 */
+	private static class CachedVerdict {
+		final long id;
+		final long generation;
+		final int[] signature;
+		final Verdict verdict;
+		final long created;
+
+		CachedVerdict(long id, long generation, int[] signature, Verdict verdict, long created) {
+			this.id = id;
+			this.generation = generation;
+			this.signature = signature;
+			this.verdict = verdict;
+			this.created = created;
+		}
+	}
+
+	// entries by id, in access order for LRU eviction
+	private final LinkedHashMap<Long, CachedVerdict> entries;
+	// band hash to the latest entry with that band
+	private final HashMap<Long, Long> bands = new HashMap<Long, Long>();
+	private long nextId = 0;
+	// bumped by every clear()
+	private long generation = 0;
+	private long hits = 0, misses = 0;
+
+	/**
+	 * Creates a near-duplicate cache in front of a scorer
+	 * @param scorer the scorer to use on cache misses
+	 * @param maxEntries the maximum number of cached verdicts
+	 * @param ttlMillis the time to live of a cached verdict, in ms
+	 * @param threshold the minimum estimated Jaccard similarity of 
+	 * 		  the shingle sets for a cached verdict to be reused
+	 */
+	public NearDuplicateCache(Scorer scorer, final int maxEntries, 
+			long ttlMillis, double threshold) {
+		this.scorer = scorer;
+		this.maxEntries = maxEntries;
+		this.ttlMillis = ttlMillis;
+		this.threshold = threshold;
+		
+		entries = new LinkedHashMap<Long, CachedVerdict>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, CachedVerdict> eldest) {
+				if (size() > NearDuplicateCache.this.maxEntries) {
+					unindex(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	public String[] getLabels() {
+		return scorer.getLabels();
+	}
+
+	/**
+	 * Returns the verdict of a cached near-duplicate of a message,
+	 * or scores the message with the wrapped scorer
+	 * @param text the text of the message
+	 * @return the verdict for the message
+	 */
+	public Verdict score(String text) {
+		int[] sig = signature(CompactNGramGraph.normalizeText(text));
+		
+		long gen = generation();
+		Verdict cached = lookup(sig);
+		if (cached != null) {
+			return cached;
+		}
+		
+		Verdict v = scorer.score(text);
+		insert(sig, gen, v);
+		return v;
+	}
+
+	private synchronized long generation() {
+		return generation;
+	}
+
+	private synchronized Verdict lookup(int[] sig) {
+		long now = System.currentTimeMillis();
+		CachedVerdict best = null;
+		double bestSim = threshold;
+		
+		for (int b = 0; b < BANDS; ++b) {
+			Long id = bands.get(bandKey(sig, b));
+			CachedVerdict e = (id == null) ? null : entries.get(id);
+			if (e == null || e.generation != generation) {
+				continue;
+			}
+			if (now - e.created > ttlMillis) {
+				entries.remove(e.id);
+				unindex(e);
+				continue;
+			}
+			double sim = similarity(sig, e.signature);
+			if (sim >= bestSim) {
+				best = e;
+				bestSim = sim;
+			}
+		}
+		
+		if (best == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return best.verdict;
+	}
+
+	/**
+	 * Caches a verdict, unless the cache was cleared since the 
+	 * generation it was scored in
+	 */
+	private synchronized void insert(int[] sig, long gen, Verdict v) {
+		if (gen != generation) {
+			return;
+		}
+		CachedVerdict e = new CachedVerdict(nextId++, gen, sig, v, System.currentTimeMillis());
+		entries.put(e.id, e);
+		for (int b = 0; b < BANDS; ++b) {
+			bands.put(bandKey(sig, b), e.id);
+		}
+	}
+
+	/**
+	 * Removes the band entries that still point to an entry
+	 */
+	private void unindex(CachedVerdict e) {
+		for (int b = 0; b < BANDS; ++b) {
+			Long key = bandKey(e.signature, b);
+			Long id = bands.get(key);
+			if (id != null && id == e.id) {
+				bands.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Drops all cached verdicts, e.g. when the models change
+	 */
+	public synchronized void clear() {
+		generation++;
+		entries.clear();
+		bands.clear();
+	}
+
+	/**
+	 * Drops the cached verdicts older than the time to live
+	 */
+	public synchronized void expire() {
+		long now = System.currentTimeMillis();
+		Iterator<CachedVerdict> it = entries.values().iterator();
+		while (it.hasNext()) {
+			CachedVerdict e = it.next();
+			if (now - e.created > ttlMillis) {
+				unindex(e);
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of cached verdicts
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the number of messages answered from the cache
+	 */
+	public synchronized long hits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of messages passed to the wrapped scorer
+	 */
+	public synchronized long misses() {
+		return misses;
+	}
+
+	/**
+	 * @return the fraction of messages answered from the cache
+	 */
+	public synchronized double hitRate() {
+		long total = hits + misses;
+		return (total == 0) ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * Computes the one-permutation MinHash signature of the 
+	 * character shingles of a text. Empty bins borrow the value of
+	 * the next non-empty bin, so that short texts still compare.
+	 * @param text the normalized text
+	 * @return the signature
+	 */
+	static int[] signature(CharSequence text) {
+		int[] sig = new int[SIGNATURE];
+		boolean[] filled = new boolean[SIGNATURE];
+		
+		int n = Math.min(SHINGLE, text.length());
+		for (int i = 0; i + n <= text.length() && n > 0; ++i) {
+			long h = mix(CompactNGramGraph.ngramKey(text, i, n));
+			int bin = (int) ((h >>> 32) % SIGNATURE);
+			int value = (int) h;
+			if (!filled[bin] || value < sig[bin]) {
+				sig[bin] = value;
+				filled[bin] = true;
+			}
+		}
+
+		// densify: empty bins take the next filled bin's value
+		for (int b = 0; b < SIGNATURE; ++b) {
+			if (!filled[b]) {
+				for (int d = 1; d < SIGNATURE; ++d) {
+					int src = (b + d) % SIGNATURE;
+					if (filled[src]) {
+						sig[b] = sig[src] + d;
+						break;
+					}
+				}
+			}
+		}
+		return sig;
+	}
+
+	/**
+	 * @return the estimated Jaccard similarity of two signatures
+	 */
+	static double similarity(int[] a, int[] b) {
+		int same = 0;
+		for (int i = 0; i < SIGNATURE; ++i) {
+			if (a[i] == b[i]) {
+				same++;
+			}
+		}
+		return (double) same / SIGNATURE;
+	}
+
+	private static long bandKey(int[] sig, int band) {
+		long h = band;
+		for (int r = 0; r < ROWS; ++r) {
+			h = mix(h * 31 + sig[band * ROWS + r]);
+		}
+		return h;
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
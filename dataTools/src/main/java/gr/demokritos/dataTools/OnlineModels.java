@@ -0,0 +1,287 @@
+/*
+This file is part of nggSpamFilter.
+
+nggSpamFilter is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+nggSpamFilter is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with nggSpamFilter.  If not, see <http://www.gnu.org/licenses/>.
+
+Copyright (C) Vasileios Charisopoulos, 2015
+
+*/
+
+package gr.demokritos.dataTools;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Class models that can absorb new labelled documents online. For 
+ * every class it keeps the exact edge-weight sums of all documents 
+ * seen and their count, and publishes noise-free mean models for 
+ * scoring. Learning a document only adds it to the sums of its class;
+ * every {@code batchSize} documents the maximal common subgraph (noise)
+ * is refreshed incrementally, by checking only the edges touched since
+ * the last refresh, and the models of the classes that learned new 
+ * documents are published again. Rebuilding a mean model copies the 
+ * whole class, so a batch size of 1 (publish every document) is only
+ * sensible for small models. Published models are pruned to the same
+ * edge budget as the models they replace.
+ * 
+ * The sums must be exact, e.g. those of {@link #sumOf}: JInsect's 
+ * mergeGraph does not compute a mean (see {@link FoldModels}), so 
+ * scaling a model built by Modeller by its document count would give
+ * learned documents the wrong weight.
+ * 
+ * Scoring threads get immutable snapshots through {@link #getModels()};
+ * learning never modifies a published model.
+ * @author VHarisop
+ *
+ */
+public class OnlineModels {
+
+	private final CompactNGramGraph[] sums;
+	private final long[] counts;
+	private final int batchSize;
+	private final int maxEdges;
+
+	// edges common to all classes, per rank, used as a set
+	private final EdgeMap[] noise;
+	// edges learned since the last noise refresh, per rank
+	private final EdgeMap[] dirty;
+	private int pending;
+	// classes that learned documents since the last publication
+	private final boolean[] touched;
+
+	private volatile CompactNGramGraph[] models;
+
+	/**
+	 * Creates online models from the exact edge-weight sums of the 
+	 * documents of every class and the number of those documents
+	 * @param sums the sum of the document graphs of every class
+	 * @param counts the number of documents of every class
+	 * @param batchSize the number of learned documents between 
+	 * 		  publications of new models
+	 * @param maxEdges the maximum number of edges of a published
+	 * 		  model, or 0 for no pruning
+	 * @see CompactNGramGraph#prune(int)
+	 */
+	public OnlineModels(CompactNGramGraph[] sums, long[] counts, int batchSize, 
+			int maxEdges) 
+	{
+		this.counts = counts.clone();
+		this.batchSize = Math.max(1, batchSize);
+		this.maxEdges = maxEdges;
+		touched = new boolean[sums.length];
+
+		this.sums = new CompactNGramGraph[sums.length];
+		for (int i = 0; i < sums.length; ++i) {
+			this.sums[i] = new CompactNGramGraph(sums[i]);
+		}
+
+		CompactNGramGraph first = sums[0];
+		int numLevels = first.getMaxSize() - first.getMinSize() + 1;
+		noise = new EdgeMap[numLevels];
+		dirty = new EdgeMap[numLevels];
+		for (int i = 0; i < numLevels; ++i) {
+			noise[i] = new EdgeMap();
+			dirty[i] = new EdgeMap();
+			
+			// the initial noise is every edge present in all classes
+			int n = first.getMinSize() + i;
+			EdgeMap edges = first.getLevel(n);
+			for (int s = 0; s < edges.capacity(); ++s) {
+				long key = edges.keyAt(s);
+				if (key != 0 && inAll(n, key)) {
+					noise[i].put(key, 0);
+				}
+			}
+		}
+
+		CompactNGramGraph[] init = new CompactNGramGraph[sums.length];
+		for (int i = 0; i < sums.length; ++i) {
+			init[i] = meanModel(i);
+		}
+		models = init;
+	}
+
+	/**
+	 * Sums the compact graphs of a set of documents exactly, for 
+	 * seeding the models of a class. A document that cannot be read
+	 * adds nothing to the sum, as an empty document would.
+	 * @param files the documents of the class
+	 * @param minSize the minimum n-gram rank
+	 * @param maxSize the maximum n-gram rank
+	 * @param window the neighbourhood window
+	 * @return the sum of the document graphs
+	 */
+	public static CompactNGramGraph sumOf(File[] files, int minSize, 
+			int maxSize, int window) 
+	{
+		CompactNGramGraph sum = new CompactNGramGraph(minSize, maxSize, window);
+		
+		// one document graph, refilled for every file
+		CompactNGramGraph doc = new CompactNGramGraph(minSize, maxSize, window);
+		NGramExtractor extractor = NGramExtractor.forThread();
+		for (File f: files) {
+			doc.clear();
+			try {
+				extractor.addTo(doc, f);
+			}
+			catch (IOException ex) {
+				ex.printStackTrace();
+				continue;
+			}
+			sum.addGraph(doc, 1.0);
+		}
+		return sum;
+	}
+
+	/**
+	 * @return the current noise-free models, one per class
+	 */
+	public CompactNGramGraph[] getModels() {
+		return models;
+	}
+
+	/**
+	 * @param label the index of a class
+	 * @return the number of documents the class model averages
+	 */
+	public synchronized long getCount(int label) {
+		return counts[label];
+	}
+
+	/**
+	 * Merges a new document into the sums of its class, and publishes 
+	 * new models once {@code batchSize} documents are pending
+	 * @param doc the compact graph of the document
+	 * @param label the index of the document's class
+	 * @return True if new models were published
+	 */
+	public synchronized boolean learn(CompactNGramGraph doc, int label) {
+		sums[label].addGraph(doc, 1.0);
+		counts[label]++;
+
+		for (int n = doc.getMinSize(); n <= doc.getMaxSize(); ++n) {
+			EdgeMap edges = doc.getLevel(n);
+			for (int s = 0; s < edges.capacity(); ++s) {
+				if (edges.keyAt(s) != 0) {
+					dirty[n - doc.getMinSize()].put(edges.keyAt(s), 0);
+				}
+			}
+		}
+
+		touched[label] = true;
+		if (++pending < batchSize) {
+			return false;
+		}
+
+		CompactNGramGraph[] next = models.clone();
+		refreshNoise(next);
+		for (int c = 0; c < next.length; ++c) {
+			if (touched[c]) {
+				next[c] = meanModel(c);
+				touched[c] = false;
+			}
+		}
+		models = next;
+		return true;
+	}
+
+	/**
+	 * Moves every dirty edge that is now present in all classes to the
+	 * noise set and drops it from the published models of the classes
+	 * that learned nothing; the other classes are rebuilt anyway. Each
+	 * such model is copied at most once per refresh.
+	 * @param next the models to publish, updated in place
+	 */
+	private void refreshNoise(CompactNGramGraph[] next) {
+		int minSize = sums[0].getMinSize();
+		
+		// the edges that became noise in this refresh, per rank
+		EdgeMap[] fresh = new EdgeMap[dirty.length];
+		boolean found = false;
+		for (int i = 0; i < dirty.length; ++i) {
+			EdgeMap d = dirty[i];
+			fresh[i] = new EdgeMap();
+			for (int s = 0; s < d.capacity(); ++s) {
+				long key = d.keyAt(s);
+				if (key == 0 || noise[i].contains(key) || !inAll(minSize + i, key)) {
+					continue;
+				}
+				noise[i].put(key, 0);
+				fresh[i].put(key, 0);
+				found = true;
+			}
+			d.clear();
+		}
+		pending = 0;
+		if (!found) {
+			return;
+		}
+
+		for (int c = 0; c < next.length; ++c) {
+			if (touched[c]) {
+				continue;
+			}
+			CompactNGramGraph copy = null;
+			for (int i = 0; i < fresh.length; ++i) {
+				EdgeMap f = fresh[i];
+				for (int s = 0; s < f.capacity(); ++s) {
+					long key = f.keyAt(s);
+					if (key == 0 || !next[c].getLevel(minSize + i).contains(key)) {
+						continue;
+					}
+					if (copy == null) {
+						copy = new CompactNGramGraph(next[c]);
+						next[c] = copy;
+					}
+					copy.getLevel(minSize + i).remove(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Builds the published model of a class: the mean of its 
+	 * documents without the noise edges, pruned to the edge budget
+	 */
+	private CompactNGramGraph meanModel(int label) {
+		CompactNGramGraph sum = sums[label];
+		CompactNGramGraph mdl = new CompactNGramGraph(sum.getMinSize(), 
+				sum.getMaxSize(), sum.getWindowSize());
+		
+		for (int n = sum.getMinSize(); n <= sum.getMaxSize(); ++n) {
+			EdgeMap src = sum.getLevel(n), dst = mdl.getLevel(n);
+			EdgeMap nz = noise[n - sum.getMinSize()];
+			for (int s = 0; s < src.capacity(); ++s) {
+				long key = src.keyAt(s);
+				if (key != 0 && !nz.contains(key)) {
+					dst.put(key, src.weightAt(s) / counts[label]);
+				}
+			}
+		}
+		if (maxEdges > 0) {
+			mdl.prune(maxEdges);
+		}
+		return mdl;
+	}
+
+	private boolean inAll(int n, long key) {
+		for (CompactNGramGraph g: sums) {
+			if (!g.getLevel(n).contains(key)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,600 @@
+/*
+This file is part of nggSpamFilter.
+
+nggSpamFilter is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+nggSpamFilter is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with nggSpamFilter.  If not, see <http://www.gnu.org/licenses/>.
+
+Copyright (C) Vasileios Charisopoulos, 2015
+
+*/
+
+package gr.demokritos.dataTools;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A three-stage pipeline over a list of documents: every file is read,
+ * then built into a graph, then scored or merged. Every stage runs on 
+ * its own thread pool and hands its results to the next stage through 
+ * a bounded queue, so a slow stage holds up the ones before it instead
+ * of letting documents pile up in memory, while disk and CPU work on 
+ * different documents at the same time. The threads of a stage take
+ * documents one at a time from its shared queue, so the load balances
+ * itself as with work stealing: whoever is done with a small document
+ * takes the next one, and no thread owns a fixed slice of the corpus.
+ * 
+ * Every stage keeps metrics: the documents it processed and failed, 
+ * its busy time and the depth of its input queue. A document a stage
+ * fails on with an exception is reported and dropped; the rest of the 
+ * run carries on, and {@link #dropped} lists the documents that never
+ * reached the sink, so callers can fill their slots. An Error (e.g. running out of memory) stops every 
+ * stage instead, and {@link #run} rethrows it.
+ * 
+ * For corpora on high-latency storage, files can instead be read one 
+ * per task on virtual threads (Java 21+, platform threads otherwise), 
+ * with a cap on the reads in flight, while graph building and scoring 
+ * stay on fixed pools of platform threads.
+ * 
+ * Examples:
+ * 		Pipeline<String, CompactNGramGraph> p = new Pipeline<>(2, 4, 1, 16);
+ * 		p.run(files, readText, buildGraph, mergeGraph);
+ * 		System.out.println(p.report());
+ * 
+ * @author VHarisop
+ *
+ * @param <T> the type of a read document
+ * @param <G> the type of a built graph
+ */
+public class Pipeline<T, G> {
+
+	/**
+	 * A transformation applied to every document by a stage;
+	 * a null result drops the document
+	 */
+	public interface Stage<A, B> {
+		B apply(A in) throws Exception;
+	}
+	
+	/**
+	 * The last stage, which consumes every graph along with the 
+	 * index of its document in the input
+	 */
+	public interface Sink<G> {
+		void accept(int index, G item) throws Exception;
+	}
+
+	/** The names of the stages, in order */
+	public static final String[] STAGES = { "read", "build", "score" };
+
+	// marks the end of the input of a stage
+	private static final Item POISON = new Item(-1, null);
+
+	private final int[] threads;
+	private final int capacity;
+	private final boolean perFileReads;
+	private volatile Metrics[] metrics;
+	private volatile AtomicIntegerArray reached = new AtomicIntegerArray(0);
+
+	/**
+	 * Creates a pipeline
+	 * @param readers the number of threads reading files
+	 * @param builders the number of threads building graphs
+	 * @param sinks the number of threads scoring or merging graphs
+	 * @param capacity the capacity of each queue between stages
+	 */
+	public Pipeline(int readers, int builders, int sinks, int capacity) {
+		this(readers, builders, sinks, capacity, false);
+	}
+
+	/**
+	 * Creates a pipeline that may read every file on its own thread
+	 * @param readers the number of threads reading files, or the 
+	 * 		  number of reads in flight if {@code perFileReads} is set
+	 * @param builders the number of threads building graphs
+	 * @param sinks the number of threads scoring or merging graphs
+	 * @param capacity the capacity of each queue between stages
+	 * @param perFileReads read every file on a new virtual thread
+	 * @see #hasVirtualThreads()
+	 */
+	public Pipeline(int readers, int builders, int sinks, int capacity, 
+			boolean perFileReads) 
+	{
+		this.perFileReads = perFileReads;
+		this.threads = new int[] { 
+			Math.max(1, readers), Math.max(1, builders), Math.max(1, sinks)
+		};
+		this.capacity = Math.max(1, capacity);
+		this.metrics = newMetrics(null, null, null);
+	}
+
+	/**
+	 * Runs every file through the stages and waits until all of them 
+	 * have reached the sink. A pipeline runs one set of files at a time.
+	 * @param files the documents
+	 * @param read reads a document
+	 * @param build builds the graph of a read document
+	 * @param sink scores or merges the graph of a document
+	 * @throws InterruptedException if the calling thread is interrupted,
+	 * 		   in which case all stages are stopped
+	 * @throws Error the first Error thrown by a stage, after all 
+	 * 		   stages are stopped
+	 */
+	public synchronized void run(final File[] files, final Stage<File, T> read,
+			final Stage<T, G> build, final Sink<G> sink) throws InterruptedException
+	{
+		final BlockingQueue<Item> toBuild = new ArrayBlockingQueue<Item>(capacity);
+		final BlockingQueue<Item> toSink = new ArrayBlockingQueue<Item>(capacity);
+		final AtomicInteger next = new AtomicInteger();
+		final Metrics[] m = newMetrics(files, toBuild, toSink);
+		final AtomicIntegerArray sunk = new AtomicIntegerArray(files.length);
+		metrics = m;
+		reached = sunk;
+
+		// the last worker of a stage ends the input of the next one
+		final AtomicInteger[] running = new AtomicInteger[3];
+		for (int s = 0; s < 3; ++s) {
+			running[s] = new AtomicInteger(threads[s]);
+		}
+		final ExecutorService[] pools = new ExecutorService[3];
+		for (int s = 0; s < 3; ++s) {
+			pools[s] = (s == 0 && perFileReads) 
+				? newPerTaskExecutor(STAGES[s])
+				: Executors.newFixedThreadPool(threads[s], namedThreads(STAGES[s]));
+		}
+
+		// the first error of a worker, which stops the run
+		final AtomicReference<Throwable> fatal = new AtomicReference<Throwable>();
+		final Thread caller = Thread.currentThread();
+
+		// start the consumers first, so readers never wait on idle stages
+		long start = System.nanoTime();
+		for (int t = 0; t < threads[1]; ++t) {
+			pools[1].execute(new Runnable() {
+				@SuppressWarnings("unchecked")
+				public void run() {
+					try {
+						for (Item it = toBuild.take(); it != POISON; it = toBuild.take()) {
+							G g = m[1].time(build, (T) it.value);
+							if (g != null) {
+								m[2].offer(toSink, new Item(it.index, g));
+							}
+						}
+					}
+					catch (InterruptedException ex) { stopped(); }
+					catch (Throwable ex) { abort(ex, fatal, pools, caller); }
+					finally {
+						finish(running[1], toSink, threads[2]);
+					}
+				}
+			});
+		}
+		for (int t = 0; t < threads[2]; ++t) {
+			pools[2].execute(new Runnable() {
+				@SuppressWarnings("unchecked")
+				public void run() {
+					try {
+						for (Item it = toSink.take(); it != POISON; it = toSink.take()) {
+							sunk.set(it.index, 1);
+							m[2].consume(sink, it.index, (G) it.value);
+						}
+					}
+					catch (InterruptedException ex) { stopped(); }
+					catch (Throwable ex) { abort(ex, fatal, pools, caller); }
+					finally {
+						running[2].decrementAndGet();
+					}
+				}
+			});
+		}
+
+		try {
+			if (perFileReads) {
+				// one task per file, with at most threads[0] reads in flight
+				final Semaphore inFlight = new Semaphore(threads[0]);
+				for (int i = 0; i < files.length; ++i) {
+					final int j = i;
+					inFlight.acquire();
+					pools[0].execute(new Runnable() {
+						public void run() {
+							try {
+								T doc = m[0].time(read, files[j]);
+								if (doc != null) {
+									m[1].offer(toBuild, new Item(j, doc));
+								}
+							}
+							catch (InterruptedException ex) { stopped(); }
+							catch (Throwable ex) { abort(ex, fatal, pools, caller); }
+							finally {
+								inFlight.release();
+							}
+						}
+					});
+				}
+			
+				// the dispatcher ends the input of the builders
+				inFlight.acquire(threads[0]);
+				running[0].set(1);
+				finish(running[0], toBuild, threads[1]);
+			}
+			else {
+				for (int t = 0; t < threads[0]; ++t) {
+					pools[0].execute(new Runnable() {
+						public void run() {
+							try {
+								for (int i = next.getAndIncrement(); i < files.length;
+										i = next.getAndIncrement()) 
+								{
+									T doc = m[0].time(read, files[i]);
+									if (doc != null) {
+										m[1].offer(toBuild, new Item(i, doc));
+									}
+								}
+							}
+							catch (InterruptedException ex) { stopped(); }
+							catch (Throwable ex) { abort(ex, fatal, pools, caller); }
+							finally {
+								finish(running[0], toBuild, threads[1]);
+							}
+						}
+					});
+				}
+			}
+			for (ExecutorService pool: pools) {
+				pool.shutdown();
+			}
+			for (ExecutorService pool: pools) {
+				pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			}
+		}
+		catch (InterruptedException | RejectedExecutionException ex) {
+			// a failed worker stops the pools and interrupts the caller
+			if (fatal.get() == null) {
+				throw ex;
+			}
+		}
+		finally {
+			for (ExecutorService pool: pools) {
+				pool.shutdownNow();
+			}
+			long elapsed = System.nanoTime() - start;
+			for (Metrics sm: m) {
+				sm.elapsed = elapsed;
+			}
+		}
+		
+		Throwable ex = fatal.get();
+		if (ex != null) {
+			Thread.interrupted();
+			if (ex instanceof Error) {
+				throw (Error) ex;
+			}
+			throw new IllegalStateException("Pipeline stage failed", ex);
+		}
+	}
+
+	/**
+	 * Stops a run after a worker failed: records the first failure,
+	 * interrupts every worker, the failed one included (so none stays
+	 * blocked on a queue that nobody drains) and wakes the calling thread
+	 */
+	private static void abort(Throwable ex, AtomicReference<Throwable> fatal, 
+			ExecutorService[] pools, Thread caller) 
+	{
+		stopped();
+		if (fatal.compareAndSet(null, ex)) {
+			for (ExecutorService pool: pools) {
+				pool.shutdownNow();
+			}
+			caller.interrupt();
+		}
+	}
+
+	/**
+	 * Called by a worker interrupted out of a queue because the run is 
+	 * being stopped: keeps the thread interrupted, so that it does not
+	 * block again on its way out
+	 */
+	private static void stopped() {
+		Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Called by every worker of a stage on exit; the last one 
+	 * sends an end marker to every worker of the next stage, unless
+	 * the run is being stopped: the next stage may then have exited 
+	 * already, and nobody would drain a full queue
+	 */
+	private static void finish(AtomicInteger running, BlockingQueue<Item> out, 
+			int consumers) 
+	{
+		if (running.decrementAndGet() > 0 || Thread.currentThread().isInterrupted()) {
+			return;
+		}
+		for (int i = 0; i < consumers; ++i) {
+			try {
+				out.put(POISON);
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * The documents of the current or the last run that never reached
+	 * the sink, because a read or build stage failed on them or dropped
+	 * them. Only complete once {@link #run} has returned.
+	 * @return the indices of the dropped documents, in increasing order
+	 */
+	public int[] dropped() {
+		AtomicIntegerArray sunk = reached;
+		int count = 0;
+		for (int i = 0; i < sunk.length(); ++i) {
+			if (sunk.get(i) == 0) {
+				count++;
+			}
+		}
+		int[] out = new int[count];
+		for (int i = 0, k = 0; i < sunk.length(); ++i) {
+			if (sunk.get(i) == 0) {
+				out[k++] = i;
+			}
+		}
+		return out;
+	}
+
+	private Metrics[] newMetrics(File[] files, BlockingQueue<Item> toBuild, 
+			BlockingQueue<Item> toSink) 
+	{
+		return new Metrics[] {
+			new Metrics(STAGES[0], threads[0], files, null),
+			new Metrics(STAGES[1], threads[1], null, toBuild),
+			new Metrics(STAGES[2], threads[2], null, toSink)
+		};
+	}
+
+	/**
+	 * Whether this JVM can run tasks on virtual threads
+	 * @return true on Java 21 or later
+	 */
+	public static boolean hasVirtualThreads() {
+		ExecutorService ex = newVirtualThreadExecutor();
+		if (ex == null) {
+			return false;
+		}
+		ex.shutdown();
+		return true;
+	}
+
+	/**
+	 * Looks up Executors.newVirtualThreadPerTaskExecutor, which is
+	 * not available to the Java 8 API this module compiles against
+	 * @return a virtual thread per task executor, or null
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) m.invoke(null);
+		}
+		catch (ReflectiveOperationException ex) {
+			// before Java 21, or a preview without --enable-preview
+			return null;
+		}
+	}
+
+	/**
+	 * An executor that starts a thread for every task: a virtual thread
+	 * where available and a (reused) daemon platform thread otherwise
+	 */
+	private static ExecutorService newPerTaskExecutor(String stage) {
+		ExecutorService ex = newVirtualThreadExecutor();
+		return ex != null ? ex : Executors.newCachedThreadPool(namedThreads(stage));
+	}
+
+	private static ThreadFactory namedThreads(final String stage) {
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Pipeline-" + stage + "-" + count.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * The metrics of every stage, in order, for the current or 
+	 * the last run. They can be read while the pipeline runs.
+	 * @return the metrics of the read, build and score stages
+	 */
+	public Metrics[] metrics() {
+		return metrics.clone();
+	}
+
+	/**
+	 * A one-line summary of every stage of the last run
+	 * @return the summary, one stage per line
+	 */
+	public String report() {
+		StringBuilder sb = new StringBuilder();
+		for (Metrics m: metrics) {
+			sb.append(m).append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * A document on its way between two stages
+	 */
+	private static final class Item {
+		final int index;
+		final Object value;
+
+		Item(int index, Object value) {
+			this.index = index;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * The metrics of a single stage
+	 */
+	public static final class Metrics {
+		
+		private final String name;
+		private final int threads;
+		private final File[] files;
+		private final BlockingQueue<Item> input;
+		
+		private final AtomicLong processed = new AtomicLong();
+		private final AtomicLong failed = new AtomicLong();
+		private final AtomicLong busyNanos = new AtomicLong();
+		private final AtomicInteger maxDepth = new AtomicInteger();
+		private final long start = System.nanoTime();
+		private volatile long elapsed = -1;
+
+		Metrics(String name, int threads, File[] files, BlockingQueue<Item> input) {
+			this.name = name;
+			this.threads = threads;
+			this.files = files;
+			this.input = input;
+		}
+
+		/**
+		 * Applies a stage to a document, recording its outcome
+		 * @return the result, or null if the stage failed
+		 */
+		<A, B> B time(Stage<A, B> stage, A in) {
+			long t0 = System.nanoTime();
+			try {
+				B out = stage.apply(in);
+				processed.incrementAndGet();
+				return out;
+			}
+			catch (Exception ex) {
+				failed.incrementAndGet();
+				ex.printStackTrace();
+				return null;
+			}
+			catch (Error err) {
+				failed.incrementAndGet();
+				throw err;
+			}
+			finally {
+				busyNanos.addAndGet(System.nanoTime() - t0);
+			}
+		}
+
+		<B> void consume(Sink<B> sink, int index, B in) {
+			long t0 = System.nanoTime();
+			try {
+				sink.accept(index, in);
+				processed.incrementAndGet();
+			}
+			catch (Exception ex) {
+				failed.incrementAndGet();
+				ex.printStackTrace();
+			}
+			catch (Error err) {
+				failed.incrementAndGet();
+				throw err;
+			}
+			finally {
+				busyNanos.addAndGet(System.nanoTime() - t0);
+			}
+		}
+
+		/**
+		 * Queues a document for this stage, blocking while the queue
+		 * is full, and records the depth of the queue
+		 */
+		void offer(BlockingQueue<Item> queue, Item it) throws InterruptedException {
+			queue.put(it);
+			int depth = queue.size();
+			int max = maxDepth.get();
+			while (depth > max && !maxDepth.compareAndSet(max, depth)) {
+				max = maxDepth.get();
+			}
+		}
+
+		/** @return the name of the stage */
+		public String name() {
+			return name;
+		}
+
+		/** @return the number of documents the stage processed */
+		public long processed() {
+			return processed.get();
+		}
+
+		/** @return the number of documents the stage failed on */
+		public long failed() {
+			return failed.get();
+		}
+
+		/**
+		 * The number of documents waiting for this stage: the queue 
+		 * depth for the build and score stages, the unread files for 
+		 * the read stage
+		 * @return the current depth of the input of the stage
+		 */
+		public int queueDepth() {
+			if (input != null) {
+				return input.size();
+			}
+			if (files == null || elapsed >= 0) {
+				return 0;
+			}
+			return (int) Math.max(0, files.length - processed.get() - failed.get());
+		}
+
+		/** @return the largest depth the input queue of the stage reached */
+		public int maxQueueDepth() {
+			return maxDepth.get();
+		}
+
+		/** @return the documents processed per second of wall time */
+		public double throughput() {
+			long wall = elapsed >= 0 ? elapsed : System.nanoTime() - start;
+			return wall > 0 ? processed.get() * 1e9 / wall : 0;
+		}
+
+		/** @return the share of the stage's thread time spent working */
+		public double utilization() {
+			long wall = elapsed >= 0 ? elapsed : System.nanoTime() - start;
+			return wall > 0 ? busyNanos.get() / ((double) wall * threads) : 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-5s x%d: %d docs (%d failed), %.1f docs/s, " 
+					+ "%.0f%% busy, queue %d (max %d)", name, threads, processed(), 
+					failed(), throughput(), 100 * utilization(), queueDepth(), 
+					maxQueueDepth());
+		}
+	}
+}
@@ -0,0 +1,58 @@
+/*
+This file is part of nggSpamFilter.
+
+nggSpamFilter is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+nggSpamFilter is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with nggSpamFilter.  If not, see <http://www.gnu.org/licenses/>.
+
+Copyright (C) Vasileios Charisopoulos, 2015
+
+*/
+
+package gr.demokritos.dataTools;
+
+/**
+ * Anything that can assign a message to one of a fixed set of 
+ * classes. Implementations must be safe to call from several 
+ * threads at once.
+ * @author VHarisop
+ *
+ */
+public interface Scorer {
+
+	/**
+	 * @return the class labels, indexed as in {@link Verdict#label}
+	 */
+	String[] getLabels();
+
+	/**
+	 * Scores a message against every class model
+	 * @param text the text of the message
+	 * @return the verdict for the message
+	 */
+	Verdict score(String text);
+
+	/**
+	 * Scores a batch of messages. Implementations with models that can
+	 * change should score the whole batch against one snapshot of them;
+	 * by default every message is scored on its own.
+	 * @param texts the texts of the messages
+	 * @return the verdicts, in the order of the texts
+	 */
+	default Verdict[] scoreAll(String[] texts) {
+		Verdict[] verdicts = new Verdict[texts.length];
+		for (int i = 0; i < texts.length; ++i) {
+			verdicts[i] = score(texts[i]);
+		}
+		return verdicts;
+	}
+}
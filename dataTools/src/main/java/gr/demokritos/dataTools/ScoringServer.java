@@ -0,0 +1,395 @@
+/*
+This file is part of nggSpamFilter.
+
+nggSpamFilter is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+nggSpamFilter is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with nggSpamFilter.  If not, see <http://www.gnu.org/licenses/>.
+
+Copyright (C) Vasileios Charisopoulos, 2015
+
+*/
+
+package gr.demokritos.dataTools;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A resident server that scores messages with a {@link Scorer} whose
+ * models are loaded once. It listens on the loopback interface and 
+ * speaks a simple framed protocol: every request is a 4-byte big-endian
+ * length followed by that many bytes of UTF-8 message text, and every 
+ * reply is a length-prefixed UTF-8 line of the form 
+ * {@code <label> <sim_0> ... <sim_k-1>}. A zero-length request closes 
+ * the connection.
+ * 
+ * Requests from all connections go into one bounded queue. Whenever a 
+ * scoring thread is free, a dispatcher drains whatever has accumulated
+ * (up to {@code maxBatch}) and the thread scores the batch in a single
+ * {@link Scorer#scoreAll(String[])} call, against one snapshot of the 
+ * models; the busier the server, the larger the batches. A request that
+ * finds the queue full is answered with {@code ERROR overloaded} right
+ * away. All threads of the server are daemons, and {@link #stop()} 
+ * releases them.
+ * 
+ * Examples:
+ * 		new ScoringServer(classifier, 7777).serve();
+ * 
+ * @author VHarisop
+ *
+ */
+public class ScoringServer {
+
+	// the largest message accepted, to guard against bogus frames
+	private static final int MAX_FRAME = 64 * 1024 * 1024;
+
+	private final Scorer scorer;
+	private final int port;
+	private final int maxBatch;
+	private final int numThreads;
+
+	private final BlockingQueue<Request> pending;
+	// scoring threads not busy with a batch
+	private final Semaphore idle;
+	private ServerSocket server;
+	private Thread dispatcher;
+	private volatile boolean running;
+
+	/**
+	 * A message waiting to be scored
+	 */
+	private static class Request {
+		final String text;
+		final CompletableFuture<Verdict> result = new CompletableFuture<Verdict>();
+
+		Request(String text) {
+			this.text = text;
+		}
+	}
+
+	/**
+	 * Creates a server on a loopback port, using one scoring 
+	 * thread per available core
+	 * @param scorer the scorer to use
+	 * @param port the port to listen on (0 picks a free one)
+	 */
+	public ScoringServer(Scorer scorer, int port) {
+		this(scorer, port, 64, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a server on a loopback port
+	 * @param scorer the scorer to use
+	 * @param port the port to listen on (0 picks a free one)
+	 * @param maxBatch the maximum number of requests scored together
+	 * @param numThreads the number of scoring threads
+	 */
+	public ScoringServer(Scorer scorer, int port, int maxBatch, int numThreads) {
+		this(scorer, port, maxBatch, numThreads, 16 * maxBatch * numThreads);
+	}
+
+	/**
+	 * Creates a server on a loopback port
+	 * @param scorer the scorer to use
+	 * @param port the port to listen on (0 picks a free one)
+	 * @param maxBatch the maximum number of requests scored together
+	 * @param numThreads the number of scoring threads
+	 * @param maxPending the maximum number of requests waiting for a 
+	 * 		  scoring thread; more are rejected as overloaded
+	 */
+	public ScoringServer(Scorer scorer, int port, int maxBatch, int numThreads, int maxPending) {
+		this.scorer = scorer;
+		this.port = port;
+		this.maxBatch = maxBatch;
+		this.numThreads = numThreads;
+		pending = new ArrayBlockingQueue<Request>(maxPending);
+		idle = new Semaphore(numThreads);
+	}
+
+	/**
+	 * Binds the server socket and starts accepting connections
+	 * in the background
+	 * @return the port the server listens on
+	 * @throws IOException if the socket cannot be bound
+	 */
+	public int start() throws IOException {
+		ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		Thread dispatcher = new Thread("ScoringServer-dispatcher") {
+			public void run() {
+				dispatch();
+			}
+		};
+		dispatcher.setDaemon(true);
+		synchronized (this) {
+			this.server = server;
+			this.dispatcher = dispatcher;
+			running = true;
+		}
+		dispatcher.start();
+
+		Thread acceptor = new Thread("ScoringServer-acceptor") {
+			public void run() {
+				accept();
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Starts the server and blocks until it is stopped
+	 * @throws IOException if the socket cannot be bound
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void serve() throws IOException, InterruptedException {
+		System.out.println("Listening on port " + start());
+		synchronized (this) {
+			while (running) {
+				wait();
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting connections, releases the socket and stops the
+	 * scoring threads; requests still in flight are dropped
+	 */
+	public void stop() {
+		ServerSocket server;
+		Thread dispatcher;
+		synchronized (this) {
+			running = false;
+			notifyAll();
+			server = this.server;
+			dispatcher = this.dispatcher;
+		}
+		// nothing to release if the server was never started
+		if (dispatcher != null) {
+			dispatcher.interrupt();
+		}
+		if (server != null) {
+			try {
+				server.close();
+			}
+			catch (IOException ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+
+	private void accept() {
+		ExecutorService connections = Executors.newCachedThreadPool(daemonThreads("connection"));
+		while (running) {
+			try {
+				final Socket sock = server.accept();
+				connections.execute(new Runnable() {
+					public void run() {
+						handle(sock);
+					}
+				});
+			}
+			catch (IOException ex) {
+				if (running) { ex.printStackTrace(); }
+			}
+		}
+		connections.shutdownNow();
+	}
+
+	/**
+	 * Reads frames from a connection until it is closed, 
+	 * replying to each one in order
+	 */
+	private void handle(Socket sock) {
+		try {
+			DataInputStream in = new DataInputStream(
+					new BufferedInputStream(sock.getInputStream()));
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(sock.getOutputStream()));
+
+			while (true) {
+				int len = in.readInt();
+				if (len == 0) {
+					break;
+				}
+				if (len < 0 || len > MAX_FRAME) {
+					throw new IOException("Invalid frame length: " + len);
+				}
+				byte[] buf = new byte[len];
+				in.readFully(buf);
+
+				Request req = new Request(new String(buf, StandardCharsets.UTF_8));
+				if (!pending.offer(req)) {
+					writeFrame(out, "ERROR overloaded");
+					continue;
+				}
+
+				writeFrame(out, reply(req));
+			}
+		}
+		catch (EOFException ex) {
+			// client went away without a closing frame
+		}
+		catch (IOException ex) {
+			ex.printStackTrace();
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			try {
+				sock.close();
+			}
+			catch (IOException ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Waits for a request to be scored and formats the reply
+	 */
+	private static String reply(Request req) throws InterruptedException {
+		try {
+			return req.result.get().toString();
+		}
+		catch (ExecutionException ex) {
+			return "ERROR " + ex.getCause();
+		}
+	}
+
+	private static void writeFrame(DataOutputStream out, String msg) throws IOException {
+		byte[] buf = msg.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(buf.length);
+		out.write(buf);
+		out.flush();
+	}
+
+	private static ThreadFactory daemonThreads(final String role) {
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "ScoringServer-" + role + "-" + count.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * Waits for a free scoring thread, drains the pending requests 
+	 * into a batch and has the thread score it
+	 */
+	private void dispatch() {
+		ExecutorService workers = Executors.newFixedThreadPool(numThreads, daemonThreads("worker"));
+
+		try {
+			while (running) {
+				idle.acquire();
+				final List<Request> batch = new ArrayList<Request>(maxBatch);
+				try {
+					batch.add(pending.take());
+				}
+				catch (InterruptedException ex) {
+					idle.release();
+					throw ex;
+				}
+				pending.drainTo(batch, maxBatch - 1);
+
+				workers.execute(new Runnable() {
+					public void run() {
+						try {
+							score(batch);
+						}
+						finally {
+							idle.release();
+						}
+					}
+				});
+			}
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			workers.shutdownNow();
+		}
+	}
+
+	/**
+	 * Scores a batch and completes the future of every request in it
+	 */
+	private void score(List<Request> batch) {
+		String[] texts = new String[batch.size()];
+		for (int i = 0; i < texts.length; ++i) {
+			texts[i] = batch.get(i).text;
+		}
+		try {
+			Verdict[] verdicts = scorer.scoreAll(texts);
+			for (int i = 0; i < texts.length; ++i) {
+				batch.get(i).result.complete(verdicts[i]);
+			}
+		}
+		catch (Throwable ex) {
+			// errors too, or the clients would wait forever
+			for (Request req: batch) {
+				req.result.completeExceptionally(ex);
+			}
+		}
+	}
+
+	/**
+	 * Sends a message to a running server and returns the raw reply.
+	 * Mostly useful for testing and scripting.
+	 * @param port the port of the server
+	 * @param text the text of the message
+	 * @return the reply line
+	 * @throws IOException on connection errors
+	 */
+	public static String query(int port, String text) throws IOException {
+		Socket sock = new Socket(InetAddress.getLoopbackAddress(), port);
+		try {
+			DataOutputStream out = new DataOutputStream(sock.getOutputStream());
+			DataInputStream in = new DataInputStream(sock.getInputStream());
+			writeFrame(out, text);
+
+			byte[] buf = new byte[in.readInt()];
+			in.readFully(buf);
+			out.writeInt(0);
+			out.flush();
+			return new String(buf, StandardCharsets.UTF_8);
+		}
+		finally {
+			sock.close();
+		}
+	}
+}
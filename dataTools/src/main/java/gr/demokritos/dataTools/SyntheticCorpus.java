@@ -0,0 +1,317 @@
+/*
+This file is part of nggSpamFilter.
+
+nggSpamFilter is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+nggSpamFilter is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with nggSpamFilter.  If not, see <http://www.gnu.org/licenses/>.
+
+Copyright (C) Vasileios Charisopoulos, 2015
+
+*/
+
+package gr.demokritos.dataTools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A deterministic generator of synthetic mail corpora, for benchmarks 
+ * that must be reproducible without sharing real mail. Messages are 
+ * sequences of words: a share of them comes from a vocabulary common 
+ * to all classes and the rest from a vocabulary of the message's class,
+ * both with Zipf-like word frequencies. Message sizes follow a 
+ * log-normal distribution.
+ * 
+ * Every message is generated from the seed, its class and its number
+ * alone, so the same settings always give byte-identical corpora, and
+ * a larger corpus contains the messages of a smaller one.
+ * 
+ * Examples:
+ * 		SyntheticCorpus gen = new SyntheticCorpus(7);
+ * 		gen.setVocabulary(5000, 0.8);
+ * 		gen.writeBinary(new File("corpus"), 1000, 250);
+ * 
+ * @author VHarisop
+ *
+ */
+public class SyntheticCorpus {
+
+	/** The class names of binary corpora, in the order of their labels */
+	public static final String[] BINARY_CLASSES = { "Spam", "Ham" };
+
+	// words in the vocabulary of every class
+	private static final int CLASS_WORDS = 1000;
+	
+	// the shortest message generated
+	private static final int MIN_SIZE = 16;
+
+	private final long seed;
+	
+	private int medianSize = 2048;
+	private double sizeSpread = 1.0;
+	private int maxSize = 1 << 18;
+	
+	private double overlap = 0.7;
+	private String[] common;
+	private double[] commonCdf;
+	private final List<String[]> classWords = new ArrayList<String[]>();
+	private final double[] classCdf;
+
+	/**
+	 * Creates a generator with a common vocabulary of 5000 words, 
+	 * of which 70% of the words of every message are drawn, and 
+	 * a median message size of 2 KB
+	 * @param seed the seed of the corpus
+	 */
+	public SyntheticCorpus(long seed) {
+		this.seed = seed;
+		classCdf = zipfCdf(CLASS_WORDS);
+		setVocabulary(5000, overlap);
+	}
+
+	/**
+	 * Sets the distribution of message sizes: log-normal around a 
+	 * median, capped at a maximum size
+	 * @param median the median size of a message, in characters
+	 * @param spread the standard deviation of the log of the size;
+	 * 		  0 makes every message the median size
+	 * @param max the largest size of a message, in characters
+	 */
+	public void setMessageSize(int median, double spread, int max) {
+		if (median < 1 || spread < 0 || max < median) {
+			throw new IllegalArgumentException("Invalid message size distribution");
+		}
+		medianSize = median;
+		sizeSpread = spread;
+		maxSize = max;
+	}
+
+	/**
+	 * Sets the common vocabulary and the vocabulary overlap of the classes
+	 * @param size the number of words common to all classes
+	 * @param overlap the share of the words of a message drawn from the 
+	 * 		  common vocabulary, between 0 (classes share no words) and 1 
+	 * 		  (classes cannot be told apart)
+	 */
+	public synchronized void setVocabulary(int size, double overlap) {
+		if (size < 1 || overlap < 0 || overlap > 1) {
+			throw new IllegalArgumentException("Invalid vocabulary");
+		}
+		this.overlap = overlap;
+		common = words(new Random(seed), size);
+		commonCdf = zipfCdf(size);
+	}
+
+	/**
+	 * Generates a message of a class, with a size drawn from the 
+	 * message size distribution
+	 * @param cls the class of the message
+	 * @param id the number of the message within its class
+	 * @return the text of the message
+	 */
+	public String message(int cls, long id) {
+		Random rnd = random(cls, id);
+		double size = medianSize * Math.exp(sizeSpread * rnd.nextGaussian());
+		return text(rnd, cls, (int) Math.max(MIN_SIZE, Math.min(maxSize, size)));
+	}
+
+	/**
+	 * Generates a message of a class with a given size
+	 * @param cls the class of the message
+	 * @param id the number of the message within its class
+	 * @param size the length of the message in characters
+	 * @return the text of the message
+	 */
+	public String messageOfSize(int cls, long id, int size) {
+		return text(random(cls, id), cls, size);
+	}
+
+	/**
+	 * Writes a binary corpus in the layout of NGramGraphClassifier:
+	 * {@code root/Train} and {@code root/Test}, each with a 
+	 * {@code Spam} and a {@code Ham} folder
+	 * @param root the directory of the corpus
+	 * @param train the number of training messages per class
+	 * @param test the number of test messages per class
+	 * @throws IOException if a message cannot be written
+	 */
+	public void writeBinary(File root, int train, int test) throws IOException {
+		for (int c = 0; c < BINARY_CLASSES.length; ++c) {
+			write(new File(root, "Train/" + BINARY_CLASSES[c]), c, 0, train);
+			write(new File(root, "Test/" + BINARY_CLASSES[c]), c, train, test);
+		}
+	}
+
+	/**
+	 * Writes a k-class corpus in the layout of NggClassifier: a folder
+	 * per class ({@code Class00}, {@code Class01}, ...), each with a 
+	 * {@code Train} and a {@code Test} folder
+	 * @param root the directory of the corpus
+	 * @param classes the number of classes
+	 * @param train the number of training messages per class
+	 * @param test the number of test messages per class
+	 * @throws IOException if a message cannot be written
+	 */
+	public void writeMulticlass(File root, int classes, int train, int test) 
+		throws IOException 
+	{
+		for (int c = 0; c < classes; ++c) {
+			File dir = new File(root, String.format("Class%02d", c));
+			write(new File(dir, "Train"), c, 0, train);
+			write(new File(dir, "Test"), c, train, test);
+		}
+	}
+
+	/**
+	 * Writes messages {@code first} to {@code first + count - 1} of 
+	 * a class into a directory
+	 */
+	private void write(File dir, int cls, int first, int count) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create " + dir);
+		}
+		for (int i = first; i < first + count; ++i) {
+			File f = new File(dir, String.format("msg%06d.txt", i));
+			Files.write(f.toPath(), message(cls, i).getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * The random source of a message, depending only on the 
+	 * seed, the class and the number of the message
+	 */
+	private Random random(int cls, long id) {
+		long h = mix(mix(seed + cls) + id);
+		return new Random(h);
+	}
+
+	/**
+	 * The finalizer of SplitMix64, so that nearby numbers give 
+	 * unrelated seeds
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	private String text(Random rnd, int cls, int size) {
+		String[] own = vocabulary(cls);
+		String[] shared;
+		double[] sharedCdf;
+		double share;
+		synchronized (this) {
+			shared = common;
+			sharedCdf = commonCdf;
+			share = overlap;
+		}
+		
+		StringBuilder sb = new StringBuilder(size + 16);
+		while (sb.length() < size) {
+			String w = (rnd.nextDouble() < share) 
+				? shared[sample(sharedCdf, rnd)] 
+				: own[sample(classCdf, rnd)];
+			sb.append(w).append(rnd.nextInt(12) == 0 ? '\n' : ' ');
+		}
+		sb.setLength(size);
+		return sb.toString();
+	}
+
+	/**
+	 * The vocabulary of a class, generated on first use
+	 */
+	private synchronized String[] vocabulary(int cls) {
+		while (classWords.size() <= cls) {
+			int c = classWords.size();
+			classWords.add(words(new Random(seed * 31 + c + 1), CLASS_WORDS));
+		}
+		return classWords.get(cls);
+	}
+
+	private static String[] words(Random rnd, int count) {
+		String[] words = new String[count];
+		for (int i = 0; i < count; ++i) {
+			char[] w = new char[2 + rnd.nextInt(9)];
+			for (int j = 0; j < w.length; ++j) {
+				w[j] = (char) ('a' + rnd.nextInt(26));
+			}
+			words[i] = new String(w);
+		}
+		return words;
+	}
+
+	/**
+	 * The cumulative distribution of word ranks, with 
+	 * frequencies inversely proportional to the rank
+	 */
+	private static double[] zipfCdf(int count) {
+		double[] cdf = new double[count];
+		double sum = 0;
+		for (int i = 0; i < count; ++i) {
+			sum += 1.0 / (i + 1);
+			cdf[i] = sum;
+		}
+		for (int i = 0; i < count; ++i) {
+			cdf[i] /= sum;
+		}
+		return cdf;
+	}
+
+	private static int sample(double[] cdf, Random rnd) {
+		double u = rnd.nextDouble();
+		int lo = 0, hi = cdf.length - 1;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (cdf[mid] < u) {
+				lo = mid + 1;
+			}
+			else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Writes a corpus from the command line:
+	 * SyntheticCorpus dir (binary | classes) train test [seed [overlap [medianSize]]]
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 4) {
+			System.err.println("Usage: SyntheticCorpus dir (binary | classes) train test "
+					+ "[seed [overlap [medianSize]]]");
+			System.exit(1);
+		}
+		SyntheticCorpus gen = new SyntheticCorpus(args.length > 4 ? Long.parseLong(args[4]) : 1);
+		if (args.length > 5) {
+			gen.setVocabulary(5000, Double.parseDouble(args[5]));
+		}
+		if (args.length > 6) {
+			int median = Integer.parseInt(args[6]);
+			gen.setMessageSize(median, 1.0, Math.max(median, 1 << 18));
+		}
+		
+		File root = new File(args[0]);
+		int train = Integer.parseInt(args[2]), test = Integer.parseInt(args[3]);
+		if (args[1].equals("binary")) {
+			gen.writeBinary(root, train, test);
+		}
+		else {
+			gen.writeMulticlass(root, Integer.parseInt(args[1]), train, test);
+		}
+	}
+}
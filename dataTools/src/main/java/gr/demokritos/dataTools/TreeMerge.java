@@ -0,0 +1,144 @@
+/*
+This file is part of nggSpamFilter.
+
+nggSpamFilter is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+nggSpamFilter is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with nggSpamFilter.  If not, see <http://www.gnu.org/licenses/>.
+
+Copyright (C) Vasileios Charisopoulos, 2015
+
+*/
+
+package gr.demokritos.dataTools;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Averages a list of graphs by a pairwise tree reduction on a fork/join
+ * pool. Ranges of up to {@link #LEAF_SIZE} graphs are merged left to
+ * right into their first graph, and two partial means are merged with
+ * a weight given by the number of graphs each one averages.
+ *
+ * The shape of the tree depends only on the number of graphs, and every
+ * merge sees the same operands in the same order whichever thread runs
+ * it, so the result is bit-for-bit the same for every level of
+ * parallelism, including a single thread. It is only the exact mean if
+ * the merge is; merges that are not (e.g. JInsect's mergeGraph) give a
+ * result that depends on the tree, which is why all callers that must
+ * agree have to use the same reduction.
+ *
+ * Examples:
+ * 		G model = TreeMerge.mean(graphs, merger, 4, false);
+ *
+ * @author VHarisop
+ *
+ * @param <G> the type of a graph
+ */
+public class TreeMerge<G> {
+
+	/** Ranges up to this size are averaged serially */
+	public static final int LEAF_SIZE = 16;
+
+	private static final MetricsRegistry.Histogram MERGE_TIME =
+		MetricsRegistry.get().histogram(MetricsRegistry.MERGE);
+
+	/**
+	 * How to copy and merge graphs
+	 * @param <G> the type of a graph
+	 */
+	public interface Merger<G> {
+		/**
+		 * @param graph a graph
+		 * @return a copy of the graph that can be merged into
+		 */
+		G copy(G graph);
+
+		/**
+		 * Moves a model towards another graph
+		 * @param model the graph to update in place
+		 * @param other the graph to merge into the model
+		 * @param weight the share of the other graph in the result
+		 */
+		void merge(G model, G other, double weight);
+	}
+
+	private final G[] graphs;
+	private final Merger<G> merger;
+	private final boolean keepGraphs;
+
+	private TreeMerge(G[] graphs, Merger<G> merger, boolean keepGraphs) {
+		this.graphs = graphs;
+		this.merger = merger;
+		this.keepGraphs = keepGraphs;
+	}
+
+	/**
+	 * Averages a non-empty array of graphs
+	 * @param graphs the graphs to average
+	 * @param merger copies and merges graphs
+	 * @param parallelism the number of threads to use
+	 * @param keepGraphs True to leave the graphs untouched; otherwise
+	 * 		  the first graph of every leaf range is merged into in place
+	 * @return the mean of the graphs
+	 */
+	public static <G> G mean(G[] graphs, Merger<G> merger,
+			int parallelism, boolean keepGraphs) {
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+		try {
+			return pool.invoke(new TreeMerge<G>(graphs, merger, keepGraphs)
+					.new MergeTask(0, graphs.length));
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Merges the graphs in a range of indices into their mean
+	 */
+	private class MergeTask extends RecursiveTask<G> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int lo, hi;
+
+		MergeTask(int lo, int hi) {
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		protected G compute() {
+			if (hi - lo <= LEAF_SIZE) {
+				G mdl = keepGraphs ? merger.copy(graphs[lo]) : graphs[lo];
+				for (int j = lo + 1; j < hi; j++) {
+					long t0 = System.nanoTime();
+					merger.merge(mdl, graphs[j], 1.0 / (j - lo + 1));
+					MERGE_TIME.recordSince(t0);
+				}
+				return mdl;
+			}
+
+			int mid = (lo + hi) >>> 1;
+			MergeTask right = new MergeTask(mid, hi);
+			right.fork();
+			G left = new MergeTask(lo, mid).compute();
+
+			// weight the right mean by its share of the documents
+			G rightMean = right.join();
+			long t0 = System.nanoTime();
+			merger.merge(left, rightMean, (hi - mid) / (double) (hi - lo));
+			MERGE_TIME.recordSince(t0);
+			return left;
+		}
+	}
+}
@@ -0,0 +1,50 @@
+/*
+This file is part of nggSpamFilter.
+
+nggSpamFilter is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+nggSpamFilter is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with nggSpamFilter.  If not, see <http://www.gnu.org/licenses/>.
+
+Copyright (C) Vasileios Charisopoulos, 2015
+
+*/
+
+package gr.demokritos.dataTools;
+
+/**
+ * The outcome of scoring one message: the index of the 
+ * assigned class and the value similarity to every class model.
+ * @author VHarisop
+ *
+ */
+public class Verdict {
+
+	public final int label;
+	public final double[] similarities;
+
+	/**
+	 * Create a Verdict from a class index and a similarity vector
+	 */
+	public Verdict(int label, double[] similarities) {
+		this.label = label;
+		this.similarities = similarities;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder().append(label);
+		for (double s: similarities) {
+			sb.append(' ').append(s);
+		}
+		return sb.toString();
+	}
+}
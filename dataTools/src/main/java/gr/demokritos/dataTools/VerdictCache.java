@@ -0,0 +1,177 @@
+/*
+This file is part of nggSpamFilter.
+
+nggSpamFilter is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+nggSpamFilter is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with nggSpamFilter.  If not, see <http://www.gnu.org/licenses/>.
+
+Copyright (C) Vasileios Charisopoulos, 2015
+
+*/
+
+package gr.demokritos.dataTools;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of verdicts for messages with exactly the same content, 
+ * keyed by the SHA-256 digest of their text. Entries belong to a model
+ * generation (see {@link MultiModelScorer#generation()}): a lookup or 
+ * an insertion for a newer generation drops every older entry, so 
+ * verdicts never outlive the models that produced them.
+ * 
+ * The cache is bounded both by its number of entries and by an 
+ * estimate of its memory use, and evicts in least recently used order.
+ * It is safe to use from several threads.
+ * 
+ * Examples:
+ * 		VerdictCache cache = new VerdictCache(100000, 64 << 20);
+ * 		String key = VerdictCache.digest(text);
+ * 		Verdict v = cache.get(key, scorer.generation());
+ * 
+ * @author VHarisop
+ *
+ */
+public class VerdictCache {
+
+	// estimated size of an entry without its similarities: the map 
+	// node, the 64-character key and the verdict object
+	static final int ENTRY_BYTES = 200;
+
+	private final int maxEntries;
+	private final long maxBytes;
+
+	private final LinkedHashMap<String, Verdict> entries = 
+		new LinkedHashMap<String, Verdict>(16, 0.75f, true);
+	private long generation = Long.MIN_VALUE;
+	private long bytes = 0;
+	private long hits = 0, misses = 0;
+
+	/**
+	 * Creates an empty cache
+	 * @param maxEntries the maximum number of cached verdicts
+	 * @param maxBytes the maximum estimated size of the cache
+	 */
+	public VerdictCache(int maxEntries, long maxBytes) {
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Creates an empty cache with the same bounds as another
+	 * @param other the cache whose bounds to use
+	 */
+	public VerdictCache(VerdictCache other) {
+		this(other.maxEntries, other.maxBytes);
+	}
+
+	/**
+	 * Computes the key of a message
+	 * @param text the normalized text of the message
+	 * @return the hex SHA-256 digest of the UTF-8 text
+	 */
+	public static String digest(CharSequence text) {
+		MessageDigest md = CorpusFingerprint.sha256();
+		return CorpusFingerprint.toHex(
+				md.digest(text.toString().getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Looks up the verdict of a message
+	 * @param key the digest of the message
+	 * @param gen the generation of the current models
+	 * @return the cached verdict, or null
+	 */
+	public synchronized Verdict get(String key, long gen) {
+		advance(gen);
+		Verdict v = (gen == generation) ? entries.get(key) : null;
+		if (v == null) {
+			misses++;
+		}
+		else {
+			hits++;
+		}
+		return v;
+	}
+
+	/**
+	 * Caches the verdict of a message; verdicts of an older 
+	 * generation than the cached ones are ignored
+	 * @param key the digest of the message
+	 * @param gen the generation of the models that produced the verdict
+	 * @param v the verdict
+	 */
+	public synchronized void put(String key, long gen, Verdict v) {
+		advance(gen);
+		if (gen != generation) {
+			return;
+		}
+		Verdict old = entries.put(key, v);
+		if (old != null) {
+			bytes -= sizeOf(old);
+		}
+		bytes += sizeOf(v);
+		
+		Iterator<Map.Entry<String, Verdict>> it = entries.entrySet().iterator();
+		while ((entries.size() > maxEntries || bytes > maxBytes) && it.hasNext()) {
+			bytes -= sizeOf(it.next().getValue());
+			it.remove();
+		}
+	}
+
+	/**
+	 * Drops the entries of older generations
+	 */
+	private void advance(long gen) {
+		if (gen > generation) {
+			entries.clear();
+			bytes = 0;
+			generation = gen;
+		}
+	}
+
+	private static long sizeOf(Verdict v) {
+		return ENTRY_BYTES + 8L * v.similarities.length;
+	}
+
+	/**
+	 * @return the number of cached verdicts
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the estimated size of the cached verdicts, in bytes
+	 */
+	public synchronized long bytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return the number of lookups answered from the cache
+	 */
+	public synchronized long hits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of lookups not answered from the cache
+	 */
+	public synchronized long misses() {
+		return misses;
+	}
+}
@@ -0,0 +1,89 @@
+package gr.demokritos.dataTools;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for the compact n-gram graph and its edge map.
+ */
+public class CompactNGramGraphTest 
+    extends TestCase
+{
+    public CompactNGramGraphTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( CompactNGramGraphTest.class );
+    }
+
+    public void testEdgeMapPutGetRemove()
+    {
+        EdgeMap m = new EdgeMap();
+        for ( long k = 1; k <= 1000; k++ ) {
+            m.put( k, k * 0.5 );
+        }
+        assertEquals( 1000, m.size() );
+        for ( long k = 1; k <= 1000; k += 2 ) {
+            assertTrue( m.remove( k ) );
+        }
+        assertEquals( 500, m.size() );
+        for ( long k = 1; k <= 1000; k++ ) {
+            assertEquals( k % 2 == 0, m.contains( k ) );
+            if ( k % 2 == 0 ) {
+                assertEquals( k * 0.5, m.get( k, -1 ), 0 );
+            }
+        }
+        assertFalse( m.remove( 1 ) );
+    }
+
+    public void testEdgeCountsFollowWindow()
+    {
+        // "abcdef" has 4 trigrams, connected to up to 3 predecessors: 0+1+2+3
+        CompactNGramGraph g = CompactNGramGraph.fromText( "abcdef" );
+        assertEquals( 6, g.length() );
+
+        // repeated text increases weights instead of adding edges
+        CompactNGramGraph r = CompactNGramGraph.fromText( "aaaaaa" );
+        assertEquals( 1, r.length() );
+        assertEquals( 6.0, r.getLevel( 3 ).get(
+            CompactNGramGraph.edgeKey( CompactNGramGraph.ngramKey( "aaa", 0, 3 ),
+                CompactNGramGraph.ngramKey( "aaa", 0, 3 ) ), 0 ), 0 );
+    }
+
+    public void testValueSimilarity()
+    {
+        CompactNGramGraph a = CompactNGramGraph.fromText( "the quick brown fox" );
+        CompactNGramGraph b = CompactNGramGraph.fromText( "the quick brown fox" );
+        CompactNGramGraph c = CompactNGramGraph.fromText( "lorem ipsum dolor" );
+
+        assertEquals( 1.0, a.valueSimilarity( b ), 1e-12 );
+        assertEquals( 0.0, a.valueSimilarity( c ), 1e-12 );
+        double partial = a.valueSimilarity( CompactNGramGraph.fromText( "the quick red fox" ) );
+        assertTrue( partial > 0 && partial < 1 );
+    }
+
+    public void testPruneKeepsHeaviestEdges()
+    {
+        CompactNGramGraph g = CompactNGramGraph.fromText( "abcabcabcabc xyz", 3, 3, 1 );
+        double heaviest = 0;
+        EdgeMap edges = g.getLevel( 3 );
+        for ( int s = 0; s < edges.capacity(); s++ ) {
+            heaviest = Math.max( heaviest, edges.weightAt( s ) );
+        }
+        int full = g.edgeCount( 3 );
+
+        g.prune( 1 );
+        assertEquals( 1, g.length() );
+        assertEquals( full, g.edgeCount( 3 ) );
+        edges = g.getLevel( 3 );
+        for ( int s = 0; s < edges.capacity(); s++ ) {
+            if ( edges.keyAt( s ) != 0 ) {
+                assertEquals( heaviest, edges.weightAt( s ), 0 );
+            }
+        }
+    }
+}
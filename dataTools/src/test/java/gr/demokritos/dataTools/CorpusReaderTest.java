@@ -0,0 +1,120 @@
+package gr.demokritos.dataTools;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Checks directory scans against File.list and buffered reads.
+ */
+public class CorpusReaderTest 
+    extends TestCase
+{
+    public CorpusReaderTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( CorpusReaderTest.class );
+    }
+
+    public void testScanMatchesFileList() throws Exception
+    {
+        File dir = File.createTempFile( "corpus", "" );
+        dir.delete();
+        dir.mkdir();
+        new File( dir, "sub" ).mkdir();
+        for ( int i = 0; i < 20; i++ ) {
+            FileOutputStream out = new FileOutputStream( new File( dir, "doc" + i + ( i % 3 == 0 ? ".eml" : ".txt" ) ) );
+            out.write( new byte[i * 100] );
+            out.close();
+        }
+
+        CorpusReader.Listing listing = CorpusReader.scan( dir );
+        assertSame( listing, CorpusReader.scan( dir ) );
+        assertEquals( 1, listing.directories().length );
+
+        // same names, in the order of File.list
+        String[] expected = dir.list();
+        String[] txt = listing.names( ".txt" );
+        int k = 0;
+        for ( String name : expected ) {
+            if ( name.endsWith( ".txt" ) ) {
+                assertEquals( name, txt[k++] );
+            }
+        }
+        assertEquals( k, txt.length );
+
+        File[] files = listing.files();
+        assertEquals( 20, files.length );
+        ByteBuffer buf = null;
+        for ( int i = 0; i < files.length; i++ ) {
+            assertEquals( files[i].length(), listing.size( i ) );
+            buf = CorpusReader.read( files[i], buf );
+            assertEquals( files[i].length(), buf.remaining() );
+        }
+
+        assertEquals( 0, CorpusReader.scan( new File( dir, "missing" ) ).files().length );
+        // scans are reused until the directory changes
+        new File( dir, "extra.txt" ).createNewFile();
+        dir.setLastModified( dir.lastModified() + 2000 );
+        assertEquals( 21, CorpusReader.scan( dir ).files().length );
+        for ( File f : dir.listFiles() ) {
+            f.delete();
+        }
+        dir.delete();
+        assertEquals( 0, CorpusReader.scan( dir ).files().length );
+    }
+
+    public void testEntriesDeletedDuringScanAreSkipped() throws Exception
+    {
+        File dir = File.createTempFile( "corpus", "" );
+        dir.delete();
+        dir.mkdir();
+        for ( int i = 0; i < 10; i++ ) {
+            new File( dir, "doc" + i + ".txt" ).createNewFile();
+        }
+        // listed, but its attributes cannot be read, like a file
+        // deleted between listing and reading them
+        File dangling = new File( dir, "gone.txt" );
+        Files.createSymbolicLink( dangling.toPath(), new File( dir, "missing" ).toPath() );
+
+        CorpusReader.Listing listing = CorpusReader.rescan( dir );
+        assertEquals( 10, listing.files().length );
+        assertSame( listing, CorpusReader.scan( dir ) );
+
+        for ( File f : dir.listFiles() ) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    public void testFailedScanIsNotCached() throws Exception
+    {
+        // not a directory, so it cannot be listed
+        File file = File.createTempFile( "corpus", ".txt" );
+        file.deleteOnExit();
+
+        CorpusReader.Listing listing = CorpusReader.scan( file );
+        assertEquals( 0, listing.files().length );
+        assertNotSame( listing, CorpusReader.scan( file ) );
+    }
+
+    public void testBufferCapacity()
+    {
+        assertEquals( 1 << 16, CorpusReader.capacity( 0 ) );
+        assertEquals( 1 << 16, CorpusReader.capacity( 1000 ) );
+        assertEquals( 1 << 21, CorpusReader.capacity( 1500000 ) );
+        // files from 1 GiB up must not overflow into a small buffer
+        assertEquals( Integer.MAX_VALUE, CorpusReader.capacity( 1L << 30 ) );
+        assertEquals( Integer.MAX_VALUE, CorpusReader.capacity( Integer.MAX_VALUE - 1 ) );
+        assertTrue( CorpusReader.capacity( ( 1L << 30 ) - 1 ) >= ( 1L << 30 ) - 1 );
+    }
+}
@@ -0,0 +1,56 @@
+package gr.demokritos.dataTools;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Checks the postings of the inverted edge index against the models.
+ */
+public class EdgeIndexTest 
+    extends TestCase
+{
+    public EdgeIndexTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( EdgeIndexTest.class );
+    }
+
+    public void testPostingsMatchModels()
+    {
+        CompactNGramGraph[] models = {
+            CompactNGramGraph.fromText( "cheap pills and watches", 2, 3, 3 ),
+            CompactNGramGraph.fromText( "cheap lunch on monday", 2, 3, 3 )
+        };
+        EdgeIndex index = new EdgeIndex( models );
+
+        for ( int n = 2; n <= 3; n++ ) {
+            for ( int c = 0; c < models.length; c++ ) {
+                for ( int s = 0; s < models[c].slots( n ); s++ ) {
+                    long key = models[c].keyAt( n, s );
+                    if ( key == 0 ) {
+                        continue;
+                    }
+                    int slot = index.lookup( n, key );
+                    assertTrue( slot >= 0 );
+
+                    boolean found = false;
+                    for ( int p = index.start( n, slot ); p < index.end( n, slot ); p++ ) {
+                        if ( index.classAt( n, p ) == c ) {
+                            assertEquals( models[c].weightAt( n, s ), index.weightAt( n, p ), 0 );
+                            found = true;
+                        }
+                    }
+                    assertTrue( found );
+                }
+            }
+        }
+        long absent = CompactNGramGraph.edgeKey(
+            CompactNGramGraph.ngramKey( "zz", 0, 2 ), CompactNGramGraph.ngramKey( "qq", 0, 2 ) );
+        assertEquals( -1, index.lookup( 2, absent ) );
+    }
+}
@@ -0,0 +1,81 @@
+package gr.demokritos.dataTools;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Checks that subtractive fold models equal the mean of the 
+ * training documents of each fold.
+ */
+public class FoldModelsTest 
+    extends TestCase
+{
+    public FoldModelsTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( FoldModelsTest.class );
+    }
+
+    private static File write( File dir, String name, String text ) throws IOException
+    {
+        File f = new File( dir, name );
+        FileWriter w = new FileWriter( f );
+        w.write( text );
+        w.close();
+        return f;
+    }
+
+    public void testFoldModelEqualsMean() throws IOException
+    {
+        File dir = File.createTempFile( "folds", "" );
+        dir.delete();
+        dir.mkdir();
+
+        String[] texts = { "cheap pills", "buy pills now", "cheap watches",
+                           "pills and watches", "buy now cheap" };
+        File[] files = new File[texts.length];
+        for ( int i = 0; i < texts.length; i++ ) {
+            files[i] = write( dir, i + ".txt", texts[i] );
+        }
+
+        // 2 folds of 2 documents, the last one always trains
+        int[] foldOf = FoldModels.assignFolds( 5, new int[] { 0, 2 }, new int[] { 2, 4 } );
+        FoldModels fm = new FoldModels( files, foldOf, 2, 3, 3, 3 );
+
+        for ( int n = 0; n < 2; n++ ) {
+            CompactNGramGraph expected = new CompactNGramGraph();
+            int count = 0;
+            for ( int i = 0; i < texts.length; i++ ) {
+                if ( foldOf[i] != n ) {
+                    expected.addGraph( CompactNGramGraph.fromFile( files[i].getPath(), 3, 3, 3 ), 1.0 );
+                    count++;
+                }
+            }
+            expected.scale( 1.0 / count );
+
+            CompactNGramGraph model = fm.getModel( n );
+            assertEquals( expected.length(), model.length() );
+            assertEquals( 1.0, model.valueSimilarity( expected ), 1e-12 );
+        }
+    }
+
+    public void testRemoveNoise()
+    {
+        CompactNGramGraph a = CompactNGramGraph.fromText( "shared text spam" );
+        CompactNGramGraph b = CompactNGramGraph.fromText( "shared text ham" );
+        CompactNGramGraph common = CompactNGramGraph.fromText( "shared text " );
+
+        CompactNGramGraph.removeNoise( a, b );
+        assertEquals( 0.0, a.valueSimilarity( b ), 0 );
+        assertEquals( 0.0, a.valueSimilarity( common ), 0 );
+    }
+}
@@ -0,0 +1,125 @@
+package gr.demokritos.dataTools;
+
+import java.io.File;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Round-trip tests for the binary model format.
+ */
+public class MappedModelTest 
+    extends TestCase
+{
+    public MappedModelTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( MappedModelTest.class );
+    }
+
+    public void testMappedModelScoresLikeGraph() throws Exception
+    {
+        CompactNGramGraph model = CompactNGramGraph.fromText(
+            "cheap pills and cheap watches, buy now while stocks last", 2, 4, 3 );
+        File f = File.createTempFile( "model", ".ngm" );
+        f.deleteOnExit();
+        MappedModel.save( model, f );
+
+        MappedModel mapped = MappedModel.open( f );
+        assertEquals( 2, mapped.getMinSize() );
+        assertEquals( 4, mapped.getMaxSize() );
+        for ( int n = 2; n <= 4; n++ ) {
+            assertEquals( model.edgeCount( n ), mapped.edgeCount( n ) );
+        }
+
+        CompactNGramGraph cng = CompactNGramGraph.fromText( "buy cheap watches now", 2, 4, 3 );
+        assertEquals( cng.valueSimilarity( model ), cng.valueSimilarity( mapped ), 1e-12 );
+        assertEquals( 1.0, model.valueSimilarity( mapped.toGraph() ), 1e-12 );
+    }
+
+    public void testPrunedModelKeepsNormalization() throws Exception
+    {
+        CompactNGramGraph model = CompactNGramGraph.fromText(
+            "cheap pills and cheap watches, cheap pills, buy now while stocks last", 3, 3, 3 );
+        int full = model.edgeCount( 3 );
+        model.prune( 10 );
+        assertEquals( 10, model.length() );
+        assertEquals( full, model.edgeCount( 3 ) );
+
+        File f = File.createTempFile( "pruned", ".ngm" );
+        f.deleteOnExit();
+        MappedModel.save( model, f );
+        MappedModel mapped = MappedModel.open( f );
+        assertEquals( full, mapped.edgeCount( 3 ) );
+        assertEquals( 10, mapped.slots( 3 ) );
+
+        CompactNGramGraph cng = CompactNGramGraph.fromText( "buy cheap watches now", 3, 3, 3 );
+        assertEquals( cng.valueSimilarity( model ), cng.valueSimilarity( mapped ), 1e-12 );
+        assertEquals( full, mapped.toGraph().edgeCount( 3 ) );
+    }
+
+    public void testTruncatedFileIsRejected() throws Exception
+    {
+        CompactNGramGraph model = CompactNGramGraph.fromText(
+            "cheap pills and cheap watches, buy now while stocks last", 2, 4, 3 );
+        File f = File.createTempFile( "truncated", ".ngm" );
+        f.deleteOnExit();
+        MappedModel.save( model, f );
+        long full = f.length();
+
+        for ( long size : new long[] { full - 1, full / 2, 30, 10, 0 } ) {
+            java.io.RandomAccessFile raf = new java.io.RandomAccessFile( f, "rw" );
+            raf.setLength( size );
+            raf.close();
+            try {
+                MappedModel.open( f );
+                fail( "opened a model truncated to " + size + " bytes" );
+            } catch ( java.io.IOException expected ) {
+            }
+        }
+
+        // saving replaces the broken file and leaves no temporary file behind
+        MappedModel.save( model, f );
+        assertEquals( full, f.length() );
+        assertEquals( model.edgeCount( 3 ), MappedModel.open( f ).edgeCount( 3 ) );
+        for ( File other : f.getParentFile().listFiles() ) {
+            assertFalse( other.getName().startsWith( f.getName() ) && other.getName().endsWith( ".tmp" ) );
+        }
+    }
+
+    public void testCorruptHeaderIsRejected() throws Exception
+    {
+        CompactNGramGraph model = CompactNGramGraph.fromText( "buy cheap watches now", 3, 3, 3 );
+        File f = File.createTempFile( "corrupt", ".ngm" );
+        f.deleteOnExit();
+        MappedModel.save( model, f );
+
+        // a negative edge count in the header
+        java.io.RandomAccessFile raf = new java.io.RandomAccessFile( f, "rw" );
+        raf.seek( 20 );
+        raf.writeInt( -5 );
+        raf.close();
+        try {
+            MappedModel.open( f );
+            fail( "opened a model with a negative edge count" );
+        } catch ( java.io.IOException expected ) {
+        }
+
+        // a maximum rank far beyond the size of the file
+        MappedModel.save( model, f );
+        raf = new java.io.RandomAccessFile( f, "rw" );
+        raf.seek( 12 );
+        raf.writeInt( Integer.MAX_VALUE );
+        raf.close();
+        try {
+            MappedModel.open( f );
+            fail( "opened a model with a corrupt rank range" );
+        } catch ( java.io.IOException expected ) {
+        }
+    }
+}
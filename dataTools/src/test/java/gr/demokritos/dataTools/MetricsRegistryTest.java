@@ -0,0 +1,124 @@
+package gr.demokritos.dataTools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Checks histogram percentiles, the JMX view and snapshot dumps.
+ */
+public class MetricsRegistryTest 
+    extends TestCase
+{
+    public MetricsRegistryTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( MetricsRegistryTest.class );
+    }
+
+    public void testPercentilesWithinABucket()
+    {
+        MetricsRegistry.Histogram h = new MetricsRegistry.Histogram();
+        assertEquals( 0, h.percentile( 0.5 ) );
+        for ( int i = 1; i <= 1000; i++ ) {
+            h.record( i * 1000L );
+        }
+        assertEquals( 1000, h.count() );
+        assertEquals( 1000000L, h.max() );
+        assertEquals( 500500.0, h.mean(), 1e-6 );
+
+        // buckets are 1/8 of a power of two wide
+        long p50 = h.percentile( 0.5 );
+        assertTrue( p50 >= 500000 && p50 <= 500000 * 1.125 );
+        long p99 = h.percentile( 0.99 );
+        assertTrue( p99 >= 990000 && p99 <= 1000000 );
+        assertEquals( 1000000L, h.percentile( 1.0 ) );
+
+        // small values are exact
+        MetricsRegistry.Histogram small = new MetricsRegistry.Histogram();
+        for ( int i = 0; i < 16; i++ ) {
+            small.record( i );
+        }
+        assertEquals( 7, small.percentile( 0.5 ) );
+    }
+
+    public void testRegistryViews() throws Exception
+    {
+        MetricsRegistry reg = MetricsRegistry.get();
+        MetricsRegistry.Histogram h = reg.histogram( "test.latency" );
+        assertSame( h, reg.histogram( "test.latency" ) );
+        h.record( 2000 );
+        reg.counter( "test.count" ).add( 3 );
+        reg.gauge( "test.gauge", 42 );
+
+        Map<String, Number> values = reg.values();
+        assertEquals( 1L, values.get( "test.latency.count" ) );
+        assertEquals( 2.0, values.get( "test.latency.p99Micros" ).doubleValue(), 1e-9 );
+        assertEquals( 3L, values.get( "test.count" ) );
+        assertEquals( 42L, values.get( "test.gauge" ) );
+        assertTrue( reg.snapshot().contains( "test.latency" ) );
+
+        ObjectName name = reg.registerMBean();
+        assertEquals( name, reg.registerMBean() );
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals( 42L, server.getAttribute( name, "test.gauge" ) );
+        server.invoke( name, "reset", null, null );
+        assertEquals( 0L, h.count() );
+        assertEquals( 0L, server.getAttribute( name, "test.count" ) );
+    }
+
+    public void testScorerReportsModelSize()
+    {
+        CompactNGramGraph a = CompactNGramGraph.fromText( "the quick brown fox" );
+        CompactNGramGraph b = CompactNGramGraph.fromText( "jumps over the lazy dog" );
+        MultiModelScorer mms = new MultiModelScorer( a, b );
+        Map<String, Number> values = MetricsRegistry.get().values();
+        assertEquals( mms.storedEdges(), values.get( MetricsRegistry.MODEL_EDGES ).longValue() );
+        assertEquals( mms.storedEdges() * CompactNGramGraph.BYTES_PER_EDGE, 
+            values.get( MetricsRegistry.MODEL_BYTES ).longValue() );
+
+        // renewing the full scorer after a pruned one reports it again
+        MultiModelScorer pruned = mms.pruned( 4 );
+        assertEquals( pruned.storedEdges(), 
+            MetricsRegistry.get().values().get( MetricsRegistry.MODEL_EDGES ).longValue() );
+        mms.renewed();
+        assertEquals( mms.storedEdges(), 
+            MetricsRegistry.get().values().get( MetricsRegistry.MODEL_EDGES ).longValue() );
+
+        long before = MetricsRegistry.get().histogram( MetricsRegistry.SIMILARITY ).count();
+        mms.best( mms.candidate( "the quick dog" ) );
+        assertEquals( before + 1, MetricsRegistry.get().histogram( MetricsRegistry.SIMILARITY ).count() );
+    }
+
+    public void testPeriodicDumps() throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream( bytes, true );
+        MetricsRegistry reg = MetricsRegistry.get();
+        reg.gauge( "test.dumped", 1 );
+        reg.startDumps( 10, TimeUnit.MILLISECONDS, out );
+        for ( int i = 0; i < 200 && bytes.size() == 0; i++ ) {
+            Thread.sleep( 10 );
+        }
+        reg.stopDumps();
+        String dump;
+        synchronized ( out ) {
+            dump = bytes.toString();
+        }
+        assertTrue( dump.startsWith( "[metrics " ) );
+        assertTrue( dump.contains( "test.dumped" ) );
+    }
+}
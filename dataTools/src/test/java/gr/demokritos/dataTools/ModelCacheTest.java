@@ -0,0 +1,85 @@
+package gr.demokritos.dataTools;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests for corpus fingerprints and model generations.
+ */
+public class ModelCacheTest 
+    extends TestCase
+{
+    public ModelCacheTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ModelCacheTest.class );
+    }
+
+    private static File tempDir() throws IOException
+    {
+        File dir = File.createTempFile( "cache", "" );
+        dir.delete();
+        dir.mkdir();
+        return dir;
+    }
+
+    private static void write( File f, String text ) throws IOException
+    {
+        FileWriter w = new FileWriter( f );
+        w.write( text );
+        w.close();
+    }
+
+    public void testFingerprintTracksCorpus() throws IOException
+    {
+        File dir = tempDir();
+        write( new File( dir, "a.txt" ), "first message" );
+        String fp = CorpusFingerprint.of( true, "3-3-3", dir );
+
+        assertEquals( fp, CorpusFingerprint.of( true, "3-3-3", dir ) );
+        assertFalse( fp.equals( CorpusFingerprint.of( true, "4-4-4", dir ) ) );
+
+        write( new File( dir, "a.txt" ), "edited message" );
+        assertFalse( fp.equals( CorpusFingerprint.of( true, "3-3-3", dir ) ) );
+    }
+
+    public void testFingerprintIgnoresOtherFiles() throws IOException
+    {
+        File dir = tempDir();
+        write( new File( dir, "a.txt" ), "first message" );
+        String fp = CorpusFingerprint.of( false, "3-3-3", ".txt", dir );
+
+        // files the trainer skips leave the fingerprint alone
+        write( new File( dir, "a.txt~" ), "editor backup" );
+        write( new File( dir, ".DS_Store" ), "finder metadata" );
+        assertEquals( fp, CorpusFingerprint.of( false, "3-3-3", ".txt", dir ) );
+        assertFalse( fp.equals( CorpusFingerprint.of( false, "3-3-3", dir ) ) );
+
+        write( new File( dir, "b.txt" ), "second message" );
+        assertFalse( fp.equals( CorpusFingerprint.of( false, "3-3-3", ".txt", dir ) ) );
+    }
+
+    public void testKeepsBoundedGenerations() throws IOException
+    {
+        File base = tempDir();
+        ModelCache cache = new ModelCache( base, 2 );
+        File g1 = cache.generation( "one" );
+        g1.setLastModified( 1000 );
+        File g2 = cache.generation( "two" );
+        g2.setLastModified( 2000 );
+        File g3 = cache.generation( "three" );
+
+        assertFalse( g1.exists() );
+        assertTrue( g2.exists() );
+        assertTrue( g3.exists() );
+    }
+}
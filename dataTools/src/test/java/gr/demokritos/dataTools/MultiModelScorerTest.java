@@ -0,0 +1,149 @@
+package gr.demokritos.dataTools;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Checks the single-pass scorer against pairwise similarities.
+ */
+public class MultiModelScorerTest 
+    extends TestCase
+{
+    public MultiModelScorerTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( MultiModelScorerTest.class );
+    }
+
+    public void testMatchesPairwiseSimilarities()
+    {
+        CompactNGramGraph[] models = {
+            CompactNGramGraph.fromText( "cheap pills and watches, buy now", 2, 3, 3 ),
+            CompactNGramGraph.fromText( "meeting notes for monday lunch", 2, 3, 3 ),
+            CompactNGramGraph.fromText( "your invoice for the monday order", 2, 3, 3 )
+        };
+        MultiModelScorer scorer = new MultiModelScorer( models );
+        CompactNGramGraph cng = scorer.candidate( "invoice for cheap watches on monday" );
+
+        double[] sims = scorer.similarities( cng );
+        assertEquals( 3, sims.length );
+        for ( int m = 0; m < models.length; m++ ) {
+            assertEquals( cng.valueSimilarity( models[m] ), sims[m], 1e-12 );
+        }
+        assertEquals( 1, MultiModelScorer.argmax( new double[] { 0.1, 0.3, 0.3 } ) );
+    }
+
+    public void testBoundedMatchesFullScoring()
+    {
+        java.util.Random rnd = new java.util.Random( 42 );
+        String[] words = { "cheap", "pills", "watches", "buy", "now", "meeting",
+            "notes", "monday", "lunch", "invoice", "order", "team", "offer" };
+        CompactNGramGraph[] models = new CompactNGramGraph[5];
+        for ( int m = 0; m < models.length; m++ ) {
+            models[m] = CompactNGramGraph.fromText( text( rnd, words, 300 ), 3, 3, 3 );
+        }
+        MultiModelScorer scorer = new MultiModelScorer( models );
+
+        for ( int t = 0; t < 50; t++ ) {
+            CompactNGramGraph cng = scorer.candidate( text( rnd, words, 5 + rnd.nextInt( 200 ) ) );
+            double[] sims = scorer.similarities( cng );
+            assertEquals( MultiModelScorer.argmax( sims ), scorer.best( cng ) );
+            assertEquals( sims[1] > sims[2], scorer.beats( cng, 1, 2 ) );
+            assertEquals( sims[2] > sims[1], scorer.beats( cng, 2, 1 ) );
+        }
+    }
+
+    public void testClearVerdictStopsEarly()
+    {
+        java.util.Random rnd = new java.util.Random( 7 );
+        String spam = text( rnd, new String[] { "cheap", "pills", "watches", "buy", "now" }, 400 );
+        String ham = text( rnd, new String[] { "meeting", "notes", "monday", "lunch" }, 400 );
+        CompactNGramGraph[] models = {
+            CompactNGramGraph.fromText( spam, 3, 3, 3 ),
+            CompactNGramGraph.fromText( ham, 3, 3, 3 )
+        };
+        MultiModelScorer scorer = new MultiModelScorer( models );
+        CompactNGramGraph cng = scorer.candidate( spam );
+
+        int[] visited = new int[1];
+        assertEquals( 0, scorer.bounded( cng, new int[] { 0, 1 }, visited ) );
+        assertTrue( visited[0] < cng.length() );
+    }
+
+    public void testRenewedScorerIsCachedAgain()
+    {
+        CompactNGramGraph[] models = {
+            CompactNGramGraph.fromText( "cheap pills and watches, buy now", 2, 3, 3 ),
+            CompactNGramGraph.fromText( "meeting notes for monday lunch", 2, 3, 3 )
+        };
+        MultiModelScorer full = new MultiModelScorer( models );
+        CompactNGramGraph cng = full.candidate( "cheap watches on monday" );
+        String key = VerdictCache.digest( "cheap watches on monday" );
+        VerdictCache cache = new VerdictCache( 10, 1 << 20 );
+
+        // score with the pruned models, then restore the full ones
+        MultiModelScorer pruned = full.pruned( 3 );
+        cache.get( key, pruned.generation() );
+        MultiModelScorer restored = full.renewed();
+        assertTrue( restored.generation() > pruned.generation() );
+
+        double[] sims = restored.similarities( cng );
+        assertTrue( java.util.Arrays.equals( full.similarities( cng ), sims ) );
+        cache.put( key, restored.generation(), new Verdict( MultiModelScorer.argmax( sims ), sims ) );
+        assertNotNull( cache.get( key, restored.generation() ) );
+        assertEquals( 1, cache.hits() );
+
+        // the generation of the original scorer is dead
+        cache.put( key, full.generation(), new Verdict( MultiModelScorer.argmax( sims ), sims ) );
+        assertNull( cache.get( key, full.generation() ) );
+    }
+
+    public void testMappedModelsScoreLikeGraphs() throws Exception
+    {
+        java.util.Random rnd = new java.util.Random( 11 );
+        String[] words = { "cheap", "pills", "watches", "buy", "now", "meeting",
+            "notes", "monday", "lunch", "invoice", "order" };
+        CompactNGramGraph[] graphs = new CompactNGramGraph[3];
+        NGramModel[] mapped = new NGramModel[graphs.length];
+        for ( int m = 0; m < graphs.length; m++ ) {
+            graphs[m] = CompactNGramGraph.fromText( text( rnd, words, 200 ), 3, 3, 3 );
+            java.io.File f = java.io.File.createTempFile( "model", ".ngm" );
+            f.deleteOnExit();
+            MappedModel.save( graphs[m], f );
+            mapped[m] = MappedModel.open( f );
+        }
+        MultiModelScorer heap = new MultiModelScorer( graphs );
+        MultiModelScorer disk = new MultiModelScorer( mapped );
+        // mapped models start without copying their edges
+        assertFalse( disk.isIndexed() );
+        assertEquals( heap.storedEdges(), disk.storedEdges() );
+
+        for ( int t = 0; t < 30; t++ ) {
+            CompactNGramGraph cng = heap.candidate( text( rnd, words, 5 + rnd.nextInt( 100 ) ) );
+            double[] sims = heap.similarities( cng );
+            double[] mappedSims = disk.similarities( cng );
+            for ( int m = 0; m < sims.length; m++ ) {
+                assertEquals( sims[m], mappedSims[m], 1e-12 );
+            }
+            assertEquals( heap.best( cng ), disk.best( cng ) );
+            assertEquals( heap.beats( cng, 2, 0 ), disk.beats( cng, 2, 0 ) );
+        }
+        // the first candidate built the index, which renewed scorers share
+        assertTrue( disk.isIndexed() );
+        assertTrue( disk.renewed().isIndexed() );
+    }
+
+    private static String text( java.util.Random rnd, String[] words, int length )
+    {
+        StringBuilder sb = new StringBuilder();
+        for ( int i = 0; i < length; i++ ) {
+            sb.append( words[rnd.nextInt( words.length )] ).append( ' ' );
+        }
+        return sb.toString();
+    }
+}
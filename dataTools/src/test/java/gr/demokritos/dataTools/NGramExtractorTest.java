@@ -0,0 +1,109 @@
+package gr.demokritos.dataTools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Checks that graphs extracted from bytes match graphs 
+ * of the text read line by line.
+ */
+public class NGramExtractorTest 
+    extends TestCase
+{
+    public NGramExtractorTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( NGramExtractorTest.class );
+    }
+
+    public void testMatchesLineReader() throws Exception
+    {
+        byte[][] inputs = {
+            new byte[0],
+            "plain ascii text".getBytes( "UTF-8" ),
+            "dos\r\nline\r\nbreaks\r\n".getBytes( "UTF-8" ),
+            "old mac\rbreaks\r\rand\n\r\nmixed".getBytes( "UTF-8" ),
+            "\u03b5\u03bb\u03bb\u03b7\u03bd\u03b9\u03ba\u03ac, caf\u00e9, \u20ac, \ud83d\ude00!\n".getBytes( "UTF-8" ),
+            { 'b', 'a', 'd', (byte) 0xC3, '(', (byte) 0xFF, 'x', (byte) 0xE2, (byte) 0x82, '\n' }
+        };
+        // the UTF-8 fast path, and the JDK decoder for other charsets
+        check( inputs, StandardCharsets.UTF_8, new NGramExtractor( StandardCharsets.UTF_8 ) );
+        check( inputs, StandardCharsets.ISO_8859_1, new NGramExtractor( StandardCharsets.ISO_8859_1 ) );
+    }
+
+    public void testHeapBuffersGrowToTheFile() throws Exception
+    {
+        StringBuilder large = new StringBuilder();
+        while ( large.length() < 100000 ) {
+            large.append( "a line of a long message, \u00e9t\u00e9\r\n" );
+        }
+        byte[][] inputs = {
+            "short".getBytes( "UTF-8" ),
+            large.toString().getBytes( "UTF-8" ),
+            "short\nagain".getBytes( "UTF-8" )
+        };
+        // the extractors of virtual threads
+        check( inputs, StandardCharsets.UTF_8, new NGramExtractor( StandardCharsets.UTF_8, false ) );
+        check( inputs, StandardCharsets.ISO_8859_1, new NGramExtractor( StandardCharsets.ISO_8859_1, false ) );
+    }
+
+    private static void check( byte[][] inputs, Charset charset, NGramExtractor extractor ) throws Exception
+    {
+        for ( byte[] input : inputs ) {
+            File f = File.createTempFile( "doc", ".txt" );
+            f.deleteOnExit();
+            FileOutputStream out = new FileOutputStream( f );
+            out.write( input );
+            out.close();
+
+            String expected = readLines( f, charset );
+            assertEquals( expected, extractor.readText( f ) );
+
+            CompactNGramGraph reference = CompactNGramGraph.fromText( expected, 1, 6, 3 );
+            CompactNGramGraph extracted = extractor.extract( f, 1, 6, 3 );
+            CompactNGramGraph mapped = extractor.extract( ByteBuffer.wrap( input ), 1, 6, 3 );
+            assertSameEdges( reference, extracted );
+            assertSameEdges( reference, mapped );
+        }
+    }
+
+    private static String readLines( File f, Charset charset ) throws Exception
+    {
+        StringBuilder sb = new StringBuilder();
+        BufferedReader in = new BufferedReader( 
+            new InputStreamReader( new FileInputStream( f ), charset ) );
+        String line;
+        while ( ( line = in.readLine() ) != null ) {
+            sb.append( line ).append( '\n' );
+        }
+        in.close();
+        return sb.toString();
+    }
+
+    private static void assertSameEdges( CompactNGramGraph a, CompactNGramGraph b )
+    {
+        for ( int n = a.getMinSize(); n <= a.getMaxSize(); n++ ) {
+            assertEquals( a.edgeCount( n ), b.edgeCount( n ) );
+            EdgeMap edges = a.getLevel( n );
+            for ( int s = 0; s < edges.capacity(); s++ ) {
+                if ( edges.keyAt( s ) != 0 ) {
+                    assertEquals( edges.weightAt( s ), b.weight( n, edges.keyAt( s ), 0 ), 0 );
+                }
+            }
+        }
+    }
+}
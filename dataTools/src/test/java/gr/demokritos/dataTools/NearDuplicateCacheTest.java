@@ -0,0 +1,95 @@
+package gr.demokritos.dataTools;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Checks that near-duplicate messages reuse cached verdicts.
+ */
+public class NearDuplicateCacheTest 
+    extends TestCase
+{
+    private static final String CAMPAIGN = 
+        "Dear friend, buy cheap pills and luxury watches today at our online store. "
+        + "Limited offer, free shipping worldwide, click the link below to order now!";
+
+    public NearDuplicateCacheTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( NearDuplicateCacheTest.class );
+    }
+
+    /**
+     * A scorer that counts its calls
+     */
+    private static class CountingScorer implements Scorer
+    {
+        int calls = 0;
+
+        public String[] getLabels()
+        {
+            return new String[] { "spam", "ham" };
+        }
+
+        public Verdict score( String text )
+        {
+            calls++;
+            return new Verdict( calls, new double[] { 0, 0 } );
+        }
+    }
+
+    public void testNearDuplicatesHitTheCache()
+    {
+        CountingScorer scorer = new CountingScorer();
+        NearDuplicateCache cache = new NearDuplicateCache( scorer, 100, 60000, 0.8 );
+
+        Verdict first = cache.score( CAMPAIGN + " Ref 10234" );
+        assertSame( first, cache.score( CAMPAIGN + " Ref 99871" ) );
+        assertEquals( 1, scorer.calls );
+
+        cache.score( "Minutes of monday's meeting are attached, see you at lunch." );
+        assertEquals( 2, scorer.calls );
+        assertEquals( 1, cache.hits() );
+        assertEquals( 2, cache.misses() );
+        assertEquals( 1.0 / 3, cache.hitRate(), 1e-12 );
+    }
+
+    public void testBoundedAndExpiring()
+    {
+        CountingScorer scorer = new CountingScorer();
+        NearDuplicateCache cache = new NearDuplicateCache( scorer, 2, 60000, 0.8 );
+        cache.score( "first message about the quarterly budget review" );
+        cache.score( "second message, lunch plans for the team on friday" );
+        cache.score( "third message: cheap pills and watches for sale" );
+        assertEquals( 2, cache.size() );
+
+        NearDuplicateCache expiring = new NearDuplicateCache( scorer, 10, -1, 0.8 );
+        expiring.score( CAMPAIGN );
+        expiring.score( CAMPAIGN );
+        assertEquals( 0, expiring.hits() );
+    }
+
+    public void testVerdictsScoredAcrossAClearAreNotCached()
+    {
+        final NearDuplicateCache[] cache = new NearDuplicateCache[1];
+        CountingScorer scorer = new CountingScorer() {
+            public Verdict score( String text )
+            {
+                // the models change while the message is scored
+                cache[0].clear();
+                return super.score( text );
+            }
+        };
+        cache[0] = new NearDuplicateCache( scorer, 100, 60000, 0.8 );
+
+        cache[0].score( CAMPAIGN );
+        assertEquals( 0, cache[0].size() );
+        cache[0].score( CAMPAIGN );
+        assertEquals( 2, scorer.calls );
+    }
+}
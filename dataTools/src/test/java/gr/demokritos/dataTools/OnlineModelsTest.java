@@ -0,0 +1,176 @@
+package gr.demokritos.dataTools;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests for online learning of class models.
+ */
+public class OnlineModelsTest 
+    extends TestCase
+{
+    public OnlineModelsTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( OnlineModelsTest.class );
+    }
+
+    public void testLearnMatchesBatchMean()
+    {
+        String[] spam = { "cheap pills now", "buy cheap pills", "pills for sale" };
+        String[] ham = { "lunch on monday", "notes from monday" };
+
+        CompactNGramGraph spamSum = new CompactNGramGraph();
+        for ( int i = 0; i < 2; i++ ) {
+            spamSum.addGraph( CompactNGramGraph.fromText( spam[i] ), 1.0 );
+        }
+        CompactNGramGraph hamSum = new CompactNGramGraph();
+        for ( String t : ham ) {
+            hamSum.addGraph( CompactNGramGraph.fromText( t ), 1.0 );
+        }
+
+        OnlineModels om = new OnlineModels(
+            new CompactNGramGraph[] { spamSum, hamSum }, new long[] { 2, 2 }, 1, 0 );
+        om.learn( CompactNGramGraph.fromText( spam[2] ), 0 );
+        assertEquals( 3, om.getCount( 0 ) );
+
+        // the batch-built models, with common edges removed
+        CompactNGramGraph expSpam = new CompactNGramGraph();
+        for ( String t : spam ) {
+            expSpam.addGraph( CompactNGramGraph.fromText( t ), 1.0 );
+        }
+        expSpam.scale( 1.0 / 3 );
+        CompactNGramGraph expHam = new CompactNGramGraph( hamSum );
+        expHam.scale( 0.5 );
+        CompactNGramGraph.removeNoise( expSpam, expHam );
+
+        CompactNGramGraph[] models = om.getModels();
+        assertEquals( expSpam.length(), models[0].length() );
+        assertEquals( 1.0, models[0].valueSimilarity( expSpam ), 1e-12 );
+        assertEquals( expHam.length(), models[1].length() );
+    }
+
+    public void testModelsArePublishedPerBatch()
+    {
+        CompactNGramGraph spam = CompactNGramGraph.fromText( "cheap pills now" );
+        CompactNGramGraph ham = CompactNGramGraph.fromText( "lunch on monday" );
+        OnlineModels om = new OnlineModels(
+            new CompactNGramGraph[] { spam, ham }, new long[] { 1, 1 }, 2, 0 );
+        CompactNGramGraph[] before = om.getModels();
+
+        // the first document of a batch is only summed
+        assertFalse( om.learn( CompactNGramGraph.fromText( "buy cheap pills" ), 0 ) );
+        assertSame( before, om.getModels() );
+        assertEquals( 2, om.getCount( 0 ) );
+
+        assertTrue( om.learn( CompactNGramGraph.fromText( "notes from monday" ), 1 ) );
+        CompactNGramGraph[] after = om.getModels();
+        assertNotSame( before[0], after[0] );
+        assertNotSame( before[1], after[1] );
+        assertTrue( after[0].length() > before[0].length() );
+    }
+
+    public void testBatchTurningManyEdgesIntoNoise()
+    {
+        String shared = "the quarterly report covers sales, travel and the new office in the city centre";
+        CompactNGramGraph common = CompactNGramGraph.fromText( shared );
+        CompactNGramGraph spam = CompactNGramGraph.fromText( "cheap pills now" );
+        CompactNGramGraph ham = CompactNGramGraph.fromText( "lunch on monday, " + shared );
+        CompactNGramGraph other = CompactNGramGraph.fromText( "weekend hiking trip; " + shared );
+        OnlineModels om = new OnlineModels(
+            new CompactNGramGraph[] { spam, ham, other }, new long[] { 1, 1, 1 }, 2, 0 );
+        CompactNGramGraph[] before = om.getModels();
+
+        // only the spam class learns, but every shared edge becomes noise
+        assertFalse( om.learn( CompactNGramGraph.fromText( shared ), 0 ) );
+        assertTrue( om.learn( CompactNGramGraph.fromText( "pills for sale" ), 0 ) );
+        CompactNGramGraph[] after = om.getModels();
+
+        int keys = 0;
+        for ( int s = 0; s < common.slots( 3 ); s++ ) {
+            long key = common.keyAt( 3, s );
+            if ( key == 0 ) {
+                continue;
+            }
+            keys++;
+            for ( CompactNGramGraph m : after ) {
+                assertEquals( 0.0, m.weight( 3, key, 0 ), 0.0 );
+            }
+            // published snapshots are never modified
+            assertTrue( before[1].weight( 3, key, 0 ) > 0 );
+            assertTrue( before[2].weight( 3, key, 0 ) > 0 );
+        }
+        assertTrue( keys > 50 );
+        assertNotSame( before[1], after[1] );
+        assertNotSame( before[2], after[2] );
+        assertTrue( after[1].length() < before[1].length() );
+    }
+
+    public void testSeededFromDocumentSums() throws Exception
+    {
+        String[] spam = { "cheap pills now", "buy cheap pills", "cheap watches for sale" };
+        File dir = File.createTempFile( "online", "" );
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File[] files = new File[spam.length + 1];
+        for ( int i = 0; i < files.length; i++ ) {
+            files[i] = new File( dir, "doc" + i + ".txt" );
+            files[i].deleteOnExit();
+            if ( i < spam.length ) {
+                FileOutputStream out = new FileOutputStream( files[i] );
+                out.write( spam[i].getBytes( "UTF-8" ) );
+                out.close();
+            }
+        }
+
+        // the missing file adds nothing to the sum
+        CompactNGramGraph sum = OnlineModels.sumOf( files, 3, 3, 3 );
+        CompactNGramGraph expected = new CompactNGramGraph();
+        for ( int i = 0; i < spam.length; i++ ) {
+            expected.addGraph( CompactNGramGraph.fromText( CorpusReader.readText( files[i] ) ), 1.0 );
+        }
+        assertEquals( expected.length(), sum.length() );
+        assertEquals( 1.0, sum.valueSimilarity( expected ), 1e-12 );
+
+        // learning a document weighs it like one of the seed documents
+        CompactNGramGraph ham = CompactNGramGraph.fromText( "lunch on monday" );
+        OnlineModels om = new OnlineModels(
+            new CompactNGramGraph[] { sum, ham }, new long[] { 3, 1 }, 1, 0 );
+        CompactNGramGraph doc = CompactNGramGraph.fromText( "pills for sale" );
+        om.learn( doc, 0 );
+        expected.addGraph( doc, 1.0 );
+        expected.scale( 0.25 );
+        CompactNGramGraph[] models = om.getModels();
+        for ( int s = 0; s < models[0].slots( 3 ); s++ ) {
+            long key = models[0].keyAt( 3, s );
+            if ( key != 0 ) {
+                assertEquals( expected.weight( 3, key, 0 ), models[0].weightAt( 3, s ), 1e-12 );
+            }
+        }
+    }
+
+    public void testPublishedModelsArePruned()
+    {
+        CompactNGramGraph spam = CompactNGramGraph.fromText( "cheap pills and cheap watches, buy now" );
+        CompactNGramGraph ham = CompactNGramGraph.fromText( "notes from the meeting on monday" );
+        OnlineModels om = new OnlineModels(
+            new CompactNGramGraph[] { spam, ham }, new long[] { 1, 1 }, 1, 8 );
+        assertTrue( om.getModels()[0].length() <= 8 );
+
+        om.learn( CompactNGramGraph.fromText( "cheap pills for sale, buy cheap watches today" ), 0 );
+        CompactNGramGraph[] models = om.getModels();
+        assertTrue( models[0].length() <= 8 );
+        assertTrue( models[1].length() <= 8 );
+        // pruned edges still count towards normalization
+        assertTrue( models[0].edgeCount( 3 ) > 8 );
+    }
+}
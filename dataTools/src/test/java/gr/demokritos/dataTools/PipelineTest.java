@@ -0,0 +1,367 @@
+package gr.demokritos.dataTools;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Checks that every document passes through all stages once.
+ */
+public class PipelineTest 
+    extends TestCase
+{
+    public PipelineTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PipelineTest.class );
+    }
+
+    private static File[] corpus( int size ) throws Exception
+    {
+        File dir = File.createTempFile( "pipeline", "" );
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File[] files = new File[size];
+        for ( int i = 0; i < size; i++ ) {
+            files[i] = new File( dir, "doc" + i + ".txt" );
+            files[i].deleteOnExit();
+            FileOutputStream out = new FileOutputStream( files[i] );
+            out.write( ( "message number " + i ).getBytes( "UTF-8" ) );
+            out.close();
+        }
+        return files;
+    }
+
+    public void testEveryDocumentReachesTheSink() throws Exception
+    {
+        final File[] files = corpus( 200 );
+        final AtomicIntegerArray seen = new AtomicIntegerArray( files.length );
+        final AtomicLong edges = new AtomicLong();
+
+        Pipeline<String, CompactNGramGraph> p = new Pipeline<String, CompactNGramGraph>( 2, 3, 2, 4 );
+        p.run( files,
+            new Pipeline.Stage<File, String>() {
+                public String apply( File f ) throws Exception {
+                    return CorpusReader.readText( f );
+                }
+            },
+            new Pipeline.Stage<String, CompactNGramGraph>() {
+                public CompactNGramGraph apply( String text ) {
+                    return CompactNGramGraph.fromText( text, 3, 3, 3 );
+                }
+            },
+            new Pipeline.Sink<CompactNGramGraph>() {
+                public void accept( int index, CompactNGramGraph g ) {
+                    seen.incrementAndGet( index );
+                    edges.addAndGet( g.edgeCount( 3 ) );
+                }
+            } );
+
+        long expected = 0;
+        for ( int i = 0; i < files.length; i++ ) {
+            assertEquals( 1, seen.get( i ) );
+            expected += CompactNGramGraph.fromText( CorpusReader.readText( files[i] ), 3, 3, 3 ).edgeCount( 3 );
+        }
+        assertEquals( expected, edges.get() );
+
+        Pipeline.Metrics[] m = p.metrics();
+        assertEquals( 3, m.length );
+        for ( Pipeline.Metrics sm : m ) {
+            assertEquals( 200, sm.processed() );
+            assertEquals( 0, sm.failed() );
+            assertEquals( 0, sm.queueDepth() );
+            // the queues are bounded
+            assertTrue( sm.maxQueueDepth() <= 4 );
+            assertTrue( sm.throughput() > 0 );
+        }
+        assertEquals( 3, p.report().split( "\n" ).length );
+    }
+
+    public void testFailedDocumentsAreDropped() throws Exception
+    {
+        final File[] files = corpus( 50 );
+        final AtomicIntegerArray seen = new AtomicIntegerArray( files.length );
+
+        Pipeline<String, Integer> p = new Pipeline<String, Integer>( 1, 2, 1, 2 );
+        p.run( files,
+            new Pipeline.Stage<File, String>() {
+                public String apply( File f ) throws Exception {
+                    return CorpusReader.readText( f );
+                }
+            },
+            new Pipeline.Stage<String, Integer>() {
+                public Integer apply( String text ) {
+                    if ( text.trim().endsWith( "7" ) ) {
+                        throw new IllegalStateException( "bad document" );
+                    }
+                    return text.length();
+                }
+            },
+            new Pipeline.Sink<Integer>() {
+                public void accept( int index, Integer len ) {
+                    seen.incrementAndGet( index );
+                }
+            } );
+
+        Pipeline.Metrics[] m = p.metrics();
+        assertEquals( 50, m[0].processed() );
+        assertEquals( 5, m[1].failed() );
+        assertEquals( 45, m[2].processed() );
+        assertEquals( 0, seen.get( 7 ) );
+        assertEquals( 1, seen.get( 8 ) );
+    }
+
+    public void testFailedReadsLeaveTheirSlotEmpty() throws Exception
+    {
+        for ( boolean perFile : new boolean[] { false, true } ) {
+            final File[] files = corpus( 40 );
+            files[13].delete();
+            final String[] slots = new String[files.length];
+
+            Pipeline<String, String> p = new Pipeline<String, String>( 4, 2, 1, 4, perFile );
+            p.run( files,
+                new Pipeline.Stage<File, String>() {
+                    public String apply( File f ) throws Exception {
+                        return CorpusReader.readText( f );
+                    }
+                },
+                new Pipeline.Stage<String, String>() {
+                    public String apply( String text ) {
+                        return text.trim();
+                    }
+                },
+                new Pipeline.Sink<String>() {
+                    public void accept( int index, String text ) {
+                        slots[index] = text;
+                    }
+                } );
+
+            // the sink never sees the missing file, so its slot stays empty
+            assertEquals( 1, p.metrics()[0].failed() );
+            assertTrue( java.util.Arrays.equals( new int[] { 13 }, p.dropped() ) );
+            assertEquals( 39, p.metrics()[2].processed() );
+            for ( int i = 0; i < files.length; i++ ) {
+                if ( i == 13 ) {
+                    assertNull( slots[i] );
+                } else {
+                    assertEquals( "message number " + i, slots[i] );
+                }
+            }
+        }
+    }
+
+    public void testStreamedMeanCountsUnreadableDocuments() throws Exception
+    {
+        final File[] files = corpus( 30 );
+        files[4].delete();
+        final CompactNGramGraph[] model = new CompactNGramGraph[1];
+        final int[] merged = new int[1];
+        Pipeline.Sink<CompactNGramGraph> mergeStreamed = new Pipeline.Sink<CompactNGramGraph>() {
+            public void accept( int index, CompactNGramGraph g ) {
+                if ( model[0] == null ) {
+                    model[0] = g;
+                } else {
+                    model[0].scale( 1 - 1.0 / ( merged[0] + 1 ) );
+                    model[0].addGraph( g, 1.0 / ( merged[0] + 1 ) );
+                }
+                merged[0]++;
+            }
+        };
+
+        Pipeline<String, CompactNGramGraph> p = new Pipeline<String, CompactNGramGraph>( 2, 2, 1, 4 );
+        p.run( files,
+            new Pipeline.Stage<File, String>() {
+                public String apply( File f ) throws Exception {
+                    return CorpusReader.readText( f );
+                }
+            },
+            new Pipeline.Stage<String, CompactNGramGraph>() {
+                public CompactNGramGraph apply( String text ) {
+                    return CompactNGramGraph.fromText( text, 3, 3, 3 );
+                }
+            },
+            mergeStreamed );
+        // as the streaming modeller does, an unreadable file is merged empty
+        for ( int i : p.dropped() ) {
+            mergeStreamed.accept( i, new CompactNGramGraph( 3, 3, 3 ) );
+        }
+        assertEquals( files.length, merged[0] );
+
+        // the batch mean over the same documents, the missing one empty
+        CompactNGramGraph batch = new CompactNGramGraph( 3, 3, 3 );
+        for ( int i = 0; i < files.length; i++ ) {
+            if ( i != 4 ) {
+                batch.addGraph( CompactNGramGraph.fromText( CorpusReader.readText( files[i] ), 3, 3, 3 ),
+                    1.0 / files.length );
+            }
+        }
+        assertEquals( batch.edgeCount( 3 ), model[0].edgeCount( 3 ) );
+        for ( int s = 0; s < batch.slots( 3 ); s++ ) {
+            long key = batch.keyAt( 3, s );
+            if ( key != 0 ) {
+                assertEquals( batch.weightAt( 3, s ), model[0].weight( 3, key, 0 ), 1e-9 );
+            }
+        }
+    }
+
+    /**
+     * Runs a pipeline whose build or sink stage throws an Error on one 
+     * document, and returns what run() threw
+     */
+    private static Throwable runWithError( final boolean inSink, boolean perFile ) throws Exception
+    {
+        final File[] files = corpus( 200 );
+        final Pipeline<String, String> p = new Pipeline<String, String>( 2, 2, 1, 2, perFile );
+        final Throwable[] thrown = new Throwable[1];
+        Thread runner = new Thread() {
+            public void run() {
+                try {
+                    p.run( files,
+                        new Pipeline.Stage<File, String>() {
+                            public String apply( File f ) throws Exception {
+                                return CorpusReader.readText( f );
+                            }
+                        },
+                        new Pipeline.Stage<String, String>() {
+                            public String apply( String text ) {
+                                if ( !inSink && text.trim().endsWith( " 5" ) ) {
+                                    throw new Error( "build failed" );
+                                }
+                                return text;
+                            }
+                        },
+                        new Pipeline.Sink<String>() {
+                            public void accept( int index, String text ) {
+                                if ( inSink && index == 5 ) {
+                                    throw new Error( "sink failed" );
+                                }
+                            }
+                        } );
+                }
+                catch ( Throwable ex ) {
+                    thrown[0] = ex;
+                }
+            }
+        };
+        runner.start();
+        // the run must end instead of blocking on queues nobody drains
+        runner.join( 20000 );
+        assertFalse( runner.isAlive() );
+        return thrown[0];
+    }
+
+    public void testErrorsStopTheRun() throws Exception
+    {
+        for ( boolean perFile : new boolean[] { false, true } ) {
+            Throwable ex = runWithError( true, perFile );
+            assertNotNull( ex );
+            assertEquals( "sink failed", ex.getMessage() );
+
+            ex = runWithError( false, perFile );
+            assertNotNull( ex );
+            assertEquals( "build failed", ex.getMessage() );
+        }
+    }
+
+    public void testStoppedRunLeavesNoBlockedWorkers() throws Exception
+    {
+        final File[] files = corpus( 50 );
+        Pipeline<String, String> p = new Pipeline<String, String>( 1, 2, 1, 1 );
+        try {
+            p.run( files,
+                new Pipeline.Stage<File, String>() {
+                    public String apply( File f ) throws Exception {
+                        return CorpusReader.readText( f );
+                    }
+                },
+                new Pipeline.Stage<String, String>() {
+                    public String apply( String text ) {
+                        // busy, so the interrupts of the abort arrive 
+                        // while no builder waits on a queue
+                        long end = System.nanoTime() + 300000000L;
+                        while ( System.nanoTime() < end ) {
+                        }
+                        return text;
+                    }
+                },
+                new Pipeline.Sink<String>() {
+                    public void accept( int index, String text ) throws Exception {
+                        // fails once the builders have filled its queue
+                        Thread.sleep( 100 );
+                        throw new Error( "sink failed" );
+                    }
+                } );
+            fail( "the run did not rethrow the error" );
+        } catch ( Error expected ) {
+            assertEquals( "sink failed", expected.getMessage() );
+        }
+
+        // the builders must not block ending the input of the dead sink
+        long deadline = System.currentTimeMillis() + 10000;
+        while ( pipelineThreads() > 0 && System.currentTimeMillis() < deadline ) {
+            Thread.sleep( 10 );
+        }
+        assertEquals( 0, pipelineThreads() );
+    }
+
+    private static int pipelineThreads()
+    {
+        int count = 0;
+        for ( Thread t : Thread.getAllStackTraces().keySet() ) {
+            if ( t.getName().startsWith( "Pipeline-" ) && t.isAlive() ) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void testPerFileReads() throws Exception
+    {
+        final File[] files = corpus( 300 );
+        final AtomicIntegerArray seen = new AtomicIntegerArray( files.length );
+        final AtomicInteger reading = new AtomicInteger();
+        final AtomicInteger mostReading = new AtomicInteger();
+
+        Pipeline<String, Integer> p = new Pipeline<String, Integer>( 16, 2, 1, 4, true );
+        p.run( files,
+            new Pipeline.Stage<File, String>() {
+                public String apply( File f ) throws Exception {
+                    int now = reading.incrementAndGet();
+                    synchronized ( mostReading ) {
+                        mostReading.set( Math.max( now, mostReading.get() ) );
+                    }
+                    Thread.sleep( 1 );
+                    reading.decrementAndGet();
+                    return CorpusReader.readText( f );
+                }
+            },
+            new Pipeline.Stage<String, Integer>() {
+                public Integer apply( String text ) {
+                    return text.length();
+                }
+            },
+            new Pipeline.Sink<Integer>() {
+                public void accept( int index, Integer len ) {
+                    seen.incrementAndGet( index );
+                }
+            } );
+
+        for ( int i = 0; i < files.length; i++ ) {
+            assertEquals( 1, seen.get( i ) );
+        }
+        // reads overlap, but no more than the cap
+        assertTrue( mostReading.get() <= 16 );
+        assertEquals( 300, p.metrics()[2].processed() );
+    }
+}
@@ -0,0 +1,293 @@
+package gr.demokritos.dataTools;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Round-trip tests for the framed scoring server.
+ */
+public class ScoringServerTest 
+    extends TestCase
+{
+    public ScoringServerTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ScoringServerTest.class );
+    }
+
+    /**
+     * Scores against two tiny models; a message containing "crash" 
+     * throws an error
+     */
+    private static class TinyScorer implements Scorer
+    {
+        final CompactNGramGraph[] models = {
+            CompactNGramGraph.fromText( "cheap pills buy now" ),
+            CompactNGramGraph.fromText( "meeting notes for monday" )
+        };
+
+        public String[] getLabels()
+        {
+            return new String[] { "spam", "ham" };
+        }
+
+        public Verdict score( String text )
+        {
+            if ( text.contains( "crash" ) ) {
+                throw new AssertionError( "scorer failed" );
+            }
+            CompactNGramGraph cng = CompactNGramGraph.fromText( text );
+            double[] sims = { cng.valueSimilarity( models[0] ), cng.valueSimilarity( models[1] ) };
+            return new Verdict( sims[0] > sims[1] ? 0 : 1, sims );
+        }
+    }
+
+    public void testQueryReturnsVerdict() throws Exception
+    {
+        Scorer scorer = new TinyScorer();
+        ScoringServer server = new ScoringServer( scorer, 0 );
+        int port = server.start();
+        try {
+            assertTrue( ScoringServer.query( port, "buy cheap pills" ).startsWith( "0 " ) );
+            assertTrue( ScoringServer.query( port, "notes for the meeting" ).startsWith( "1 " ) );
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    public void testConcurrentClients() throws Exception
+    {
+        final Scorer scorer = new TinyScorer();
+        ScoringServer server = new ScoringServer( scorer, 0, 4, 3 );
+        final int port = server.start();
+        final AtomicInteger wrong = new AtomicInteger();
+        Thread[] clients = new Thread[8];
+        try {
+            for ( int c = 0; c < clients.length; c++ ) {
+                final int id = c;
+                clients[c] = new Thread() {
+                    public void run() {
+                        for ( int q = 0; q < 25; q++ ) {
+                            String text = ( ( id + q ) % 2 == 0 ? "buy cheap pills " : "monday meeting " ) + q;
+                            try {
+                                if ( !ScoringServer.query( port, text ).equals( scorer.score( text ).toString() ) ) {
+                                    wrong.incrementAndGet();
+                                }
+                            }
+                            catch ( IOException ex ) {
+                                wrong.incrementAndGet();
+                            }
+                        }
+                    }
+                };
+                clients[c].start();
+            }
+            for ( Thread t : clients ) {
+                t.join();
+            }
+            assertEquals( 0, wrong.get() );
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    public void testFailingScorerRepliesWithError() throws Exception
+    {
+        ScoringServer server = new ScoringServer( new TinyScorer(), 0, 4, 1 );
+        int port = server.start();
+        try {
+            assertTrue( ScoringServer.query( port, "crash now" ).startsWith( "ERROR " ) );
+            // the scoring thread survives the error
+            assertTrue( ScoringServer.query( port, "buy cheap pills" ).startsWith( "0 " ) );
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    public void testOverloadIsRejected() throws Exception
+    {
+        final CountDownLatch entered = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final AtomicInteger batches = new AtomicInteger();
+        Scorer blocking = new TinyScorer() {
+            public Verdict[] scoreAll( String[] texts )
+            {
+                batches.incrementAndGet();
+                entered.countDown();
+                try {
+                    release.await();
+                }
+                catch ( InterruptedException ex ) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.scoreAll( texts );
+            }
+        };
+
+        // one scoring thread and room for one waiting request
+        ScoringServer server = new ScoringServer( blocking, 0, 8, 1, 1 );
+        final int port = server.start();
+        try {
+            final String[] replies = new String[3];
+            Thread[] clients = new Thread[3];
+            for ( int c = 0; c < clients.length; c++ ) {
+                final int id = c;
+                clients[c] = new Thread() {
+                    public void run() {
+                        try {
+                            replies[id] = ScoringServer.query( port, "buy cheap pills" );
+                        }
+                        catch ( IOException ex ) {
+                            replies[id] = ex.toString();
+                        }
+                    }
+                };
+            }
+            clients[0].start();
+            entered.await();
+
+            // the thread is busy: one request waits, the other is rejected
+            clients[1].start();
+            clients[2].start();
+            long deadline = System.currentTimeMillis() + 5000;
+            while ( clients[1].isAlive() && clients[2].isAlive()
+                    && System.currentTimeMillis() < deadline ) {
+                Thread.sleep( 5 );
+            }
+            release.countDown();
+            for ( Thread t : clients ) {
+                t.join();
+            }
+
+            assertTrue( replies[0].startsWith( "0 " ) );
+            int rejected = 0;
+            for ( int c = 1; c < 3; c++ ) {
+                if ( replies[c].equals( "ERROR overloaded" ) ) {
+                    rejected++;
+                }
+                else {
+                    assertTrue( replies[c].startsWith( "0 " ) );
+                }
+            }
+            assertEquals( 1, rejected );
+            assertEquals( 2, batches.get() );
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    public void testQueuedRequestsAreScoredTogether() throws Exception
+    {
+        final CountDownLatch entered = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final AtomicInteger largest = new AtomicInteger();
+        Scorer blocking = new TinyScorer() {
+            public Verdict[] scoreAll( String[] texts )
+            {
+                largest.set( Math.max( largest.get(), texts.length ) );
+                entered.countDown();
+                try {
+                    release.await();
+                }
+                catch ( InterruptedException ex ) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.scoreAll( texts );
+            }
+        };
+
+        ScoringServer server = new ScoringServer( blocking, 0, 8, 1, 100 );
+        final int port = server.start();
+        try {
+            Thread[] clients = new Thread[6];
+            final AtomicInteger wrong = new AtomicInteger();
+            for ( int c = 0; c < clients.length; c++ ) {
+                clients[c] = new Thread() {
+                    public void run() {
+                        try {
+                            if ( !ScoringServer.query( port, "monday meeting" ).startsWith( "1 " ) ) {
+                                wrong.incrementAndGet();
+                            }
+                        }
+                        catch ( IOException ex ) {
+                            wrong.incrementAndGet();
+                        }
+                    }
+                };
+            }
+            clients[0].start();
+            entered.await();
+            for ( int c = 1; c < clients.length; c++ ) {
+                clients[c].start();
+            }
+            // let the others queue up behind the busy thread
+            Thread.sleep( 200 );
+            release.countDown();
+            for ( Thread t : clients ) {
+                t.join();
+            }
+            assertEquals( 0, wrong.get() );
+            assertTrue( largest.get() > 1 );
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    public void testStopReleasesThreads() throws Exception
+    {
+        ScoringServer server = new ScoringServer( new TinyScorer(), 0, 4, 2 );
+        int port = server.start();
+        ScoringServer.query( port, "buy cheap pills" );
+        server.stop();
+
+        try {
+            ScoringServer.query( port, "buy cheap pills" );
+            fail( "the server still accepts connections" );
+        }
+        catch ( IOException expected ) {
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while ( serverThreads() > 0 && System.currentTimeMillis() < deadline ) {
+            Thread.sleep( 10 );
+        }
+        assertEquals( 0, serverThreads() );
+    }
+
+    public void testStopIsIdempotent() throws Exception
+    {
+        ScoringServer unstarted = new ScoringServer( new TinyScorer(), 0 );
+        unstarted.stop();
+        unstarted.stop();
+
+        ScoringServer server = new ScoringServer( new TinyScorer(), 0 );
+        server.start();
+        server.stop();
+        server.stop();
+    }
+
+    private static int serverThreads()
+    {
+        int count = 0;
+        for ( Thread t : Thread.getAllStackTraces().keySet() ) {
+            if ( t.getName().startsWith( "ScoringServer-" ) ) {
+                assertTrue( t.isDaemon() );
+                count++;
+            }
+        }
+        return count;
+    }
+}
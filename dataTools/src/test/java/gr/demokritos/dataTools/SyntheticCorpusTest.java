@@ -0,0 +1,114 @@
+package gr.demokritos.dataTools;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Checks that generated corpora are reproducible and laid out 
+ * the way the classifiers expect.
+ */
+public class SyntheticCorpusTest 
+    extends TestCase
+{
+    public SyntheticCorpusTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( SyntheticCorpusTest.class );
+    }
+
+    public void testSameSeedSameMessages()
+    {
+        SyntheticCorpus a = new SyntheticCorpus( 7 );
+        SyntheticCorpus b = new SyntheticCorpus( 7 );
+        // generation order does not matter
+        String late = b.message( 1, 99 );
+        for ( int i = 0; i < 100; i++ ) {
+            assertEquals( a.message( 0, i ), b.message( 0, i ) );
+        }
+        assertEquals( late, a.message( 1, 99 ) );
+        assertFalse( a.message( 0, 1 ).equals( new SyntheticCorpus( 8 ).message( 0, 1 ) ) );
+        assertEquals( 500, a.messageOfSize( 3, 5, 500 ).length() );
+    }
+
+    public void testMessageSizes()
+    {
+        SyntheticCorpus gen = new SyntheticCorpus( 1 );
+        gen.setMessageSize( 1000, 0, 1000 );
+        assertEquals( 1000, gen.message( 0, 0 ).length() );
+
+        gen.setMessageSize( 1000, 2.0, 4000 );
+        int small = 0;
+        for ( int i = 0; i < 200; i++ ) {
+            int len = gen.message( 1, i ).length();
+            assertTrue( len <= 4000 && len >= 16 );
+            if ( len < 1000 ) {
+                small++;
+            }
+        }
+        // about half of the messages are below the median
+        assertTrue( small > 60 && small < 140 );
+    }
+
+    public void testOverlapSeparatesClasses()
+    {
+        SyntheticCorpus gen = new SyntheticCorpus( 3 );
+        gen.setVocabulary( 2000, 0.2 );
+        CompactNGramGraph own = model( gen, 0 );
+        CompactNGramGraph other = model( gen, 1 );
+        CompactNGramGraph doc = CompactNGramGraph.fromText( gen.message( 0, 1000 ) );
+        assertTrue( doc.valueSimilarity( own ) > doc.valueSimilarity( other ) );
+
+        gen.setVocabulary( 2000, 1.0 );
+        assertEquals( model( gen, 0 ).length(), model( gen, 0 ).length() );
+    }
+
+    private static CompactNGramGraph model( SyntheticCorpus gen, int cls )
+    {
+        CompactNGramGraph mdl = new CompactNGramGraph();
+        for ( int i = 0; i < 20; i++ ) {
+            mdl.addGraph( CompactNGramGraph.fromText( gen.message( cls, i ) ), 1.0 / 20 );
+        }
+        return mdl;
+    }
+
+    public void testLayouts() throws Exception
+    {
+        File root = File.createTempFile( "synthetic", "" );
+        root.delete();
+        SyntheticCorpus gen = new SyntheticCorpus( 5 );
+        gen.setMessageSize( 200, 0.5, 1000 );
+        gen.writeBinary( root, 6, 2 );
+        gen.writeMulticlass( new File( root, "multi" ), 3, 4, 1 );
+
+        assertEquals( 6, new File( root, "Train/Spam" ).list().length );
+        assertEquals( 6, new File( root, "Train/Ham" ).list().length );
+        assertEquals( 2, new File( root, "Test/Ham" ).list().length );
+        assertEquals( 4, new File( root, "multi/Class02/Train" ).list().length );
+        assertEquals( 1, new File( root, "multi/Class00/Test" ).list().length );
+
+        // test messages follow the training messages of their class
+        byte[] bytes = Files.readAllBytes( new File( root, "Test/Ham/msg000007.txt" ).toPath() );
+        assertEquals( gen.message( 1, 7 ), new String( bytes, "UTF-8" ) );
+
+        delete( root );
+    }
+
+    private static void delete( File f )
+    {
+        File[] children = f.listFiles();
+        if ( children != null ) {
+            for ( File c : children ) {
+                delete( c );
+            }
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,95 @@
+package gr.demokritos.dataTools;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Checks that the tree reduction gives the same model at every
+ * level of parallelism.
+ */
+public class TreeMergeTest
+    extends TestCase
+{
+    public TreeMergeTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( TreeMergeTest.class );
+    }
+
+    /**
+     * A learning-rate merge of dense vectors; like JInsect's mergeGraph
+     * it rounds differently depending on the merge order
+     */
+    private static final TreeMerge.Merger<double[]> MERGE = new TreeMerge.Merger<double[]>() {
+        public double[] copy( double[] graph )
+        {
+            return graph.clone();
+        }
+
+        public void merge( double[] model, double[] other, double weight )
+        {
+            for ( int i = 0; i < model.length; i++ ) {
+                model[i] += ( other[i] - model[i] ) * weight;
+            }
+        }
+    };
+
+    private static double[][] graphs( int count )
+    {
+        Random rnd = new Random( 3 );
+        double[][] graphs = new double[count][50];
+        for ( double[] g : graphs ) {
+            for ( int i = 0; i < g.length; i++ ) {
+                g[i] = rnd.nextDouble() * 1000;
+            }
+        }
+        return graphs;
+    }
+
+    public void testSameModelForEveryParallelism()
+    {
+        double[] serial = TreeMerge.mean( graphs( 1000 ), MERGE, 1, false );
+        for ( int threads : new int[] { 2, 3, 8 } ) {
+            double[] parallel = TreeMerge.mean( graphs( 1000 ), MERGE, threads, false );
+            // bit for bit, not just close
+            assertTrue( Arrays.equals( serial, parallel ) );
+        }
+
+        double[] mean = new double[50];
+        for ( double[] g : graphs( 1000 ) ) {
+            for ( int i = 0; i < mean.length; i++ ) {
+                mean[i] += g[i] / 1000;
+            }
+        }
+        for ( int i = 0; i < mean.length; i++ ) {
+            assertEquals( mean[i], serial[i], 1e-9 );
+        }
+    }
+
+    public void testKeepGraphs()
+    {
+        double[][] graphs = graphs( 40 );
+        double[][] before = new double[graphs.length][];
+        for ( int i = 0; i < graphs.length; i++ ) {
+            before[i] = graphs[i].clone();
+        }
+
+        double[] kept = TreeMerge.mean( graphs, MERGE, 4, true );
+        for ( int i = 0; i < graphs.length; i++ ) {
+            assertTrue( Arrays.equals( before[i], graphs[i] ) );
+        }
+        assertTrue( Arrays.equals( kept, TreeMerge.mean( graphs, MERGE, 1, false ) ) );
+
+        // otherwise the model is the first graph, merged into in place
+        double[][] merged = graphs( 40 );
+        assertSame( merged[0], TreeMerge.mean( merged, MERGE, 2, false ) );
+    }
+}
@@ -0,0 +1,55 @@
+package gr.demokritos.dataTools;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Checks bounds and generation invalidation of the verdict cache.
+ */
+public class VerdictCacheTest 
+    extends TestCase
+{
+    public VerdictCacheTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( VerdictCacheTest.class );
+    }
+
+    public void testGenerationsAndBounds()
+    {
+        VerdictCache cache = new VerdictCache( 2, 1 << 20 );
+        String a = VerdictCache.digest( "message a\n" );
+        String b = VerdictCache.digest( "message b\n" );
+        String c = VerdictCache.digest( "message c\n" );
+        assertEquals( 64, a.length() );
+        assertEquals( a, VerdictCache.digest( "message a\n" ) );
+
+        Verdict v = new Verdict( 1, new double[] { 0.1, 0.2 } );
+        cache.put( a, 1, v );
+        assertSame( v, cache.get( a, 1 ) );
+
+        cache.put( b, 1, v );
+        cache.put( c, 1, v );
+        assertEquals( 2, cache.size() );
+        assertNull( cache.get( a, 1 ) );
+
+        // newer models drop every older verdict
+        assertNull( cache.get( b, 2 ) );
+        assertEquals( 0, cache.size() );
+        cache.put( a, 1, v );
+        assertEquals( 0, cache.size() );
+
+        VerdictCache small = new VerdictCache( 100, 2 * VerdictCache.ENTRY_BYTES + 40 );
+        small.put( a, 1, v );
+        small.put( b, 1, v );
+        small.put( c, 1, v );
+        assertEquals( 2, small.size() );
+        assertTrue( small.bytes() <= 2 * VerdictCache.ENTRY_BYTES + 40 );
+        assertEquals( 1, cache.hits() );
+    }
+}
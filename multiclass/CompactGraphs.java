@@ -0,0 +1,64 @@
+/*
+This file is part of nggSpamFilter.
+
+nggSpamFilter is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+nggSpamFilter is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with nggSpamFilter.  If not, see <http://www.gnu.org/licenses/>.
+
+Copyright (C) Vasileios Charisopoulos, 2015
+
+*/
+
+
+import gr.demokritos.iit.jinsect.documentModel.representations.DocumentNGramGraph;
+import gr.demokritos.iit.jinsect.structs.UniqueVertexGraph;
+import salvo.jesus.graph.WeightedEdge;
+
+import gr.demokritos.dataTools.CompactNGramGraph;
+import gr.demokritos.dataTools.EdgeMap;
+
+/**
+ * Conversions between JInsect's DocumentNGramGraph and the
+ * primitive-backed CompactNGramGraph used when scoring.
+ * @author VHarisop
+ *
+ */
+public class CompactGraphs {
+
+	/**
+	 * Converts a document n-gram graph (e.g. a model graph) 
+	 * to its compact representation
+	 * @param dg the document n-gram graph
+	 * @return the equivalent compact graph
+	 */
+	public static CompactNGramGraph fromGraph(DocumentNGramGraph dg) {
+		CompactNGramGraph cg = new CompactNGramGraph(dg.getMinSize(), 
+				dg.getMaxSize(), dg.getWindowSize());
+		
+		for (int n = dg.getMinSize(); n <= dg.getMaxSize(); ++n) {
+			UniqueVertexGraph level = dg.getGraphLevelByNGramSize(n);
+			EdgeMap edges = cg.getLevel(n);
+			
+			for (Object o: level.getEdgeSet()) {
+				WeightedEdge e = (WeightedEdge) o;
+				String from = e.getVertexA().toString();
+				String to = e.getVertexB().toString();
+				
+				edges.put(CompactNGramGraph.edgeKey(
+						CompactNGramGraph.ngramKey(from, 0, from.length()),
+						CompactNGramGraph.ngramKey(to, 0, to.length())),
+					e.getWeight());
+			}
+		}
+		return cg;
+	}
+}
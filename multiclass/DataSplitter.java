@@ -18,9 +18,9 @@ Copyright (C) Vasileios Charisopoulos, 2015
 
 */
 import java.io.File;
-import java.io.FileFilter;
 
 import dataset.Pair;
+import gr.demokritos.dataTools.CorpusReader;
 
 /**
  * A simple Java class that splits a dataset into 
@@ -46,12 +46,7 @@ public class DataSplitter {
 		n = order; 
 		
 		// populate the filelist
-		File dir = new File(directory);
-		fileList = dir.listFiles(new FileFilter() {
-			public boolean accept(File path) {
-				return path.isFile();
-			}
-		});
+		fileList = CorpusReader.scan(new File(directory)).files();
 
 		if (n >= fileList.length) {
 			throw new IllegalArgumentException("N is larger than #data");
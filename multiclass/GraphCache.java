@@ -0,0 +1,202 @@
+/*
+This file is part of nggSpamFilter.
+
+nggSpamFilter is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+nggSpamFilter is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with nggSpamFilter.  If not, see <http://www.gnu.org/licenses/>.
+
+Copyright (C) Vasileios Charisopoulos, 2015
+
+*/
+
+
+import gr.demokritos.iit.jinsect.documentModel.representations.DocumentNGramGraph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import dataset.Pair;
+
+/**
+ * A cache of document n-gram graphs for a corpus, so that every
+ * document is parsed exactly once no matter how many folds use it.
+ * Graphs are kept in memory until their estimated size reaches a cap;
+ * graphs built after that are serialized to a spill directory and 
+ * read back on demand. {@link #clear()} removes the spill directory
+ * and must be called once the cache is no longer needed.
+ * 
+ * Cached graphs are shared: callers must not modify them 
+ * (clone them first, e.g. before merging into them).
+ * @author VHarisop
+ *
+ */
+public class GraphCache {
+
+	// rough heap cost of one JInsect edge with its vertices
+	private static final long BYTES_PER_EDGE = 256;
+
+	private final long maxBytes;
+	private final File spillDir;
+	
+	private final ConcurrentHashMap<File, Entry> entries = 
+		new ConcurrentHashMap<File, Entry>();
+	private final AtomicLong usedBytes = new AtomicLong();
+	private final AtomicInteger spills = new AtomicInteger();
+
+	/**
+	 * The cached graph of a single document, built on first access
+	 */
+	private class Entry {
+		private final File source;
+		private DocumentNGramGraph graph;
+		private File spilled;
+
+		Entry(File source) {
+			this.source = source;
+		}
+
+		synchronized DocumentNGramGraph get() throws IOException {
+			if (graph != null) {
+				return graph;
+			}
+			if (spilled != null) {
+				return readSpilled(spilled);
+			}
+
+			DocumentNGramGraph dg = Modeller.readGraph(source);
+			
+			long cost = dg.length() * BYTES_PER_EDGE;
+			if (usedBytes.addAndGet(cost) <= maxBytes) {
+				graph = dg;
+			}
+			else {
+				usedBytes.addAndGet(-cost);
+				spillDir.mkdirs();
+				spilled = new File(spillDir, spills.getAndIncrement() + ".grph");
+				writeSpilled(dg, spilled);
+			}
+			return dg;
+		}
+	}
+
+	/**
+	 * Creates an empty cache
+	 * @param maxBytes the estimated heap budget for cached graphs
+	 * @param spillDir the directory for graphs over the budget, 
+	 * 		  created on the first spill and deleted by {@link #clear()}
+	 */
+	public GraphCache(long maxBytes, File spillDir) {
+		this.maxBytes = maxBytes;
+		this.spillDir = spillDir;
+	}
+
+	/**
+	 * Returns the graph of a document, building it if 
+	 * this is the first time it is requested
+	 * @param file the document
+	 * @return the n-gram graph of the document
+	 * @throws IOException if the document cannot be read
+	 */
+	public DocumentNGramGraph get(File file) throws IOException {
+		Entry e = entries.get(file);
+		if (e == null) {
+			Entry fresh = new Entry(file);
+			e = entries.putIfAbsent(file, fresh);
+			if (e == null) { e = fresh; }
+		}
+		return e.get();
+	}
+
+	/**
+	 * Returns the graphs of all documents of a corpus except
+	 * those of a held-out fold
+	 * @param files the documents of the corpus
+	 * @param limit the indices of the held-out fold
+	 * @return the graphs of the remaining documents
+	 */
+	public DocumentNGramGraph[] getAllBut(File[] files, Pair limit) {
+		DocumentNGramGraph[] graphs = new DocumentNGramGraph[files.length - limit.range()];
+		int run_index = 0;
+		for (int index = 0; index < files.length; ++index) {
+			if (limit.includes(index)) {
+				continue;
+			}
+			try {
+				graphs[run_index] = get(files[index]);
+			}
+			catch (IOException ex) {
+				ex.printStackTrace();
+				graphs[run_index] = Modeller.newGraph();
+			}
+			run_index++;
+		}
+		return graphs;
+	}
+
+	/**
+	 * @return the number of graphs spilled to disk so far
+	 */
+	public int spilledCount() {
+		return spills.get();
+	}
+
+	/**
+	 * Deletes all spilled graphs along with the spill directory and 
+	 * forgets every cached graph. The cache can still be used afterwards,
+	 * rebuilding graphs on demand.
+	 */
+	public void clear() {
+		entries.clear();
+		usedBytes.set(0);
+		File[] spilled = spillDir.listFiles();
+		if (spilled != null) {
+			for (File f: spilled) {
+				f.delete();
+			}
+		}
+		spillDir.delete();
+	}
+
+	private static void writeSpilled(DocumentNGramGraph dg, File f) throws IOException {
+		ObjectOutputStream out = new ObjectOutputStream(
+				new BufferedOutputStream(new FileOutputStream(f)));
+		try {
+			out.writeObject(dg);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	private static DocumentNGramGraph readSpilled(File f) throws IOException {
+		ObjectInputStream in = new ObjectInputStream(
+				new BufferedInputStream(new FileInputStream(f)));
+		try {
+			return (DocumentNGramGraph) in.readObject();
+		}
+		catch (ClassNotFoundException ex) {
+			throw new IOException(ex);
+		}
+		finally {
+			in.close();
+		}
+	}
+}
@@ -1,12 +1,27 @@
 import java.io.File;
 import java.io.FilenameFilter;
 import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 import dataset.ConfusionMatrix;
 
+import gr.demokritos.dataTools.MetricsRegistry;
+import gr.demokritos.dataTools.ScoringServer;
+
 public class Main {
 	
-	public static void main(String[] args) {
+	public static void main(String[] args) throws Exception {
+		
+		// expose latencies and model sizes over JMX
+		MetricsRegistry.get().registerMBean();
+		
+		// resident mode: Main --serve baseDirectory port
+		if (args[0].equals("--serve")) {
+			NggClassifier nggc = new NggClassifier(args[1]);
+			MetricsRegistry.get().startDumps(60, TimeUnit.SECONDS, System.err);
+			new ScoringServer(nggc, Integer.parseInt(args[2])).serve();
+			return;
+		}
 		
 		/* create a multiclass classifier on base directory 
 		 * and perform classification on all categories
@@ -14,8 +29,11 @@ public class Main {
 		NggClassifier nggc = new NggClassifier(args[0]);
  		ConfusionMatrix cnf = nggc.classify_all_categories();
 		System.out.println(cnf.accuracy());
+		System.out.print(MetricsRegistry.get().snapshot());
 
 		// double accVal = nggc.cross_validate();
+		// or, running up to 10 folds at once:
+		// double accVal = new NggClassifier(args[0], 10).cross_validate(10);
 		// System.out.printf("Cross validation score: %f\n", accVal);
 		
 		/* print the classification results
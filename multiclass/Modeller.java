@@ -21,10 +21,19 @@ Copyright (C) Vasileios Charisopoulos, 2015
 import gr.demokritos.iit.jinsect.documentModel.representations.*;
 
 import java.io.File;
-import java.io.FileFilter;
-import java.io.FilenameFilter;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 import dataset.*;
+import gr.demokritos.dataTools.CorpusReader;
+import gr.demokritos.dataTools.MetricsRegistry;
+import gr.demokritos.dataTools.Pipeline;
+import gr.demokritos.dataTools.TreeMerge;
 
 /**
  * A simple Java class that creates an N-gram graph representation
@@ -35,17 +44,68 @@ import dataset.*;
 public class Modeller {
 
 	private File[] fileList;
+	private CorpusReader.Listing listing;
 	private DocumentNGramGraph[] distroGraphs;
 	private DocumentNGramGraph modelGraph;
 	
-	private static boolean useThreads = true;
-	private int numThreads;
+	/** The n-gram ranks and the window of every document and model graph */
+	public static final int MIN_SIZE = 3, MAX_SIZE = 3, WINDOW = 3;
+	
+	// the number of worker threads used to build models
+	private static int parallelism = Runtime.getRuntime().availableProcessors();
+	
+	// fold documents into the model as they are parsed
+	private static boolean streaming = false;
+	
+	// reads in flight on virtual threads, or 0 to read on a fixed pool
+	private static int virtualReads = 0;
+	
+	private static final MetricsRegistry.Histogram BUILD_TIME = 
+		MetricsRegistry.get().histogram(MetricsRegistry.BUILD);
+	private static final MetricsRegistry.Histogram MERGE_TIME = 
+		MetricsRegistry.get().histogram(MetricsRegistry.MERGE);
+	private static final LongAdder TRAIN_DOCUMENTS = 
+		MetricsRegistry.get().counter(MetricsRegistry.TRAIN_DOCUMENTS);
+	private int numMerged;
 
 	/** 
 	 * static setter for enabling/disabling threading
 	 */
 	public static void setThreading(boolean setting) {
-		useThreads = setting;
+		setParallelism(setting ? Runtime.getRuntime().availableProcessors() : 1);
+	}
+	
+	/**
+	 * static setter for the number of worker threads used 
+	 * to build models; 1 disables threading
+	 * @param threads the level of parallelism
+	 */
+	public static void setParallelism(int threads) {
+		parallelism = Math.max(1, threads);
+	}
+
+	/**
+	 * static setter for enabling/disabling streaming model building:
+	 * every document is merged into the model as soon as it is parsed 
+	 * and then dropped, so only the model and the few graphs queued in 
+	 * the pipeline are kept in memory. Document graphs are not available
+	 * in this mode.
+	 */
+	public static void setStreaming(boolean setting) {
+		streaming = setting;
+	}
+
+	/**
+	 * static setter for reading files on virtual threads, one per file,
+	 * with up to {@code maxInFlight} reads at a time (0 disables). Meant
+	 * for corpora on network storage, where reads are slow but cheap to 
+	 * overlap; graphs are still built on {@code parallelism} platform 
+	 * threads. Without virtual threads (before Java 21) every read gets
+	 * a platform thread of its own.
+	 * @param maxInFlight the maximum number of concurrent reads
+	 */
+	public static void setVirtualReads(int maxInFlight) {
+		virtualReads = Math.max(0, maxInFlight);
 	}
 
 	/**
@@ -54,24 +114,21 @@ public class Modeller {
 	 * @param dirPath the directory path
 	 */
 	public Modeller(String dirPath) {	
-		File directory = new File(dirPath);
-		
-		// save the directory .corpus files to a filelist
-		fileList = directory.listFiles(new FileFilter() {
-			public boolean accept(File path) {
-				return path.isFile();
-			}
-		});
+		// save the directory files to a filelist
+		listing = CorpusReader.scan(new File(dirPath));
+		fileList = listing.files();
 		
-		if (useThreads) {
-			// only use up to N threads, where N is #available cores
-			numThreads = Runtime.getRuntime().availableProcessors();
-			initGraphsThreaded(dirPath);
-			updateGraphsThreaded();
+		if (streaming) {
+			streamGraphs(null);
 		}
 		else {
-			initGraphs(dirPath);
-			updateGraphs(); 
+			if (parallelism > 1 || virtualReads > 0) {
+				initGraphsParallel(null);
+			}
+			else {
+				initGraphs(dirPath);
+			}
+			updateGraphs(false);
 		}
 	}
 	
@@ -83,17 +140,33 @@ public class Modeller {
 	 */
 	public Modeller(String dirPath, Pair limit) {
 		
-		File directory = new File(dirPath);
+		listing = CorpusReader.scan(new File(dirPath));
+		fileList = listing.files();
 		
-		fileList = directory.listFiles(new FileFilter() {
-			public boolean accept(File path) {
-				return path.isFile();
-			}
-		});
+		if (streaming) {
+			streamGraphs(limit);
+			return;
+		}
 		
 		// initialize graphs with the Pair filter
-		initGraphs(dirPath, limit);
-		updateGraphs();
+		if (parallelism > 1 || virtualReads > 0) {
+			initGraphsParallel(limit);
+		}
+		else {
+			initGraphs(dirPath, limit);
+		}
+		updateGraphs(false);
+	}
+	
+	/**
+	 * Creates an instance of Modeller from a set of already built
+	 * document graphs, e.g. those held by a GraphCache. The graphs 
+	 * are left untouched: partial models start from copies.
+	 * @param graphs the graphs of the training documents
+	 */
+	public Modeller(DocumentNGramGraph[] graphs) {
+		distroGraphs = graphs.clone();
+		updateGraphs(true);
 	}
 	
 	/**
@@ -117,8 +190,8 @@ public class Modeller {
 					filename = fileList[index].getAbsolutePath();
 				
 					// create the distribution graphs for the email body
-					distroGraphs[run_index] = new DocumentNGramGraph(); 
-					distroGraphs[run_index].loadDataStringFromFile(filename);
+					distroGraphs[run_index] = readGraph(new File(filename));
+					TRAIN_DOCUMENTS.increment();
 					
 					// notify for progress
 					if ((run_index % 50) == 0) { System.out.print(run_index + "... "); }
@@ -126,6 +199,8 @@ public class Modeller {
 				}
 				
 			} catch (Exception ex) {
+				// an unreadable document counts as an empty one
+				distroGraphs[run_index++] = newGraph();
 				ex.printStackTrace();
 			}			
 		}
@@ -150,127 +225,203 @@ public class Modeller {
 				filename = fileList[index].getAbsolutePath();
 				
 				// create the distribution graphs for the email body
-				distroGraphs[index] = new DocumentNGramGraph(); 
-				distroGraphs[index].loadDataStringFromFile(filename);
+				distroGraphs[index] = readGraph(new File(filename));
+				TRAIN_DOCUMENTS.increment();
 				
 				if (index % 50 == 0) { System.out.print(index + " ..."); }
 
 			} catch (Exception ex) {
+				// an unreadable document counts as an empty one
+				distroGraphs[index] = newGraph();
 				ex.printStackTrace();
 			}			
 		}
 		System.out.println("Done!");
 	}
 
-	private void initGraphsThreaded(String dirPath) {
-		distroGraphs = new DocumentNGramGraph[fileList.length];
-
-		final int sz = (distroGraphs.length / numThreads) + 1;
-		final String dirp = dirPath;
-		Thread[] tids = new Thread[numThreads];
-
-		for (int i = 0; i < numThreads; ++i) {
-			tids[i] = new Thread("Thread-" + i) {
-				public void run() {
-					int tid = (int) Thread.currentThread().getId() % numThreads;
-					int startInd = tid * sz;
-					int endInd = (tid + 1) * sz;
-					// get max(myend, nggs.length)
-					endInd = (endInd > distroGraphs.length) ? distroGraphs.length : endInd; 
-					
-					for (int j = startInd; j < endInd; j++) {
-						try {   
-							String filename = fileList[j].getAbsolutePath();
-							distroGraphs[j] = new DocumentNGramGraph();
-							distroGraphs[j].loadDataStringFromFile(filename);
-						} catch (Exception ex) { ex.printStackTrace(); }
-					}
-
-					System.out.printf("Thread %d finished: %d-%d\n", tid, startInd, endInd);
-
-				}
-			};
-			tids[i].start();
+	/**
+	 * Initializes a set of N-Gram Graphs for each training file in the
+	 * corpus on a read, build, store {@link Pipeline}, so files are read 
+	 * while earlier ones are parsed. This replaces the per-file fork/join
+	 * tasks: the graph builders share one queue, which balances skewed 
+	 * file sizes just as well, and files enter the pipeline largest 
+	 * first, so a huge message cannot hold up the end of the run. Every
+	 * graph keeps the position of its file among the training files; an
+	 * unreadable file leaves an empty graph in its position.
+	 * @param limit the indices to exclude, or null to use every file
+	 */
+	private void initGraphsParallel(Pair limit) {
+		
+		// position of every training file among the training files
+		final List<Integer> train = new ArrayList<Integer>();
+		for (int i = 0; i < fileList.length; ++i) {
+			if (limit == null || !limit.includes(i)) {
+				train.add(i);
+			}
 		}
-
-		// wait for all threads to finish
-		for (int i = 0; i < numThreads; ++i) {
-			try {
-				tids[i].join();
+		distroGraphs = new DocumentNGramGraph[train.size()];
+		
+		// order training files by decreasing file size
+		Integer[] bySize = new Integer[train.size()];
+		for (int i = 0; i < bySize.length; ++i) { bySize[i] = i; }
+		Arrays.sort(bySize, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Long.compare(listing.size(train.get(b)), listing.size(train.get(a)));
+			}
+		});
+		
+		File[] files = new File[bySize.length];
+		final int[] slots = new int[bySize.length];
+		for (int k = 0; k < bySize.length; ++k) {
+			slots[k] = bySize[k];
+			files[k] = fileList[train.get(bySize[k])];
+		}
+		
+		System.out.print("Reading graphs...");
+		runPipeline(files, new Pipeline.Sink<DocumentNGramGraph>() {
+			public void accept(int index, DocumentNGramGraph dg) {
+				distroGraphs[slots[index]] = dg;
+				TRAIN_DOCUMENTS.increment();
+			}
+		});
+		// the pipeline drops documents it failed on
+		for (int i = 0; i < distroGraphs.length; ++i) {
+			if (distroGraphs[i] == null) {
+				distroGraphs[i] = newGraph();
 			}
-			catch (InterruptedException ex) { ex.printStackTrace(); }
 		}
+		System.out.println("Done!");
 	}
 
-	
 	/**
-	 * Iterates over all graphs created and merges them into
-	 * one "model" graph.
+	 * Parses the files of the corpus on a read, build, merge 
+	 * {@link Pipeline} and merges every graph into the model as soon 
+	 * as it is parsed. Merges are serialized on the model and weighted 
+	 * by the number of graphs merged so far, so the model is the running
+	 * mean of the documents (in completion order). No document graph 
+	 * outlives its merge, and the bounded queues of the pipeline keep 
+	 * readers from running ahead of the merges. A document the pipeline
+	 * dropped is merged as an empty graph, as in batch mode, so both 
+	 * modes average over the same number of documents.
+	 * @param limit the indices to exclude, or null to use every file
 	 */
-	private void updateGraphs() {
-		// create an initial graph as a starting point
-		modelGraph = distroGraphs[0];
-		double lr = 0.5;
+	private void streamGraphs(Pair limit) {
+		List<File> train = new ArrayList<File>();
+		for (int j = 0; j < fileList.length; ++j) {
+			if (limit == null || !limit.includes(j)) {
+				train.add(fileList[j]);
+			}
+		}
 		
-		System.out.println("Updating graphs...");
-		// progressively merge all graphs into the model graph
-		for (int index = 1; index < distroGraphs.length; index++)
-		{
-			// update learning parameter to use weight averaging
-			lr = 1 - (index / (double)(index + 1));
-			
-			modelGraph.mergeGraph(distroGraphs[index], lr);
+		System.out.print("Streaming graphs...");
+		int[] dropped = runPipeline(train.toArray(new File[train.size()]), 
+			new Pipeline.Sink<DocumentNGramGraph>() {
+				public void accept(int index, DocumentNGramGraph dg) {
+					TRAIN_DOCUMENTS.increment();
+					mergeStreamed(dg);
+				}
+			});
+		
+		// an unreadable document counts as an empty one
+		for (int i = 0; i < dropped.length; ++i) {
+			mergeStreamed(newGraph());
+		}
+		if (modelGraph == null) {
+			modelGraph = newGraph();
 		}
+		System.out.println("Done!");
 	}
-
-	private void updateGraphsThreaded() {
+	
+	/**
+	 * Runs files through a pipeline of {@code parallelism} readers (or
+	 * virtual thread reads, if enabled), {@code parallelism} graph 
+	 * builders and a single consumer, and prints the metrics of every stage
+	 * @param files the documents
+	 * @param sink consumes the graph of every document
+	 * @return the indices of the documents that never reached the sink
+	 */
+	private static int[] runPipeline(File[] files, Pipeline.Sink<DocumentNGramGraph> sink) {
+		boolean perFile = virtualReads > 0;
+		Pipeline<String, DocumentNGramGraph> pipeline = new Pipeline<String, DocumentNGramGraph>(
+				perFile ? virtualReads : parallelism, parallelism, 1, 2 * parallelism, perFile);
 		
-		final int sz = (distroGraphs.length / numThreads) + 1;
-		final DocumentNGramGraph[] mdls = new DocumentNGramGraph[numThreads];
-
-		Thread[] tids = new Thread[numThreads];
-
-		for (int i = 0; i < numThreads; ++i) {
-			tids[i] = new Thread("Thread-" + i) {
-				public void run() {
-					int tid = (int) Thread.currentThread().getId() % numThreads;
-					int startInd = tid * sz;
-					int endInd = (tid + 1) * sz;
-					// get max(myend, nggs.length)
-					endInd = (endInd > distroGraphs.length) ? distroGraphs.length : endInd; 
-					
-					double lr = 0.5;
-					mdls[tid] = distroGraphs[startInd];
-
-					// merge intermediate model graphs
-					for (int j = startInd + 1; j < endInd; j++) {
-						mdls[tid].mergeGraph(distroGraphs[j], lr);
-						lr = 1 - (j / (double)(j + 1));
-					}
-
-					System.out.printf("Thread %d finished merging: %d-%d\n", tid, startInd, endInd);
-				}
-			};
-			tids[i].start();
+		try {
+			pipeline.run(files, READ_TEXT, BUILD_GRAPH, sink);
 		}
-
-		// wait for all threads to finish
-		for (int i = 0; i < numThreads; ++i) {
-			try {
-				tids[i].join();
+		catch (InterruptedException ex) {
+			// a model of part of the documents would pass for a result
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ex);
+		}
+		System.out.print(pipeline.report());
+		return pipeline.dropped();
+	}
+	
+	// pipeline stage reading the text of a document
+	private static final Pipeline.Stage<File, String> READ_TEXT = 
+		new Pipeline.Stage<File, String>() {
+			public String apply(File file) throws IOException {
+				return CorpusReader.readText(file);
+			}
+		};
+	
+	// pipeline stage parsing a text into an n-gram graph
+	private static final Pipeline.Stage<String, DocumentNGramGraph> BUILD_GRAPH = 
+		new Pipeline.Stage<String, DocumentNGramGraph>() {
+			public DocumentNGramGraph apply(String text) {
+				return buildGraph(text);
 			}
-			catch (InterruptedException ex) { ex.printStackTrace(); }
+		};
+	
+	/**
+	 * Merges a freshly parsed graph into the model
+	 * @param dg the graph of a document
+	 */
+	private synchronized void mergeStreamed(DocumentNGramGraph dg) {
+		if (modelGraph == null) {
+			modelGraph = dg;
 		}
-
-		// merge all intermediate models as well 
-		modelGraph = mdls[0]; 
-		double lr = 0.5;
-		for (int i = 1; i < numThreads; ++i) {
-			modelGraph.mergeGraph(mdls[i], lr);
-			lr = 1 - (i / (double)(i + 1));
+		else {
+			long t0 = System.nanoTime();
+			modelGraph.mergeGraph(dg, 1.0 / (numMerged + 1));
+			MERGE_TIME.recordSince(t0);
 		}
+		numMerged++;
+		
+		if (numMerged % 50 == 0) { System.out.print(numMerged + "... "); }
 	}
 	
+	/**
+	 * Merges all graphs into the model graph by the pairwise tree 
+	 * reduction of {@link TreeMerge}, on {@code parallelism} threads.
+	 * Every level of parallelism, a single thread included, goes through
+	 * the same tree, so the model is bit-for-bit the same however many
+	 * threads build it. mergeGraph is not an exact mean, so the model 
+	 * differs from a left-to-right merge of the graphs, which earlier 
+	 * versions used for serial runs, and from a streamed model.
+	 * @param keepGraphs True to leave the document graphs untouched
+	 */
+	private void updateGraphs(boolean keepGraphs) {
+		System.out.println("Updating graphs...");
+		if (distroGraphs.length == 0) {
+			modelGraph = newGraph();
+			return;
+		}
+		modelGraph = TreeMerge.mean(distroGraphs, MERGE_GRAPHS, parallelism, keepGraphs);
+	}
+	
+	// merges JInsect graphs with a learning rate
+	private static final TreeMerge.Merger<DocumentNGramGraph> MERGE_GRAPHS = 
+		new TreeMerge.Merger<DocumentNGramGraph>() {
+			public DocumentNGramGraph copy(DocumentNGramGraph graph) {
+				return graph.clone();
+			}
+			
+			public void merge(DocumentNGramGraph model, DocumentNGramGraph other, double weight) {
+				model.mergeGraph(other, weight);
+			}
+		};
+	
 	/**
 	 * Simple getter for accessing the model graph
 	 * @return the model graph
@@ -280,6 +431,38 @@ public class Modeller {
 	}
 
 
+	/**
+	 * Parses a document into an n-gram graph. The text is read through
+	 * the shared corpus reader, as loadDataStringFromFile would read it.
+	 * @param file the document
+	 * @return the graph of the document
+	 * @throws IOException if the document cannot be read
+	 */
+	public static DocumentNGramGraph readGraph(File file) throws IOException {
+		return buildGraph(CorpusReader.readText(file));
+	}
+	
+	/**
+	 * Creates an empty graph with the n-gram parameters of the models
+	 * @return the empty graph
+	 */
+	public static DocumentNGramGraph newGraph() {
+		return new DocumentNGramGraph(MIN_SIZE, MAX_SIZE, WINDOW);
+	}
+	
+	/**
+	 * Parses a text into an n-gram graph
+	 * @param text the text of a document
+	 * @return the graph of the document
+	 */
+	public static DocumentNGramGraph buildGraph(String text) {
+		long t0 = System.nanoTime();
+		DocumentNGramGraph dg = newGraph();
+		dg.setDataString(text);
+		BUILD_TIME.recordSince(t0);
+		return dg;
+	}
+	
 	/**
 	 * Extract a set of DocumentNGramGraphs for a 
 	 * given directory of documents 
@@ -289,20 +472,31 @@ public class Modeller {
 	public static DocumentNGramGraph[] extractGraphs(String baseDir) {
 
 		// extract all filenames into a list
-		File[] fileList = (new File(baseDir)).listFiles(new FileFilter() {
-			public boolean accept(File path) {
-				return path.isFile();
-			}
-		});
+		File[] fileList = CorpusReader.scan(new File(baseDir)).files();
 
 		// allocate an array of nggs
-		DocumentNGramGraph[] nggs = new DocumentNGramGraph[fileList.length];
+		final DocumentNGramGraph[] nggs = new DocumentNGramGraph[fileList.length];
+		if (virtualReads > 0) {
+			runPipeline(fileList, new Pipeline.Sink<DocumentNGramGraph>() {
+				public void accept(int index, DocumentNGramGraph dg) {
+					nggs[index] = dg;
+				}
+			});
+			
+			// documents that could not be read get empty graphs
+			for (int i = 0; i < nggs.length; i++) {
+				if (nggs[i] == null) {
+					nggs[i] = newGraph();
+				}
+			}
+			return nggs;
+		}
+		
 		for (int i = 0; i < fileList.length; i++) {
-			nggs[i] = new DocumentNGramGraph();
-
 			try {
-				nggs[i].loadDataStringFromFile(fileList[i].getAbsolutePath());
+				nggs[i] = readGraph(fileList[i]);
 			} catch (Exception ex) {
+				nggs[i] = newGraph();
 				ex.printStackTrace();
 			}
 		} 
@@ -313,7 +507,8 @@ public class Modeller {
 	/**
 	 * Simple getter for accessing the full array of 
 	 * document graphs
-	 * @return the array of graphs for all documents
+	 * @return the array of graphs for all documents, 
+	 * 		   or null if the model was built by streaming
 	 */
 	public DocumentNGramGraph[] getGraphs() {
 		return distroGraphs;
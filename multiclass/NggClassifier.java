@@ -23,15 +23,34 @@ import gr.demokritos.iit.jinsect.structs.GraphSimilarity;
 import gr.demokritos.iit.jinsect.documentModel.representations.*;
 
 import java.io.File;
-import java.io.FilenameFilter;
-import java.io.FileFilter;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Files;
 
 import dataset.Pair;
 import dataset.ConfusionMatrix;
 
+import gr.demokritos.dataTools.CompactNGramGraph;
+import gr.demokritos.dataTools.CorpusReader;
+import gr.demokritos.dataTools.FoldModels;
+import gr.demokritos.dataTools.MetricsRegistry;
+import gr.demokritos.dataTools.MultiModelScorer;
+import gr.demokritos.dataTools.OnlineModels;
+import gr.demokritos.dataTools.Pipeline;
+import gr.demokritos.dataTools.Scorer;
+import gr.demokritos.dataTools.Verdict;
+import gr.demokritos.dataTools.VerdictCache;
+
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  * A simple Java class that performs k-ary classification 
@@ -46,7 +65,7 @@ import java.util.Arrays;
  * 		ConfusionMatrix cnf = new NggClassifier(baseDir);
  *
  */
-public class NggClassifier {
+public class NggClassifier implements Scorer {
 
 	private boolean usesValidation = false;
 	private String[] classLabels;
@@ -57,8 +76,80 @@ public class NggClassifier {
 	// models[i] is the model graph for the i-th category
 	private DocumentNGramGraph[] models;
 	
+	// scores against compact copies of the models
+	private volatile MultiModelScorer scorer;
+	
+	// models that absorb new documents, if learning is enabled
+	private OnlineModels online;
+	
 	private NGramCachedGraphComparator ngc; 
 	
+	// document graphs shared by all folds, if enabled
+	private GraphCache graphCache;
+	
+	// per-class partial sums for subtractive fold models, if enabled
+	private FoldModels[] foldModels;
+	
+	// verdicts of identical messages, if enabled; read by server threads
+	private volatile VerdictCache verdicts;
+	
+	private static boolean useCompact = true;
+	
+	// maximum number of edges of a compact model, or 0 for no pruning
+	private static int pruneEdges = 0;
+	
+	// the number of threads of every stage of the evaluation pipeline
+	private static int parallelism = 1;
+	
+	// test reads in flight on virtual threads, or 0 to read on a fixed pool
+	private static int virtualReads = 0;
+	
+	private static final MetricsRegistry.Histogram NOISE_TIME = 
+		MetricsRegistry.get().histogram(MetricsRegistry.NOISE);
+	private static final MetricsRegistry.Histogram SIMILARITY_TIME = 
+		MetricsRegistry.get().histogram(MetricsRegistry.SIMILARITY);
+	private static final MetricsRegistry.Histogram CLASSIFY_TIME = 
+		MetricsRegistry.get().histogram(MetricsRegistry.CLASSIFY);
+	
+	/**
+	 * static setter for scoring with compact graphs instead 
+	 * of JInsect's DocumentNGramGraph comparator
+	 */
+	public static void setCompactScoring(boolean setting) {
+		useCompact = setting;
+	}
+	
+	/**
+	 * static setter for pruning the compact models to their 
+	 * {@code maxEdges} heaviest edges (0 disables pruning)
+	 */
+	public static void setPruning(int maxEdges) {
+		pruneEdges = maxEdges;
+	}
+	
+	/**
+	 * static setter for evaluating test sets on a read, build, score
+	 * {@link Pipeline} with {@code threads} threads per stage; 1 keeps
+	 * the serial loop. Evaluation with a graph cache or a verdict cache
+	 * stays serial, since both skip building the test graphs.
+	 * @param threads the number of threads of every stage
+	 */
+	public static void setParallelism(int threads) {
+		parallelism = Math.max(1, threads);
+	}
+	
+	/**
+	 * static setter for reading test files on virtual threads, one per
+	 * file, with up to {@code maxInFlight} reads at a time (0 disables).
+	 * Test sets are then evaluated on the pipeline, building and scoring
+	 * graphs on one platform thread per core, so reads from network 
+	 * storage overlap with scoring without oversubscribing the CPUs.
+	 * @param maxInFlight the maximum number of concurrent reads
+	 */
+	public static void setVirtualReads(int maxInFlight) {
+		virtualReads = Math.max(0, maxInFlight);
+	}
+	
 	/**
 	 * Creates a classifier using N-gram graphs
 	 * given a list of directories containing datasets for 
@@ -96,12 +187,7 @@ public class NggClassifier {
 	 */
 	public NggClassifier(String baseDir) {
 		File dir = new File(baseDir);
-		dataDirs = dir.listFiles(new FilenameFilter() {
-			@Override
-			public boolean accept(File current, String name) {
-				return new File(current, name).isDirectory();
-			}
-		});
+		dataDirs = CorpusReader.scan(dir).directories();
 		
 		initLabels(dir);
 		
@@ -120,12 +206,7 @@ public class NggClassifier {
 		usesValidation = true;
 
 		File dir = new File(baseDir);
-		dataDirs = dir.listFiles(new FilenameFilter() {
-			@Override
-			public boolean accept(File current, String name) {
-				return new File(current, name).isDirectory();
-			}
-		});
+		dataDirs = CorpusReader.scan(dir).directories();
 		
 
 		initLabels(dir);
@@ -142,18 +223,97 @@ public class NggClassifier {
 		ngc = new NGramCachedGraphComparator();
 	}
 	
+	/**
+	 * Creates a classifier that shares the datasets and data splits 
+	 * of another one, but has its own models and comparator. Used to
+	 * run folds concurrently without sharing model state.
+	 * @param other the classifier whose data to share
+	 */
+	private NggClassifier(NggClassifier other) {
+		usesValidation = other.usesValidation;
+		classLabels = other.classLabels;
+		dataDirs = other.dataDirs;
+		dtsp = other.dtsp;
+		order = other.order;
+		graphCache = other.graphCache;
+		foldModels = other.foldModels;
+		
+		// folds score with different models, so they cache separately
+		if (other.verdicts != null) {
+			verdicts = new VerdictCache(other.verdicts);
+		}
+		
+		ngc = new NGramCachedGraphComparator();
+	}
+	
+	/**
+	 * Enables a per-corpus cache of document graphs, so that every 
+	 * document is parsed once and reused by the models and test loops
+	 * of all folds. Graphs beyond the memory cap are spilled to a 
+	 * temporary directory, which is removed once all folds are done.
+	 * @param maxBytes the estimated heap budget for cached graphs
+	 * @throws IOException if the spill directory cannot be created
+	 */
+	public void enableGraphCache(long maxBytes) throws IOException {
+		File spillDir = Files.createTempDirectory("nggcache").toFile();
+		spillDir.deleteOnExit();
+		graphCache = new GraphCache(maxBytes, spillDir);
+	}
+	
+	/**
+	 * Puts a cache of verdicts for identical messages in front of
+	 * candidate classification, keyed by the SHA-256 digest of the 
+	 * message text. Cached verdicts are dropped whenever the models
+	 * change, e.g. between folds.
+	 * @param maxEntries the maximum number of cached verdicts
+	 * @param maxBytes the maximum estimated size of the cache
+	 * @see VerdictCache
+	 */
+	public void enableVerdictCache(int maxEntries, long maxBytes) {
+		verdicts = new VerdictCache(maxEntries, maxBytes);
+	}
+	
+	/**
+	 * Enables subtractive fold models: every document is parsed once 
+	 * into a per-fold partial sum of its class, and the model of each 
+	 * fold is derived as the global sum minus the held-out fold's sum, 
+	 * instead of being merged from scratch. Fold models are the exact 
+	 * means of the training documents' compact graphs, not the merged 
+	 * models of {@link Modeller} (see {@link FoldModels}), and 
+	 * classification uses compact scoring in this mode.
+	 */
+	public void enableSubtractiveFolds() {
+		
+		if (!usesValidation) {
+			throw new UnsupportedOperationException("No folding order specified");
+		}
+		
+		foldModels = new FoldModels[dataDirs.length];
+		for (int i = 0; i < dataDirs.length; ++i) {
+			int[] starts = new int[order], ends = new int[order];
+			for (int n = 0; n < order; ++n) {
+				Pair lim = dtsp[i].getNthTestIndices(n);
+				starts[n] = lim.x; ends[n] = lim.y;
+			}
+			
+			File[] files = dtsp[i].getFilelist();
+			foldModels[i] = new FoldModels(files, 
+					FoldModels.assignFolds(files.length, starts, ends), order, 
+					Modeller.MIN_SIZE, Modeller.MAX_SIZE, Modeller.WINDOW);
+		}
+	}
+	
 	/**
 	 * Initialize the class labels of the dataset
 	 * @param dir the root directory of the dataset
 	 */
 	private void initLabels(File dir) {
 		
-		classLabels = dir.list(new FilenameFilter() {
-			@Override
-			public boolean accept(File current, String name) {
-				return new File(current, name).isDirectory();
-			}
-		});
+		File[] dirs = CorpusReader.scan(dir).directories();
+		classLabels = new String[dirs.length];
+		for (int i = 0; i < dirs.length; ++i) {
+			classLabels[i] = dirs[i].getName();
+		}
 	}
 	
 	/**
@@ -261,12 +421,74 @@ public class NggClassifier {
 	public ConfusionMatrix[] classify() {
 		
 		ConfusionMatrix[] matrices = new ConfusionMatrix[order];
+		try {
+			for (int i = 0; i < order; ++i) {
+				matrices[i] = classify(i);
+			}
+		}
+		finally {
+			clearGraphCache();
+		}
+		return matrices;
+	}
+
+	/**
+	 * Perform classification using all the available splits as test 
+	 * sets, running up to {@code parallelism} folds concurrently. Every 
+	 * fold builds its models in its own copy of the classifier.
+	 * @param parallelism the maximum number of folds to run at once
+	 * @return an array of confusion matrices, one per fold
+	 */
+	public ConfusionMatrix[] classifyConcurrently(int parallelism) {
+		
+		if (!usesValidation) {
+			throw new UnsupportedOperationException("No folding order specified");
+		}
+		
+		int numThreads = Math.max(1, Math.min(parallelism, order));
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		
+		List<Callable<ConfusionMatrix>> folds = new ArrayList<Callable<ConfusionMatrix>>();
 		for (int i = 0; i < order; ++i) {
-			matrices[i] = classify(i);
+			final int n = i;
+			folds.add(new Callable<ConfusionMatrix>() {
+				public ConfusionMatrix call() {
+					return new NggClassifier(NggClassifier.this).classify(n);
+				}
+			});
+		}
+		
+		ConfusionMatrix[] matrices = new ConfusionMatrix[order];
+		try {
+			List<Future<ConfusionMatrix>> results = pool.invokeAll(folds);
+			for (int i = 0; i < order; ++i) {
+				matrices[i] = results.get(i).get();
+			}
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ex);
+		}
+		catch (ExecutionException ex) {
+			throw new RuntimeException(ex.getCause());
+		}
+		finally {
+			pool.shutdown();
+			clearGraphCache();
 		}
 		return matrices;
 	}
 
+	/**
+	 * Drops the shared document graphs, if cached, 
+	 * and deletes the graphs spilled to disk
+	 */
+	private void clearGraphCache() {
+		if (graphCache != null) {
+			graphCache.clear();
+		}
+	}
+	
 	/**
 	 * Perform n-fold validation by running classification
 	 * on the n disjoint test sets resulting from the data split
@@ -275,8 +497,24 @@ public class NggClassifier {
 	public double cross_validate() {
 		
 		double accSum = 0;
-		for (int i = 0; i < order; ++i) {
-			accSum += classify(i).accuracy();
+		for (ConfusionMatrix cnf: classify()) {
+			accSum += cnf.accuracy();
+		}
+		
+		return accSum / order;
+	}
+	
+	/**
+	 * Perform n-fold validation, running up to {@code parallelism}
+	 * folds concurrently
+	 * @param parallelism the maximum number of folds to run at once
+	 * @return the average accuracy calculated
+	 */
+	public double cross_validate(int parallelism) {
+		
+		double accSum = 0;
+		for (ConfusionMatrix cnf: classifyConcurrently(parallelism)) {
+			accSum += cnf.accuracy();
 		}
 		
 		return accSum / order;
@@ -298,8 +536,11 @@ public class NggClassifier {
 			models[i] = new Modeller(trainPath).getModel();
 		}
 		
+		long t0 = System.nanoTime();
 		DocumentNGramGraph maxSub = computeMaxSubset();
 		removeNoise(maxSub);
+		NOISE_TIME.recordSince(t0);
+		initCompactModels();
 	}
 	
 	/**
@@ -310,6 +551,11 @@ public class NggClassifier {
 	 */
 	private void createModels(int n) {
 		
+		if (foldModels != null) {
+			createFoldModels(n);
+			return;
+		}
+		
 		Pair[] clims = new Pair[dataDirs.length];
 		models = new DocumentNGramGraph[dataDirs.length];
 		
@@ -317,16 +563,145 @@ public class NggClassifier {
 		for (int i = 0; i < models.length; ++i) {
 			
 			clims[i] = dtsp[i].getNthTestIndices(n);
-			models[i] = new Modeller(dataDirs[i].getAbsolutePath(), clims[i]).getModel();
+			
+			if (graphCache != null) {
+				models[i] = new Modeller(
+					graphCache.getAllBut(dtsp[i].getFilelist(), clims[i])).getModel();
+			}
+			else {
+				models[i] = new Modeller(dataDirs[i].getAbsolutePath(), clims[i]).getModel();
+			}
 		}
 		
 		// TODO: Replace with code generalized to K categories
 		// get the maximal common subset
+		long t0 = System.nanoTime();
 		DocumentNGramGraph maxSub = computeMaxSubset();
 		removeNoise(maxSub);
+		NOISE_TIME.recordSince(t0);
+		initCompactModels();
+	}
+	
+	/**
+	 * Derives the compact model graphs of a fold from the subtractive
+	 * fold models and removes their maximal common subgraph.
+	 * @param n the order of data folding to use
+	 */
+	private void createFoldModels(int n) {
+		models = null;
+		CompactNGramGraph[] compactModels = new CompactNGramGraph[foldModels.length];
+		for (int i = 0; i < foldModels.length; ++i) {
+			compactModels[i] = foldModels[i].getModel(n);
+		}
+		CompactNGramGraph.removeNoise(compactModels);
+		pruneCompactModels(compactModels);
+		scorer = new MultiModelScorer(compactModels);
+	}
+	
+	/**
+	 * Converts the final model graphs to their compact 
+	 * representation, used for scoring
+	 */
+	private void initCompactModels() {
+		CompactNGramGraph[] compactModels = new CompactNGramGraph[models.length];
+		for (int i = 0; i < models.length; ++i) {
+			compactModels[i] = CompactGraphs.fromGraph(models[i]);
+		}
+		pruneCompactModels(compactModels);
+		scorer = new MultiModelScorer(compactModels);
+	}
+	
+	/**
+	 * Prunes the compact models to the edge budget, if one is set
+	 * @param compactModels the models to prune in place
+	 */
+	private static void pruneCompactModels(CompactNGramGraph[] compactModels) {
+		if (pruneEdges > 0) {
+			for (CompactNGramGraph cng: compactModels) {
+				cng.prune(pruneEdges);
+			}
+		}
+	}
+	
+	/**
+	 * Reports the size and the accuracy of the compact models before 
+	 * and after pruning them to a given number of edges, classifying
+	 * all categories. The classifier keeps its unpruned models.
+	 * @param maxEdges the maximum number of edges per model
+	 * @return the confusion matrices before and after pruning
+	 */
+	public ConfusionMatrix[] comparePruning(int maxEdges) {
+		MultiModelScorer full = scorer;
+		try {
+			ConfusionMatrix before = classify_test_sets(true);
+			scorer = full.pruned(maxEdges);
+			ConfusionMatrix after = classify_test_sets(true);
+			
+			System.out.println("Full models: " + full.storedEdges() + " edges, " 
+				+ full.storedEdges() * CompactNGramGraph.BYTES_PER_EDGE + " bytes");
+			System.out.println("Pruned models: " + scorer.storedEdges() + " edges, " 
+				+ scorer.storedEdges() * CompactNGramGraph.BYTES_PER_EDGE + " bytes");
+			System.out.println("Accuracy: " + before.accuracy() + " -> " + after.accuracy());
+			System.out.println("Miss rate: " + before.missRate() + " -> " + after.missRate());
+			return new ConfusionMatrix[] { before, after };
+		}
+		finally {
+			// a new generation, so the verdict cache accepts it again
+			scorer = full.renewed();
+		}
+	}
+	
+	
+	/**
+	 * Enables online learning on the models built by 
+	 * {@link #createModels()}: they start from the exact mean of the
+	 * compact graphs of the training documents of every category 
+	 * (before noise removal), and {@link #learn(String, int)} merges 
+	 * new documents into them. The JInsect models are not means, so 
+	 * the training sets are summed again, in one pass. Learned models
+	 * are pruned like the built ones. Learned documents only affect 
+	 * compact scoring.
+	 * @param batchSize the number of learned documents between 
+	 * 		  noise removal steps and new scoring models
+	 */
+	public void enableLearning(int batchSize) {
+		if (models == null || usesValidation) {
+			throw new IllegalStateException("No models built from Train/ sets");
+		}
 		
+		CompactNGramGraph[] sums = new CompactNGramGraph[dataDirs.length];
+		long[] counts = new long[dataDirs.length];
+		for (int i = 0; i < dataDirs.length; ++i) {
+			File[] train = CorpusReader.scan(new File(dataDirs[i], "Train")).files();
+			sums[i] = OnlineModels.sumOf(train, 
+					Modeller.MIN_SIZE, Modeller.MAX_SIZE, Modeller.WINDOW);
+			counts[i] = train.length;
+		}
+		
+		online = new OnlineModels(sums, counts, batchSize, pruneEdges);
+		scorer = new MultiModelScorer(online.getModels());
 	}
 	
+	/**
+	 * Merges a labelled message into the model of its category.
+	 * Requires learning to be enabled.
+	 * Scoring switches to the new models once per batch of messages.
+	 * @param text the raw text of the message
+	 * @param label the index of the message's category
+	 */
+	public void learn(String text, int label) {
+		if (online == null) {
+			throw new IllegalStateException("Learning is not enabled");
+		}
+		
+		CompactNGramGraph doc = scorer.candidate(CompactNGramGraph.normalizeText(text));
+		// one learner at a time publishes, so scorers never go back in time
+		synchronized (online) {
+			if (online.learn(doc, label)) {
+				scorer = new MultiModelScorer(online.getModels());
+			}
+		}
+	}
 	
 	/**
 	 * Computes the maximal common subset of the model n-gram graphs
@@ -364,8 +739,11 @@ public class NggClassifier {
 	public static DocumentNGramGraph[] removeNoise(DocumentNGramGraph wdg,
 			 DocumentNGramGraph otherWdg)
 	{
+		long t0 = System.nanoTime();
 		DocumentNGramGraph maxSubset = otherWdg.intersectGraph(wdg);
-		return new DocumentNGramGraph[] { wdg.allNotIn(maxSubset), otherWdg.allNotIn(maxSubset) };
+		DocumentNGramGraph[] result = { wdg.allNotIn(maxSubset), otherWdg.allNotIn(maxSubset) };
+		NOISE_TIME.recordSince(t0);
+		return result;
 	}
 	
 	/**
@@ -375,11 +753,22 @@ public class NggClassifier {
 	 * @return the resulting confusion matrix 
 	 */
 	private ConfusionMatrix classify_all_categories(int n) {
-		int ctgs = models.length;
+		int ctgs = dataDirs.length;
+		boolean compact = useCompact || models == null;
+		
+		if ((parallelism > 1 || virtualReads > 0) && verdicts == null 
+				&& (graphCache == null || foldModels != null)) 
+		{
+			File[][] tests = new File[ctgs][];
+			for (int i = 0; i < ctgs; ++i) {
+				tests[i] = dtsp[i].getNthTest(n);
+			}
+			return classify_pipelined(tests, compact);
+		}
 		
 		int[][] ctrows = new int[ctgs][ctgs];
 		for (int i = 0; i < ctgs; ++i) {
-			ctrows[i] = classify_category(i, n);
+			ctrows[i] = classify_category(i, n, compact);
 		}
 		
 		return (new ConfusionMatrix(ctgs, ConfusionMatrix.flattenSeqs(ctrows)));
@@ -391,40 +780,138 @@ public class NggClassifier {
 	 * @return the resulting confusion matrix
 	 */
 	public ConfusionMatrix classify_all_categories() {
+		return classify_test_sets(useCompact || models == null);
+	}
+	
+	/**
+	 * Performs classification on the test sets of all categories 
+	 * with a given scoring mode
+	 * @param compact True to score with the compact graphs, False
+	 * 		  to use JInsect's comparator
+	 * @return the resulting confusion matrix
+	 */
+	private ConfusionMatrix classify_test_sets(boolean compact) {
 		int ctgs = models.length;
+		
+		if ((parallelism > 1 || virtualReads > 0) && verdicts == null) {
+			File[][] tests = new File[ctgs][];
+			for (int i = 0; i < ctgs; ++i) {
+				File dirPath = new File(dataDirs[i].getAbsolutePath() + "/Test");
+				tests[i] = CorpusReader.scan(dirPath).files();
+			}
+			return classify_pipelined(tests, compact);
+		}
+		
 		int [][] ctrows = new int[ctgs][ctgs];
 		for (int i = 0; i < ctgs; ++i) {
-			ctrows[i] = classify_category(i);
+			ctrows[i] = classify_category(i, compact);
 		}
 		
 		return (new ConfusionMatrix(ctgs, ConfusionMatrix.flattenSeqs(ctrows)));
 	}
 	
 	
+	/**
+	 * Classifies the test sets of all categories in a single run of a 
+	 * read, build, score {@link Pipeline}, so test files are read while
+	 * earlier ones are parsed and scored, and prints the metrics of 
+	 * every stage. Scoring with JInsect's comparator, which keeps a 
+	 * cache of its own, runs on a single thread.
+	 * @param tests the test files of every category
+	 * @param compact True to score with the compact graphs
+	 * @return the resulting confusion matrix
+	 */
+	private ConfusionMatrix classify_pipelined(File[][] tests, final boolean compact) {
+		final int ctgs = tests.length;
+		
+		// flatten the test sets, remembering the category of every file
+		List<File> files = new ArrayList<File>();
+		List<Integer> labels = new ArrayList<Integer>();
+		for (int i = 0; i < ctgs; ++i) {
+			for (File f: tests[i]) {
+				files.add(f);
+				labels.add(i);
+			}
+		}
+		final int[] actual = new int[labels.size()];
+		for (int j = 0; j < actual.length; ++j) {
+			actual[j] = labels.get(j);
+		}
+		final AtomicIntegerArray counts = new AtomicIntegerArray(ctgs * ctgs);
+		
+		boolean perFile = virtualReads > 0;
+		int threads = perFile ? Runtime.getRuntime().availableProcessors() : parallelism;
+		Pipeline<String, Object> pipeline = new Pipeline<String, Object>(
+				perFile ? virtualReads : threads, threads, compact ? threads : 1, 
+				2 * threads, perFile);
+		try {
+			pipeline.run(files.toArray(new File[files.size()]), 
+				new Pipeline.Stage<File, String>() {
+					public String apply(File file) throws IOException {
+						return CorpusReader.readText(file);
+					}
+				},
+				new Pipeline.Stage<String, Object>() {
+					public Object apply(String text) {
+						if (compact) {
+							return scorer.candidate(text);
+						}
+						return Modeller.buildGraph(text);
+					}
+				},
+				new Pipeline.Sink<Object>() {
+					public void accept(int index, Object cng) {
+						int label = compact 
+							? classify_candidate((CompactNGramGraph) cng)
+							: classify_candidate((DocumentNGramGraph) cng);
+						
+						// update the assigned category's row
+						counts.incrementAndGet(actual[index] * ctgs + label);
+					}
+				});
+		}
+		catch (InterruptedException ex) {
+			// a partial confusion matrix would pass for a result
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ex);
+		}
+		System.out.print(pipeline.report());
+		
+		int[][] ctrows = new int[ctgs][ctgs];
+		for (int i = 0; i < ctgs; ++i) {
+			for (int j = 0; j < ctgs; ++j) {
+				ctrows[i][j] = counts.get(i * ctgs + j);
+			}
+		}
+		return (new ConfusionMatrix(ctgs, ConfusionMatrix.flattenSeqs(ctrows)));
+	}
+	
 	/**
 	 * Perform classification on a test set of a given category
 	 * using the test data resulting from the data split
 	 * @param ctg the category of the test set's data
 	 * @param n the index of the fold of the data
+	 * @param compact True to score with the compact graphs
 	 * @return an array of ints, corresponding to the category's
 	 * 		   row in the confusion matrix
 	 */
-	private int[] classify_category(int ctg, int n) {
+	private int[] classify_category(int ctg, int n, boolean compact) {
 		
 		// a row of values initialized to 0
-		int[] ctRow = new int[models.length];
+		int[] ctRow = new int[dataDirs.length];
 		
 		// get the list of files
 		File[] filenameList = dtsp[ctg].getNthTest(n);
 		
 		for (File s: filenameList) {
-			DocumentNGramGraph ngg = new DocumentNGramGraph();
 			try {
-				// TODO: find full path! (used to be hamDir + "/" + s)
-				ngg.loadDataStringFromFile(s.getAbsolutePath());
-				
 				// update the assigned category's row
-				ctRow[classify_candidate(ngg)] += 1;
+				if (graphCache != null && foldModels == null) {
+					ctRow[classify_cached(s, compact)] += 1;
+				}
+				else {
+					ctRow[classify_candidate(s.getAbsolutePath(), compact)] += 1;
+				}
 			}
 			catch (Exception ex) {
 				ex.printStackTrace();
@@ -437,30 +924,23 @@ public class NggClassifier {
 	 * Perform classification on a test set of a given category
 	 * using the test data resulting from the data split
 	 * @param ctg the category of the test set's data
+	 * @param compact True to score with the compact graphs
 	 * @return an array of ints, corresponding to the category's
 	 * 		   row in the confusion matrix
 	 */
-	private int[] classify_category(int ctg) {
+	private int[] classify_category(int ctg, boolean compact) {
 		
 		// a row of values initialized to 0
 		int[] ctRow = new int[models.length];
 		
 		// get the list of files
 		File dirPath = new File(dataDirs[ctg].getAbsolutePath() + "/Test");
-		File[] filenameList = dirPath.listFiles(new FileFilter() {
-			public boolean accept(File path) {
-				return path.isFile();
-			}
-		});
+		File[] filenameList = CorpusReader.scan(dirPath).files();
 		
 		for (File s: filenameList) {
-			DocumentNGramGraph ngg = new DocumentNGramGraph();
 			try {
-				// TODO: find full path! (used to be hamDir + "/" + s)
-				ngg.loadDataStringFromFile(s.getAbsolutePath());
-				
 				// update the assigned category's row
-				ctRow[classify_candidate(ngg)] += 1;
+				ctRow[classify_candidate(s.getAbsolutePath(), compact)] += 1;
 			}
 			catch (Exception ex) {
 				ex.printStackTrace();
@@ -469,6 +949,169 @@ public class NggClassifier {
 		return ctRow;
 	}
 	
+	/**
+	 * Decides which category the file at a given path should be 
+	 * assigned to
+	 * @param path the path of the candidate file
+	 * @param compact True to score with the compact graphs
+	 * @return the index of the category the file is assigned to
+	 * @throws IOException if the file cannot be read
+	 */
+	private int classify_candidate(String path, boolean compact) throws IOException {
+		long t0 = System.nanoTime();
+		try {
+			if (verdicts != null) {
+				return cachedVerdict(path, compact).label;
+			}
+			if (compact) {
+				return classify_candidate(scorer.candidate(new File(path)));
+			}
+		
+			return classify_candidate(Modeller.readGraph(new File(path)));
+		}
+		finally {
+			CLASSIFY_TIME.recordSince(t0);
+		}
+	}
+	
+	/**
+	 * Looks up the verdict for a file in the verdict cache, 
+	 * scoring the file against every model on a miss
+	 * @param path the path of the candidate file
+	 * @param compact True to score with the compact graphs
+	 * @return the verdict for the file
+	 * @throws IOException if the file cannot be read
+	 */
+	private Verdict cachedVerdict(String path, boolean compact) throws IOException {
+		String text = CompactNGramGraph.loadText(path);
+		MultiModelScorer mms = scorer;
+		String key = verdictKey(text, compact);
+		
+		Verdict v = verdicts.get(key, mms.generation());
+		if (v != null) {
+			return v;
+		}
+		
+		double[] sims;
+		if (compact) {
+			sims = mms.similarities(mms.candidate(text));
+		}
+		else {
+			DocumentNGramGraph ngg = Modeller.buildGraph(text);
+			sims = new double[models.length];
+			for (int i = 0; i < models.length; ++i) {
+				sims[i] = computeSimilarity(ngg, i);
+			}
+		}
+		v = new Verdict(MultiModelScorer.argmax(sims), sims);
+		verdicts.put(key, mms.generation(), v);
+		return v;
+	}
+	
+	/**
+	 * @param text the normalized text of a message
+	 * @param compact True if the message is scored with the compact graphs
+	 * @return the verdict cache key of the message, distinct per scoring
+	 * 		   mode so that verdicts of the two modes never mix
+	 */
+	private static String verdictKey(String text, boolean compact) {
+		String digest = VerdictCache.digest(text);
+		return compact ? digest : "jinsect:" + digest;
+	}
+	
+	/**
+	 * Decides which category a document should be assigned to, 
+	 * using its graph from the graph cache
+	 * @param file the candidate document
+	 * @param compact True to score with the compact graphs
+	 * @return the index of the category the document is assigned to
+	 * @throws IOException if the document cannot be read
+	 */
+	private int classify_cached(File file, boolean compact) throws IOException {
+		long t0 = System.nanoTime();
+		try {
+			DocumentNGramGraph ngg = graphCache.get(file);
+			if (compact) {
+				return classify_candidate(CompactGraphs.fromGraph(ngg));
+			}
+			return classify_candidate(ngg);
+		}
+		finally {
+			CLASSIFY_TIME.recordSince(t0);
+		}
+	}
+	
+	/**
+	 * Scores a single message against every category model, 
+	 * using their compact graphs, through the verdict cache if 
+	 * enabled. Safe to call concurrently.
+	 * @param text the raw text of the message
+	 * @return the assigned category and the similarity to every model
+	 */
+	public Verdict score(String text) {
+		return score(text, scorer);
+	}
+	
+	/**
+	 * Scores a batch of messages against one snapshot of the category
+	 * models, so models learned meanwhile never mix into a batch. 
+	 * Safe to call concurrently.
+	 * @param texts the raw texts of the messages
+	 * @return the verdicts, in the order of the texts
+	 */
+	@Override
+	public Verdict[] scoreAll(String[] texts) {
+		MultiModelScorer mms = scorer;
+		Verdict[] verdicts = new Verdict[texts.length];
+		for (int i = 0; i < texts.length; ++i) {
+			verdicts[i] = score(texts[i], mms);
+		}
+		return verdicts;
+	}
+	
+	/**
+	 * Scores a message through the verdict cache with a given scorer
+	 * @param text the raw text of the message
+	 * @param mms the scorer of the models to use
+	 * @return the assigned category and the similarity to every model
+	 */
+	private Verdict score(String text, MultiModelScorer mms) {
+		long t0 = System.nanoTime();
+		try {
+			String norm = CompactNGramGraph.normalizeText(text);
+			VerdictCache exact = verdicts;
+			String key = null;
+			if (exact != null) {
+				key = verdictKey(norm, true);
+				Verdict v = exact.get(key, mms.generation());
+				if (v != null) {
+					return v;
+				}
+			}
+			
+			double[] sims = mms.similarities(mms.candidate(norm));
+			Verdict v = new Verdict(MultiModelScorer.argmax(sims), sims);
+			if (exact != null) {
+				exact.put(key, mms.generation(), v);
+			}
+			return v;
+		}
+		finally {
+			CLASSIFY_TIME.recordSince(t0);
+		}
+	}
+	
+	/**
+	 * Decides which category the compact candidate graph
+	 * should be assigned to, scoring it against all models 
+	 * in a single pass that stops once the winner is certain.
+	 * @param cng the candidate graph
+	 * @return the index of the category {@code cng} is assigned to
+	 */
+	private int classify_candidate(CompactNGramGraph cng) {
+		return scorer.best(cng);
+	}
+	
 	/**
 	 * Decides whether the candidate graph should be 
 	 * classified as belonging to a certain category. 
@@ -501,7 +1144,9 @@ public class NggClassifier {
 	 * @return the value similarity between the graphs
 	 */
 	private double computeSimilarity(DocumentNGramGraph cng, int mdl) {
+		long t0 = System.nanoTime();
 		GraphSimilarity gs = ngc.getSimilarityBetween(cng, models[mdl]);
+		SIMILARITY_TIME.recordSince(t0);
 		return gs.ValueSimilarity;
 	}
 	